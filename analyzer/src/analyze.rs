@@ -15,15 +15,53 @@
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
 use crate::{
+    cfg::CfgCache,
+    document::{reuse_item, Document, DocumentCache, DocumentChange, ItemOutput},
     issue::{find_issues, Issue},
+    rules::{
+        query_rule::QueryRule,
+        rule::{all_rules, Rule},
+    },
     tree::{parse_rust_code, AnalyzerError},
     visitors::{
+        cognitive_complexity::calculate_total_cognitive_complexity,
         cpd::{calculate_cpd_tokens, CpdToken},
-        highlight::{highlight, HighlightToken},
-        metrics::{calculate_metrics, Metrics},
+        cyclomatic_complexity::calculate_cyclomatic_complexity,
+        highlight::{highlight, highlight_node, HighlightQuery, HighlightToken},
+        metrics::{calculate_metrics, calculate_size_metrics, Metrics},
     },
 };
-use std::collections::HashMap;
+use std::{
+    collections::HashMap,
+    num::NonZeroUsize,
+    sync::atomic::{AtomicUsize, Ordering},
+    thread::{self, ScopedJoinHandle},
+};
+use tree_sitter::{Node, Tree};
+
+/// Size in bytes above which the passes over a file are executed in parallel. Parallel analysis is
+/// disabled when the parameter is missing or 0.
+const PARALLEL_THRESHOLD_PARAMETER: &str = "analysis:parallelFileSizeThreshold";
+
+/// Whether files marked as generated are skipped, `false` when the parameter is missing.
+const SKIP_GENERATED_FILES_PARAMETER: &str = "analysis:skipGeneratedFiles";
+
+/// Number of bytes at the start of a file in which the markers of generated code are looked for.
+const GENERATED_HEADER_SIZE: usize = 1024;
+
+/// Lowercase markers found in the header of files generated by tools like bindgen or prost.
+const GENERATED_MARKERS: [&str; 2] = ["@generated", "automatically generated"];
+
+/// Reason reported for the files that are skipped because they are generated.
+pub const GENERATED_FILE: &str = "generated";
+
+/// Names of the passes that can be skipped, as reported in `Output::skipped_passes`.
+pub const METRICS_PASS: &str = "metrics";
+pub const CPD_PASS: &str = "cpd";
+
+/// Index of the first rule in the passes of a parallel analysis, after highlighting, metrics and
+/// CPD.
+const FIRST_RULE_PASS: usize = 3;
 
 #[derive(Debug)]
 pub struct Output {
@@ -31,26 +69,323 @@ pub struct Output {
     pub metrics: Metrics,
     pub cpd_tokens: Vec<CpdToken>,
     pub issues: Vec<Issue>,
+    /// Passes that were not executed for the file, whose results are left empty.
+    pub skipped_passes: Vec<&'static str>,
+    /// Why the file was not analyzed at all, if it was skipped.
+    pub skip_reason: Option<&'static str>,
 }
 
-pub fn analyze(
-    source_code: &str,
+impl Output {
+    fn skipped(reason: &'static str) -> Self {
+        Output {
+            highlight_tokens: vec![],
+            metrics: Metrics::default(),
+            cpd_tokens: vec![],
+            issues: vec![],
+            skipped_passes: vec![],
+            skip_reason: Some(reason),
+        }
+    }
+}
+
+/// State shared by the analysis of all files of a session, i.e. for the lifetime of the analyzer process.
+///
+/// Rules and the highlighting query are instantiated (and their queries compiled) once, when the
+/// session starts. Documents analyzed incrementally are cached for the whole session.
+pub struct AnalysisSession {
+    rules: Vec<Box<dyn Rule>>,
+    highlight_query: HighlightQuery,
+    parallel_threshold: Option<usize>,
+    skip_generated_files: bool,
+    documents: DocumentCache,
+}
+
+impl AnalysisSession {
+    pub fn new(
+        parameters: &HashMap<String, String>,
+        contributed_rules: Vec<QueryRule>,
+    ) -> Result<Self, AnalyzerError> {
+        Ok(AnalysisSession {
+            rules: all_rules(parameters, contributed_rules)?,
+            highlight_query: HighlightQuery::new()?,
+            parallel_threshold: parallel_threshold(parameters)?,
+            skip_generated_files: parameters
+                .get(SKIP_GENERATED_FILES_PARAMETER)
+                .is_some_and(|value| value == "true"),
+            documents: DocumentCache::default(),
+        })
+    }
+
+    pub fn analyze(&self, source_code: &str) -> Result<Output, AnalyzerError> {
+        if self.skip_generated_files && is_generated(source_code) {
+            return Ok(Output::skipped(GENERATED_FILE));
+        }
+
+        let tree = parse_rust_code(source_code)?;
+        // Control-flow graphs are shared by metrics and rules for the analysis of the file
+        let cfgs = CfgCache::new(source_code);
+
+        match self.parallel_threshold {
+            Some(threshold) if source_code.len() >= threshold => {
+                self.analyze_in_parallel(&tree, source_code, &cfgs)
+            }
+            _ => Ok(Output {
+                highlight_tokens: highlight(&tree, source_code, &self.highlight_query)?,
+                metrics: calculate_metrics(&tree, source_code, &cfgs)?,
+                cpd_tokens: calculate_cpd_tokens(&tree, source_code)?,
+                issues: find_issues(&tree, source_code, &self.rules, &cfgs)?,
+                skipped_passes: vec![],
+                skip_reason: None,
+            }),
+        }
+    }
+
+    /// Analyzes a test file. Measures and duplications are not computed for test files, so only
+    /// highlighting and rules are executed: the metrics and CPD passes are skipped.
+    pub fn analyze_test(&self, source_code: &str) -> Result<Output, AnalyzerError> {
+        if self.skip_generated_files && is_generated(source_code) {
+            return Ok(Output::skipped(GENERATED_FILE));
+        }
+
+        let tree = parse_rust_code(source_code)?;
+        let cfgs = CfgCache::new(source_code);
+
+        Ok(Output {
+            highlight_tokens: highlight(&tree, source_code, &self.highlight_query)?,
+            metrics: Metrics::default(),
+            cpd_tokens: vec![],
+            issues: find_issues(&tree, source_code, &self.rules, &cfgs)?,
+            skipped_passes: vec![METRICS_PASS, CPD_PASS],
+            skip_reason: None,
+        })
+    }
+
+    /// Analyzes a document of the IDE, reusing the results of the previous analysis of the document
+    /// for its top-level items that were not affected by the change.
+    ///
+    /// The cached tree is edited and reparsed incrementally, then highlighting, rules and
+    /// complexity are only computed for the top-level items touched by an edit or by a structural
+    /// change of the tree. Other metrics and CPD tokens are computed on the whole document.
+    pub fn analyze_document(
+        &mut self,
+        uri: &str,
+        change: DocumentChange,
+    ) -> Result<Output, AnalyzerError> {
+        if let DocumentChange::Content(source_code) = &change {
+            if self.skip_generated_files && is_generated(source_code) {
+                // Not cached, so that later edits are not applied to outdated content
+                self.documents.take(uri);
+                return Ok(Output::skipped(GENERATED_FILE));
+            }
+        }
+
+        // The document is out of the cache during the analysis, so that it is dropped on failure
+        let mut document = match (self.documents.take(uri), change) {
+            (Some(mut document), change) => {
+                document.apply(change)?;
+                document
+            }
+            (None, DocumentChange::Content(source_code)) => Document::new(source_code)?,
+            (None, DocumentChange::Edits(_)) => {
+                return Err(AnalyzerError::FileError(format!(
+                    "cannot apply edits to unknown document '{}'",
+                    uri
+                )))
+            }
+        };
+
+        if self.skip_generated_files && is_generated(&document.source_code) {
+            // The content is only known once the edits are applied, the document is kept for the next
+            // ones
+            self.documents.put(uri, document);
+            return Ok(Output::skipped(GENERATED_FILE));
+        }
+
+        let output = self.analyze_items(&mut document)?;
+        self.documents.put(uri, document);
+        Ok(output)
+    }
+
+    fn analyze_items(&self, document: &mut Document) -> Result<Output, AnalyzerError> {
+        let mut reusable_items = document.take_reusable_items();
+        let (tree, source_code) = (&document.tree, document.source_code.as_str());
+        let cfgs = CfgCache::new(source_code);
+
+        let root = tree.root_node();
+        let mut cursor = root.walk();
+        let mut items = Vec::new();
+        for node in root.children(&mut cursor) {
+            let item = match reuse_item(&mut reusable_items, node) {
+                Some(item) => item,
+                None => self.analyze_item(node, source_code, &cfgs)?,
+            };
+            items.push(item);
+        }
+
+        let mut metrics = calculate_size_metrics(tree, source_code)?;
+        metrics.cognitive_complexity = items.iter().map(|item| item.cognitive_complexity).sum();
+        metrics.cyclomatic_complexity = items.iter().map(|item| item.cyclomatic_complexity).sum();
+
+        let output = Output {
+            highlight_tokens: items
+                .iter()
+                .flat_map(|item| item.highlight_tokens.iter().cloned())
+                .collect(),
+            metrics,
+            cpd_tokens: calculate_cpd_tokens(tree, source_code)?,
+            issues: items
+                .iter()
+                .flat_map(|item| item.issues.iter().cloned())
+                .collect(),
+            skipped_passes: vec![],
+            skip_reason: None,
+        };
+        document.items = items;
+
+        Ok(output)
+    }
+
+    fn analyze_item(
+        &self,
+        node: Node<'_>,
+        source_code: &str,
+        cfgs: &CfgCache<'_>,
+    ) -> Result<ItemOutput, AnalyzerError> {
+        let mut issues = Vec::new();
+        for rule in &self.rules {
+            issues.extend(rule.check_node(node, source_code, cfgs)?);
+        }
+
+        Ok(ItemOutput::new(
+            node,
+            highlight_node(node, source_code, &self.highlight_query)?,
+            issues,
+            calculate_total_cognitive_complexity(node)?,
+            calculate_cyclomatic_complexity(node, cfgs)?,
+        ))
+    }
+
+    /// Runs highlighting, metrics, CPD and the rules on at most one scoped thread per available
+    /// core, sharing the immutable tree. Each worker takes the next pending pass until none is left.
+    /// Results are merged in the order of the passes, so that the output is the same as the one of a
+    /// sequential analysis.
+    fn analyze_in_parallel(
+        &self,
+        tree: &Tree,
+        source_code: &str,
+        cfgs: &CfgCache<'_>,
+    ) -> Result<Output, AnalyzerError> {
+        let pass_count = FIRST_RULE_PASS + self.rules.len();
+        let workers = thread::available_parallelism()
+            .map(NonZeroUsize::get)
+            .unwrap_or(1)
+            .min(pass_count);
+        let next_pass = AtomicUsize::new(0);
+        let run_pass = |pass: usize| -> Result<PassOutput, AnalyzerError> {
+            Ok(match pass {
+                0 => PassOutput::Highlight(highlight(tree, source_code, &self.highlight_query)?),
+                1 => PassOutput::Metrics(calculate_metrics(tree, source_code, cfgs)?),
+                2 => PassOutput::Cpd(calculate_cpd_tokens(tree, source_code)?),
+                _ => PassOutput::Issues(self.rules[pass - FIRST_RULE_PASS].check(
+                    tree,
+                    source_code,
+                    cfgs,
+                )?),
+            })
+        };
+
+        let worker_results: Vec<_> = thread::scope(|scope| {
+            let handles: Vec<_> = (0..workers)
+                .map(|_| {
+                    scope.spawn(|| {
+                        let mut done = Vec::new();
+                        loop {
+                            let pass = next_pass.fetch_add(1, Ordering::Relaxed);
+                            if pass >= pass_count {
+                                return done;
+                            }
+                            done.push((pass, run_pass(pass)));
+                        }
+                    })
+                })
+                .collect();
+            handles.into_iter().map(join).collect()
+        });
+
+        let mut pass_results: Vec<_> = (0..pass_count).map(|_| None).collect();
+        for done in worker_results {
+            for (pass, result) in done? {
+                pass_results[pass] = Some(result);
+            }
+        }
+
+        let mut output = Output {
+            highlight_tokens: vec![],
+            metrics: Metrics::default(),
+            cpd_tokens: vec![],
+            issues: vec![],
+            skipped_passes: vec![],
+            skip_reason: None,
+        };
+        for result in pass_results {
+            match result.expect("every pass is run by a worker")? {
+                PassOutput::Highlight(tokens) => output.highlight_tokens = tokens,
+                PassOutput::Metrics(metrics) => output.metrics = metrics,
+                PassOutput::Cpd(tokens) => output.cpd_tokens = tokens,
+                PassOutput::Issues(issues) => output.issues.extend(issues),
+            }
+        }
+        Ok(output)
+    }
+}
+
+/// Result of one of the passes of a parallel analysis.
+enum PassOutput {
+    Highlight(Vec<HighlightToken>),
+    Metrics(Metrics),
+    Cpd(Vec<CpdToken>),
+    Issues(Vec<Issue>),
+}
+
+fn join<T>(handle: ScopedJoinHandle<'_, T>) -> Result<T, AnalyzerError> {
+    handle
+        .join()
+        .map_err(|_| AnalyzerError::FileError("analysis thread panicked".to_string()))
+}
+
+/// Looks for the markers of generated code in the header of a file only, so that large files are
+/// not scanned entirely.
+fn is_generated(source_code: &str) -> bool {
+    let mut end = source_code.len().min(GENERATED_HEADER_SIZE);
+    while !source_code.is_char_boundary(end) {
+        end -= 1;
+    }
+    let header = source_code[..end].to_lowercase();
+    GENERATED_MARKERS.iter().any(|marker| header.contains(marker))
+}
+
+fn parallel_threshold(
     parameters: &HashMap<String, String>,
-) -> Result<Output, AnalyzerError> {
-    let tree = parse_rust_code(source_code)?;
-
-    Ok(Output {
-        highlight_tokens: highlight(&tree, source_code)?,
-        metrics: calculate_metrics(&tree, source_code)?,
-        cpd_tokens: calculate_cpd_tokens(&tree, source_code)?,
-        issues: find_issues(&tree, source_code, parameters)?,
-    })
+) -> Result<Option<usize>, AnalyzerError> {
+    let Some(value) = parameters.get(PARALLEL_THRESHOLD_PARAMETER) else {
+        return Ok(None);
+    };
+
+    match value.parse::<usize>() {
+        Ok(0) => Ok(None),
+        Ok(threshold) => Ok(Some(threshold)),
+        Err(err) => Err(AnalyzerError::GlobalError(format!(
+            "could not parse '{}' parameter: {}",
+            PARALLEL_THRESHOLD_PARAMETER, err
+        ))),
+    }
 }
 
 #[cfg(test)]
 mod tests {
     use std::vec;
 
+    use crate::document::TextEdit;
     use crate::tree::SonarLocation;
     use crate::visitors::highlight::HighlightTokenType;
 
@@ -251,6 +586,287 @@ fn main() {
         assert_eq!(actual, expected);
     }
 
+    #[test]
+    fn test_parallel_analysis() {
+        let source_code = r#"
+/// Documentation
+fn foo(x: i32) -> i32 {
+    if x > 0 && x < 10 {
+        for i in 0..x {
+            println!("{}", i);
+        }
+    }
+    match x {
+        0 => 1,
+        _ => 2,
+    }
+}
+
+struct S;
+"#;
+        let mut parameters = test_parameters();
+        parameters.insert("S3776:threshold".to_string(), "0".to_string());
+        let sequential = analyze(source_code, &parameters).unwrap();
+
+        parameters.insert(PARALLEL_THRESHOLD_PARAMETER.to_string(), "1".to_string());
+        let parallel = analyze(source_code, &parameters).unwrap();
+
+        assert!(!parallel.issues.is_empty());
+        assert_eq!(parallel.highlight_tokens, sequential.highlight_tokens);
+        assert_eq!(parallel.metrics, sequential.metrics);
+        assert_eq!(parallel.cpd_tokens, sequential.cpd_tokens);
+        assert_eq!(parallel.issues, sequential.issues);
+    }
+
+    #[test]
+    fn test_incremental_analysis() {
+        let v1 = r#"
+/// Documentation
+fn foo(x: i32) -> i32 {
+    if x > 0 && x < 10 {
+        return 1;
+    }
+    0
+}
+
+// Comment
+struct S;
+
+fn bar() {
+    let s = "bar";
+}
+"#;
+        // Lines are added to `foo`, so `S` and `bar` are moved
+        let v2 = v1.replace("return 1;", "for i in 0..x {\n            return i;\n        }");
+        // The syntax error is only in `bar`
+        let v3 = v2.replace("let s = \"bar\";", "let s = ;");
+
+        let mut parameters = test_parameters();
+        parameters.insert("S3776:threshold".to_string(), "0".to_string());
+        let mut session = AnalysisSession::new(&parameters, vec![]).unwrap();
+
+        for source_code in [v1, &v2, &v3, v1] {
+            let incremental = session
+                .analyze_document(
+                    "file:///lib.rs",
+                    DocumentChange::Content(source_code.to_string()),
+                )
+                .unwrap();
+            assert_same_output(incremental, session.analyze(source_code).unwrap());
+        }
+    }
+
+    #[test]
+    fn test_incremental_analysis_with_edits() {
+        let source_code = "fn foo() {}\n\nfn bar() {\n    if a {}\n}\n";
+        let mut session = AnalysisSession::new(&test_parameters(), vec![]).unwrap();
+        session
+            .analyze_document("file:///lib.rs", DocumentChange::Content(source_code.to_string()))
+            .unwrap();
+
+        // Insert a statement in `foo`, then rename `bar`
+        let edits = vec![
+            TextEdit {
+                start_byte: 10,
+                old_end_byte: 10,
+                text: "\n    let x = 1;\n".to_string(),
+            },
+            TextEdit {
+                start_byte: 32,
+                old_end_byte: 35,
+                text: "baz".to_string(),
+            },
+        ];
+        let incremental = session
+            .analyze_document("file:///lib.rs", DocumentChange::Edits(edits))
+            .unwrap();
+
+        let expected = "fn foo() {\n    let x = 1;\n}\n\nfn baz() {\n    if a {}\n}\n";
+        assert_same_output(incremental, session.analyze(expected).unwrap());
+    }
+
+    #[test]
+    fn test_unchanged_items_are_reused() {
+        let source_code = "fn foo() {}\n\nfn bar() {}\n\nfn baz() {}\n";
+        let mut session = AnalysisSession::new(&test_parameters(), vec![]).unwrap();
+        session
+            .analyze_document("file:///lib.rs", DocumentChange::Content(source_code.to_string()))
+            .unwrap();
+
+        let mut document = session.documents.take("file:///lib.rs").unwrap();
+        document
+            .apply(DocumentChange::Content(
+                source_code.replace("bar() {}", "bar() {\n    qux();\n}"),
+            ))
+            .unwrap();
+
+        let mut reused: Vec<(usize, usize)> = document.take_reusable_items().into_keys().collect();
+        reused.sort();
+        // `foo` is unchanged and `baz` is moved, `bar` is reanalyzed
+        assert_eq!(reused, vec![(0, 11), (38, 49)]);
+    }
+
+    #[test]
+    fn test_edits_of_unknown_document() {
+        let mut session = AnalysisSession::new(&test_parameters(), vec![]).unwrap();
+        let result = session.analyze_document("file:///lib.rs", DocumentChange::Edits(vec![]));
+
+        assert!(matches!(result, Err(AnalyzerError::FileError(_))));
+    }
+
+    fn assert_same_output(mut actual: Output, mut expected: Output) {
+        actual.highlight_tokens.sort();
+        expected.highlight_tokens.sort();
+        actual.issues.sort();
+        expected.issues.sort();
+
+        assert_eq!(actual.highlight_tokens, expected.highlight_tokens);
+        assert_eq!(actual.metrics, expected.metrics);
+        assert_eq!(actual.cpd_tokens, expected.cpd_tokens);
+        assert_eq!(actual.issues, expected.issues);
+    }
+
+    #[test]
+    fn test_contributed_rules() {
+        let session = AnalysisSession::new(
+            &test_parameters(),
+            vec![QueryRule::new(
+                "custom:S1",
+                "(unsafe_block) @issue",
+                "Avoid unsafe blocks.",
+            )],
+        )
+        .unwrap();
+
+        let output = session
+            .analyze("fn main() {\n    unsafe { foo() }\n}")
+            .unwrap();
+
+        let issues: Vec<(&str, usize)> = output
+            .issues
+            .iter()
+            .map(|issue| (issue.rule_key.as_str(), issue.location.start_line))
+            .collect();
+        assert_eq!(issues, vec![("custom:S1", 2)]);
+    }
+
+    #[test]
+    fn test_analyze_test_file() {
+        let source_code = "#[test]\nfn test() {\n    let x = 42\n}\n";
+        let session = AnalysisSession::new(&test_parameters(), vec![]).unwrap();
+
+        let test_output = session.analyze_test(source_code).unwrap();
+        let main_output = session.analyze(source_code).unwrap();
+
+        assert_eq!(test_output.skipped_passes, vec![METRICS_PASS, CPD_PASS]);
+        assert_eq!(test_output.metrics, Metrics::default());
+        assert!(test_output.cpd_tokens.is_empty());
+        // Highlighting and rules are the same as for a main file
+        assert_eq!(test_output.highlight_tokens, main_output.highlight_tokens);
+        assert_eq!(test_output.issues, main_output.issues);
+        assert_eq!(test_output.issues.len(), 1);
+        assert!(main_output.skipped_passes.is_empty());
+    }
+
+    #[test]
+    fn test_generated_files() {
+        let mut parameters = test_parameters();
+        parameters.insert(SKIP_GENERATED_FILES_PARAMETER.to_string(), "true".to_string());
+        let session = AnalysisSession::new(&parameters, vec![]).unwrap();
+
+        let bindgen = "/* automatically generated by rust-bindgen */\npub const A: u32 = 1;\n";
+        let prost = "// This file is @generated by prost-build.\npub struct Message {}\n";
+        for source_code in [bindgen, prost] {
+            let output = session.analyze(source_code).unwrap();
+            assert_eq!(output.skip_reason, Some(GENERATED_FILE));
+            assert!(output.highlight_tokens.is_empty());
+            assert_eq!(
+                session.analyze_test(source_code).unwrap().skip_reason,
+                Some(GENERATED_FILE)
+            );
+        }
+
+        let output = session.analyze("fn main() {}").unwrap();
+        assert_eq!(output.skip_reason, None);
+        assert_eq!(output.metrics.functions, 1);
+
+        // Generated files are analyzed unless skipping them is enabled
+        let output = analyze(bindgen, &test_parameters()).unwrap();
+        assert_eq!(output.skip_reason, None);
+    }
+
+    #[test]
+    fn test_generated_documents() {
+        let mut parameters = test_parameters();
+        parameters.insert(SKIP_GENERATED_FILES_PARAMETER.to_string(), "true".to_string());
+        let mut session = AnalysisSession::new(&parameters, vec![]).unwrap();
+
+        let generated = "// @generated\nfn main() {}\n";
+        let output = session
+            .analyze_document("file:///lib.rs", DocumentChange::Content(generated.to_string()))
+            .unwrap();
+        assert_eq!(output.skip_reason, Some(GENERATED_FILE));
+        assert!(output.highlight_tokens.is_empty());
+        assert!(session.documents.take("file:///lib.rs").is_none());
+
+        // The marker is removed, then added again by edits
+        let source_code = "// generated\nfn main() {}\n";
+        let output = session
+            .analyze_document("file:///lib.rs", DocumentChange::Content(source_code.to_string()))
+            .unwrap();
+        assert_eq!(output.skip_reason, None);
+        let edits = vec![TextEdit {
+            start_byte: 3,
+            old_end_byte: 3,
+            text: "@".to_string(),
+        }];
+        let output = session
+            .analyze_document("file:///lib.rs", DocumentChange::Edits(edits))
+            .unwrap();
+        assert_eq!(output.skip_reason, Some(GENERATED_FILE));
+        assert_eq!(session.documents.take("file:///lib.rs").unwrap().source_code, generated);
+    }
+
+    #[test]
+    fn test_is_generated() {
+        assert!(is_generated("// @generated\nfn main() {}"));
+        assert!(is_generated("//! Automatically generated, do not edit.\n"));
+        assert!(!is_generated("fn main() {}"));
+
+        // Only the header is considered
+        let marker_after_header = format!("{}// @generated\n", "/".repeat(GENERATED_HEADER_SIZE));
+        assert!(!is_generated(&marker_after_header));
+
+        // The header ends on a character boundary
+        let multi_byte_header = format!("{}©// @generated", " ".repeat(GENERATED_HEADER_SIZE - 1));
+        assert!(!is_generated(&multi_byte_header));
+    }
+
+    #[test]
+    fn test_parallel_threshold() {
+        let parameters = |value: &str| {
+            HashMap::from([(PARALLEL_THRESHOLD_PARAMETER.to_string(), value.to_string())])
+        };
+
+        assert_eq!(parallel_threshold(&HashMap::new()).unwrap(), None);
+        assert_eq!(parallel_threshold(&parameters("0")).unwrap(), None);
+        assert_eq!(
+            parallel_threshold(&parameters("1048576")).unwrap(),
+            Some(1048576)
+        );
+        assert!(matches!(
+            parallel_threshold(&parameters("abc")),
+            Err(AnalyzerError::GlobalError(_))
+        ));
+    }
+
+    fn analyze(
+        source_code: &str,
+        parameters: &HashMap<String, String>,
+    ) -> Result<Output, AnalyzerError> {
+        AnalysisSession::new(parameters, vec![])?.analyze(source_code)
+    }
+
     fn test_parameters() -> HashMap<String, String> {
         HashMap::from([("S3776:threshold".to_string(), "15".to_string())])
     }
@@ -0,0 +1,696 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+use crate::{
+    tree::child_of_kind,
+    visitors::{
+        cognitive_complexity::is_logical_operator, cyclomatic_complexity::has_non_empty_field,
+    },
+};
+use std::{
+    collections::HashMap,
+    sync::{Arc, Mutex, MutexGuard},
+};
+use tree_sitter::Node;
+
+/// A syntax node of a CFG. Nodes are not kept as such so that CFGs can be shared between threads:
+/// the node can be found again with `Node::descendant_for_byte_range`.
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+#[allow(dead_code)] // Only counted by cyclomatic complexity outside of tests
+pub struct CfgElement {
+    pub id: usize,
+    pub kind: &'static str,
+    pub start_byte: usize,
+    pub end_byte: usize,
+}
+
+impl CfgElement {
+    fn from_node(node: Node<'_>) -> Self {
+        CfgElement {
+            id: node.id(),
+            kind: node.kind(),
+            start_byte: node.start_byte(),
+            end_byte: node.end_byte(),
+        }
+    }
+}
+
+/// A sequence of elements that are always executed one after the other.
+#[derive(Debug, Default)]
+pub struct BasicBlock {
+    pub elements: Vec<CfgElement>,
+    /// Indexes of the blocks control can be transferred to at the end of this block.
+    pub successors: Vec<usize>,
+}
+
+/// Control-flow graph of the body of a function, a closure or an async block.
+///
+/// Covers conditionals (`if`, `match`), loops (`loop`, `while`, `for`), early exits (`?`,
+/// `return`, `break`, `continue`, including labeled ones), labeled blocks and the short-circuit
+/// evaluation of logical operators. Closures and async blocks have their own nested CFG, while
+/// nested functions are left out and have their own entry in the cache.
+#[derive(Debug)]
+pub struct Cfg {
+    /// Kind of the node the CFG was built for, e.g. `function_item`.
+    pub kind: &'static str,
+    // Only cyclomatic complexity reads the CFGs outside of tests, which does not need the graph
+    #[allow(dead_code)]
+    pub blocks: Vec<BasicBlock>,
+    #[allow(dead_code)]
+    pub entry: usize,
+    #[allow(dead_code)]
+    pub exit: usize,
+    /// Nodes introducing a decision, as counted by cyclomatic complexity.
+    pub decision_points: Vec<CfgElement>,
+    /// CFGs of the closures and async blocks defined in the body.
+    pub nested: Vec<Cfg>,
+}
+
+impl Cfg {
+    pub fn build(node: Node<'_>, source_code: &str) -> Self {
+        let mut builder = CfgBuilder::new(source_code);
+        if let Some(body) = body(node) {
+            builder.build(body);
+        }
+        builder.connect(builder.current, builder.exit);
+
+        Cfg {
+            kind: node.kind(),
+            blocks: builder.blocks,
+            entry: builder.entry,
+            exit: builder.exit,
+            decision_points: builder.decision_points,
+            nested: builder.nested,
+        }
+    }
+
+    /// Cyclomatic complexity of the body: its decision points, plus one for each nested closure
+    /// along with the complexity of its own body.
+    pub fn cyclomatic_complexity(&self) -> i32 {
+        let nested: i32 = self
+            .nested
+            .iter()
+            .map(|cfg| {
+                let closure = i32::from(cfg.kind == "closure_expression");
+                closure + cfg.cyclomatic_complexity()
+            })
+            .sum();
+        self.decision_points.len() as i32 + nested
+    }
+}
+
+/// CFGs of the functions of a file, built on first access and shared by all rules and metrics.
+pub struct CfgCache<'a> {
+    source_code: &'a str,
+    cfgs: Mutex<HashMap<usize, Arc<Cfg>>>,
+}
+
+impl<'a> CfgCache<'a> {
+    pub fn new(source_code: &'a str) -> Self {
+        CfgCache {
+            source_code,
+            cfgs: Mutex::new(HashMap::new()),
+        }
+    }
+
+    /// Returns the CFG of a `function_item` node of the file this cache was created for.
+    pub fn get(&self, function: Node<'_>) -> Arc<Cfg> {
+        if let Some(cfg) = self.lock().get(&function.id()) {
+            return Arc::clone(cfg);
+        }
+
+        // The CFG is built without holding the lock, so that other threads are not blocked
+        let cfg = Arc::new(Cfg::build(function, self.source_code));
+        Arc::clone(self.lock().entry(function.id()).or_insert(cfg))
+    }
+
+    fn lock(&self) -> MutexGuard<'_, HashMap<usize, Arc<Cfg>>> {
+        self.cfgs.lock().expect("CFG cache lock poisoned")
+    }
+}
+
+/// Returns the node holding the code of a function, a closure or an async block.
+fn body(node: Node<'_>) -> Option<Node<'_>> {
+    match node.kind() {
+        "async_block" => child_of_kind(node, "block"),
+        _ => node.child_by_field_name("body"),
+    }
+}
+
+/// Destination of `break` and `continue` expressions.
+struct JumpTarget {
+    label: Option<String>,
+    break_block: usize,
+    /// `None` for labeled blocks, which can only be exited with `break`.
+    continue_block: Option<usize>,
+}
+
+struct CfgBuilder<'a> {
+    source_code: &'a str,
+    blocks: Vec<BasicBlock>,
+    entry: usize,
+    exit: usize,
+    current: usize,
+    jump_targets: Vec<JumpTarget>,
+    decision_points: Vec<CfgElement>,
+    nested: Vec<Cfg>,
+}
+
+impl<'a> CfgBuilder<'a> {
+    fn new(source_code: &'a str) -> Self {
+        let mut builder = CfgBuilder {
+            source_code,
+            blocks: Vec::new(),
+            entry: 0,
+            exit: 0,
+            current: 0,
+            jump_targets: Vec::new(),
+            decision_points: Vec::new(),
+            nested: Vec::new(),
+        };
+        builder.entry = builder.new_block();
+        builder.exit = builder.new_block();
+        builder.current = builder.entry;
+        builder
+    }
+
+    fn new_block(&mut self) -> usize {
+        self.blocks.push(BasicBlock::default());
+        self.blocks.len() - 1
+    }
+
+    fn connect(&mut self, from: usize, to: usize) {
+        let successors = &mut self.blocks[from].successors;
+        if !successors.contains(&to) {
+            successors.push(to);
+        }
+    }
+
+    fn add_element(&mut self, node: Node<'_>) {
+        self.blocks[self.current]
+            .elements
+            .push(CfgElement::from_node(node));
+    }
+
+    fn add_decision(&mut self, node: Node<'_>) {
+        self.decision_points.push(CfgElement::from_node(node));
+    }
+
+    /// Continues with a new block that is only reached from `predecessors`.
+    fn start_block(&mut self, predecessors: &[usize]) -> usize {
+        let block = self.new_block();
+        for &predecessor in predecessors {
+            self.connect(predecessor, block);
+        }
+        self.current = block;
+        block
+    }
+
+    /// Ends the current block with a jump, the code that follows is unreachable.
+    fn jump(&mut self, target: usize) {
+        self.connect(self.current, target);
+        self.start_block(&[]);
+    }
+
+    fn build(&mut self, node: Node<'_>) {
+        match node.kind() {
+            // Nested functions have their own CFG
+            "function_item" => {}
+            "closure_expression" | "async_block" => {
+                self.add_element(node);
+                self.nested.push(Cfg::build(node, self.source_code));
+            }
+            "block" => self.build_block(node),
+            "if_expression" => self.build_if(node),
+            "match_expression" => self.build_match(node),
+            "loop_expression" => self.build_loop(node),
+            "while_expression" => self.build_while(node),
+            "for_expression" => self.build_for(node),
+            "binary_expression" if is_logical_operator(node) => self.build_logical(node),
+            "try_expression" => {
+                self.build_children(node);
+                self.add_element(node);
+                // Either the evaluation continues, or the error is returned
+                let before = self.current;
+                self.connect(before, self.exit);
+                self.start_block(&[before]);
+            }
+            "return_expression" => {
+                self.build_children(node);
+                self.add_element(node);
+                self.jump(self.exit);
+            }
+            "break_expression" | "continue_expression" => self.build_jump(node),
+            "let_declaration" if node.child_by_field_name("alternative").is_some() => {
+                self.build_let_else(node)
+            }
+            _ => {
+                self.build_children(node);
+                if node.parent().is_some_and(|parent| parent.kind() == "block") {
+                    self.add_element(node);
+                }
+            }
+        }
+    }
+
+    fn build_children(&mut self, node: Node<'_>) {
+        let mut cursor = node.walk();
+        for child in node.named_children(&mut cursor) {
+            self.build(child);
+        }
+    }
+
+    fn build_block(&mut self, node: Node<'_>) {
+        let Some(label) = self.label(node) else {
+            self.build_children(node);
+            return;
+        };
+
+        let after = self.new_block();
+        self.jump_targets.push(JumpTarget {
+            label: Some(label),
+            break_block: after,
+            continue_block: None,
+        });
+        self.build_children(node);
+        self.jump_targets.pop();
+
+        let end = self.current;
+        self.connect(end, after);
+        self.current = after;
+    }
+
+    fn build_if(&mut self, node: Node<'_>) {
+        if let Some(condition) = node.child_by_field_name("condition") {
+            self.build(condition);
+        }
+        self.add_element(node);
+        self.add_decision(node);
+        let condition_end = self.current;
+
+        self.start_block(&[condition_end]);
+        if let Some(consequence) = node.child_by_field_name("consequence") {
+            self.build(consequence);
+        }
+        let mut branch_ends = vec![self.current];
+
+        match node.child_by_field_name("alternative") {
+            Some(alternative) => {
+                self.start_block(&[condition_end]);
+                self.build_children(alternative);
+                branch_ends.push(self.current);
+            }
+            None => branch_ends.push(condition_end),
+        }
+
+        self.start_block(&branch_ends);
+    }
+
+    fn build_match(&mut self, node: Node<'_>) {
+        if let Some(value) = node.child_by_field_name("value") {
+            self.build(value);
+        }
+        self.add_element(node);
+        let value_end = self.current;
+
+        let mut arm_ends = Vec::new();
+        if let Some(body) = node.child_by_field_name("body") {
+            let mut cursor = body.walk();
+            for arm in body.named_children(&mut cursor) {
+                if arm.kind() != "match_arm" {
+                    continue;
+                }
+                self.start_block(&[value_end]);
+                if has_non_empty_field(arm, "value") {
+                    self.add_decision(arm);
+                }
+                self.build_children(arm);
+                self.add_element(arm);
+                arm_ends.push(self.current);
+            }
+        }
+
+        if arm_ends.is_empty() {
+            arm_ends.push(value_end);
+        }
+        self.start_block(&arm_ends);
+    }
+
+    fn build_loop(&mut self, node: Node<'_>) {
+        let before = self.current;
+        let header = self.start_block(&[before]);
+        self.add_element(node);
+        self.add_decision(node);
+        let after = self.new_block();
+
+        self.build_loop_body(node, header, after);
+        self.current = after;
+    }
+
+    fn build_while(&mut self, node: Node<'_>) {
+        let before = self.current;
+        let header = self.start_block(&[before]);
+        if let Some(condition) = node.child_by_field_name("condition") {
+            self.build(condition);
+        }
+        self.add_element(node);
+        self.add_decision(node);
+        let condition_end = self.current;
+        let after = self.new_block();
+        self.connect(condition_end, after);
+
+        self.start_block(&[condition_end]);
+        self.build_loop_body(node, header, after);
+        self.current = after;
+    }
+
+    fn build_for(&mut self, node: Node<'_>) {
+        if let Some(value) = node.child_by_field_name("value") {
+            self.build(value);
+        }
+        let before = self.current;
+        let header = self.start_block(&[before]);
+        self.add_element(node);
+        self.add_decision(node);
+        let after = self.new_block();
+        self.connect(header, after);
+
+        self.start_block(&[header]);
+        self.build_loop_body(node, header, after);
+        self.current = after;
+    }
+
+    /// Builds the body of a loop starting at the current block, and loops back to `header`.
+    fn build_loop_body(&mut self, node: Node<'_>, header: usize, after: usize) {
+        self.jump_targets.push(JumpTarget {
+            label: self.label(node),
+            break_block: after,
+            continue_block: Some(header),
+        });
+        if let Some(body) = node.child_by_field_name("body") {
+            self.build(body);
+        }
+        self.jump_targets.pop();
+
+        let end = self.current;
+        self.connect(end, header);
+    }
+
+    fn build_logical(&mut self, node: Node<'_>) {
+        if let Some(left) = node.child_by_field_name("left") {
+            self.build(left);
+        }
+        self.add_element(node);
+        self.add_decision(node);
+        let left_end = self.current;
+
+        // The right operand is only evaluated depending on the value of the left one
+        self.start_block(&[left_end]);
+        if let Some(right) = node.child_by_field_name("right") {
+            self.build(right);
+        }
+        let right_end = self.current;
+        self.start_block(&[left_end, right_end]);
+    }
+
+    fn build_let_else(&mut self, node: Node<'_>) {
+        if let Some(value) = node.child_by_field_name("value") {
+            self.build(value);
+        }
+        self.add_element(node);
+        let before = self.current;
+
+        // The `else` block diverges, so it is not connected to the code that follows
+        self.start_block(&[before]);
+        if let Some(alternative) = node.child_by_field_name("alternative") {
+            self.build(alternative);
+        }
+        self.start_block(&[before]);
+    }
+
+    fn build_jump(&mut self, node: Node<'_>) {
+        self.build_children(node);
+        self.add_element(node);
+
+        let label = self.label(node);
+        let is_break = node.kind() == "break_expression";
+        let target = self
+            .jump_targets
+            .iter()
+            .rev()
+            .find(|target| match &label {
+                Some(label) => target.label.as_ref() == Some(label),
+                // Unlabeled jumps apply to the innermost loop, labeled blocks are skipped
+                None => target.continue_block.is_some(),
+            })
+            .and_then(|target| {
+                if is_break {
+                    Some(target.break_block)
+                } else {
+                    target.continue_block
+                }
+            });
+
+        // Without a target (invalid code), control flow goes on
+        if let Some(target) = target {
+            self.jump(target);
+        }
+    }
+
+    fn label(&self, node: Node<'_>) -> Option<String> {
+        child_of_kind(node, "label").map(|label| self.source_code[label.byte_range()].to_string())
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::tree::parse_rust_code;
+
+    /// Builds the CFG of the first function of the source code.
+    fn cfg(source_code: &str) -> Arc<Cfg> {
+        let tree = parse_rust_code(source_code).unwrap();
+        let function = tree.root_node().named_child(0).unwrap();
+        assert_eq!(function.kind(), "function_item");
+        CfgCache::new(source_code).get(function)
+    }
+
+    /// Returns the kinds of the elements of each non-empty block, in creation order.
+    fn blocks(cfg: &Cfg) -> Vec<Vec<&'static str>> {
+        cfg.blocks
+            .iter()
+            .filter(|block| !block.elements.is_empty())
+            .map(|block| block.elements.iter().map(|element| element.kind).collect())
+            .collect()
+    }
+
+    /// Returns the index of the first block containing an element of a given kind.
+    fn block_of(cfg: &Cfg, kind: &str) -> usize {
+        cfg.blocks
+            .iter()
+            .position(|block| block.elements.iter().any(|element| element.kind == kind))
+            .unwrap()
+    }
+
+    /// Returns the index of the first block containing an element with a given source text.
+    fn block_with_text(cfg: &Cfg, source_code: &str, text: &str) -> usize {
+        cfg.blocks
+            .iter()
+            .position(|block| {
+                block
+                    .elements
+                    .iter()
+                    .any(|element| source_code[element.start_byte..element.end_byte] == *text)
+            })
+            .unwrap()
+    }
+
+    fn is_reachable(cfg: &Cfg, target: usize) -> bool {
+        let mut visited = vec![false; cfg.blocks.len()];
+        let mut stack = vec![cfg.entry];
+        while let Some(block) = stack.pop() {
+            if block == target {
+                return true;
+            }
+            if !visited[block] {
+                visited[block] = true;
+                stack.extend(&cfg.blocks[block].successors);
+            }
+        }
+        false
+    }
+
+    #[test]
+    fn test_sequence() {
+        let cfg = cfg("fn foo() { let x = 1; bar(x); }");
+
+        assert_eq!(
+            blocks(&cfg),
+            vec![vec!["let_declaration", "expression_statement"]]
+        );
+        assert_eq!(cfg.blocks[cfg.entry].successors, vec![cfg.exit]);
+        assert_eq!(cfg.cyclomatic_complexity(), 0);
+    }
+
+    #[test]
+    fn test_empty_function() {
+        let cfg = cfg("fn foo() {}");
+
+        assert_eq!(blocks(&cfg), Vec::<Vec<&str>>::new());
+        assert_eq!(cfg.blocks[cfg.entry].successors, vec![cfg.exit]);
+    }
+
+    #[test]
+    fn test_if() {
+        let cfg = cfg("fn foo() { if a { b(); } else { c(); } d(); }");
+
+        let condition = block_of(&cfg, "if_expression");
+        let then_block = block_of(&cfg, "expression_statement");
+        assert_eq!(cfg.blocks[condition].successors.len(), 2);
+        assert!(cfg.blocks[condition].successors.contains(&then_block));
+        assert_eq!(cfg.decision_points.len(), 1);
+        assert!(is_reachable(&cfg, cfg.exit));
+    }
+
+    #[test]
+    fn test_if_without_else() {
+        let cfg = cfg("fn foo() { if a { return; } b(); }");
+
+        let condition = block_of(&cfg, "if_expression");
+        let ret = block_of(&cfg, "return_expression");
+        assert!(cfg.blocks[ret].successors.contains(&cfg.exit));
+        // The condition is connected to the `then` block and to the code that follows
+        assert_eq!(cfg.blocks[condition].successors.len(), 2);
+    }
+
+    #[test]
+    fn test_match() {
+        let cfg = cfg("fn foo() { match x { 1 => a(), 2 => {}, _ => b() } }");
+
+        let value = block_of(&cfg, "match_expression");
+        assert_eq!(cfg.blocks[value].successors.len(), 3);
+        // Arms with an empty body are not decision points
+        assert_eq!(cfg.decision_points.len(), 2);
+    }
+
+    #[test]
+    fn test_loops() {
+        let source_code = r#"
+fn foo() {
+    'outer: loop {
+        while a {
+            for i in b {
+                if c { continue 'outer; }
+                if d { break; }
+            }
+        }
+        break 'outer;
+    }
+    end();
+}"#;
+        let cfg = cfg(source_code);
+
+        let header = block_of(&cfg, "loop_expression");
+        let continue_outer = block_of(&cfg, "continue_expression");
+        assert_eq!(cfg.blocks[continue_outer].successors, vec![header]);
+
+        // An unlabeled `break` exits the innermost loop
+        let for_header = block_of(&cfg, "for_expression");
+        let break_inner = block_with_text(&cfg, source_code, "break");
+        let after_for = cfg.blocks[break_inner].successors[0];
+        assert!(cfg.blocks[for_header].successors.contains(&after_for));
+
+        // `end()` is only reachable through `break 'outer`
+        let end = block_with_text(&cfg, source_code, "end();");
+        let break_outer = block_with_text(&cfg, source_code, "break 'outer");
+        assert_eq!(cfg.blocks[break_outer].successors, vec![end]);
+
+        assert_eq!(cfg.decision_points.len(), 5);
+    }
+
+    #[test]
+    fn test_labeled_block() {
+        let cfg = cfg("fn foo() { let x = 'a: { if b { break 'a 1; } 2 }; bar(x); }");
+
+        let break_block = block_of(&cfg, "break_expression");
+        let let_block = block_of(&cfg, "let_declaration");
+        assert_eq!(cfg.blocks[break_block].successors, vec![let_block]);
+    }
+
+    #[test]
+    fn test_try_and_return() {
+        let cfg = cfg("fn foo() -> Result<(), E> { let x = bar()?; return baz(x); qux(); }");
+
+        let try_block = block_of(&cfg, "try_expression");
+        assert!(cfg.blocks[try_block].successors.contains(&cfg.exit));
+        assert_eq!(cfg.blocks[try_block].successors.len(), 2);
+
+        // Code after `return` is unreachable
+        let unreachable = block_of(&cfg, "expression_statement");
+        assert!(!is_reachable(&cfg, unreachable));
+    }
+
+    #[test]
+    fn test_let_else() {
+        let source_code = "fn foo() { let Some(x) = y else { return; }; bar(x); }";
+        let cfg = cfg(source_code);
+
+        let let_block = block_of(&cfg, "let_declaration");
+        let ret = block_of(&cfg, "return_expression");
+        let bar = block_with_text(&cfg, source_code, "bar(x);");
+        assert_eq!(cfg.blocks[ret].successors, vec![cfg.exit]);
+        assert!(cfg.blocks[let_block].successors.contains(&bar));
+        assert!(is_reachable(&cfg, bar));
+    }
+
+    #[test]
+    fn test_logical_operators() {
+        let cfg = cfg("fn foo() { if a && (b || c) { d(); } }");
+
+        assert_eq!(cfg.decision_points.len(), 3);
+        assert_eq!(cfg.cyclomatic_complexity(), 3);
+    }
+
+    #[test]
+    fn test_closures_and_nested_functions() {
+        let cfg = cfg(
+            r#"
+fn foo() {
+    fn nested() { if a {} }
+    let f = |x| if x { 1 } else { 2 };
+    let g = async { while a {} };
+}"#,
+        );
+
+        assert_eq!(cfg.decision_points.len(), 0);
+        assert_eq!(
+            cfg.nested.iter().map(|cfg| cfg.kind).collect::<Vec<_>>(),
+            vec!["closure_expression", "async_block"]
+        );
+        // +1 for the closure and +1 for each decision of the closure and the async block
+        assert_eq!(cfg.cyclomatic_complexity(), 3);
+    }
+
+    #[test]
+    fn test_cache() {
+        let source_code = "fn foo() { if a {} }";
+        let tree = parse_rust_code(source_code).unwrap();
+        let function = tree.root_node().named_child(0).unwrap();
+        let cache = CfgCache::new(source_code);
+
+        assert!(Arc::ptr_eq(&cache.get(function), &cache.get(function)));
+    }
+}
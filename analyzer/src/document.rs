@@ -0,0 +1,387 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+use crate::{
+    issue::Issue,
+    tree::{reparse_rust_code, AnalyzerError, SonarLocation},
+    visitors::highlight::HighlightToken,
+};
+use std::collections::HashMap;
+use tree_sitter::{InputEdit, Node, Point, Tree};
+
+/// Maximum number of documents kept in the cache, the least recently analyzed ones are evicted.
+const MAX_DOCUMENTS: usize = 100;
+
+/// New state of a document, sent by the IDE.
+#[derive(Debug)]
+pub enum DocumentChange {
+    /// Full content of the document, diffed against the cached one.
+    Content(String),
+    /// Edits applied, in order, to the cached content of the document.
+    Edits(Vec<TextEdit>),
+}
+
+/// Replacement of the bytes `start_byte..old_end_byte` of a document by `text`.
+#[derive(Debug, Clone, PartialEq, Eq)]
+pub struct TextEdit {
+    pub start_byte: usize,
+    pub old_end_byte: usize,
+    pub text: String,
+}
+
+/// Results of the analysis of a top-level item (or comment) of a document.
+#[derive(Debug, Clone)]
+pub struct ItemOutput {
+    kind: &'static str,
+    start_byte: usize,
+    end_byte: usize,
+    start_row: usize,
+    /// Whether the item was touched by a change, its results can't be reused.
+    stale: bool,
+    pub highlight_tokens: Vec<HighlightToken>,
+    pub issues: Vec<Issue>,
+    pub cognitive_complexity: i32,
+    pub cyclomatic_complexity: i32,
+}
+
+impl ItemOutput {
+    pub fn new(
+        node: Node<'_>,
+        highlight_tokens: Vec<HighlightToken>,
+        issues: Vec<Issue>,
+        cognitive_complexity: i32,
+        cyclomatic_complexity: i32,
+    ) -> Self {
+        ItemOutput {
+            kind: node.kind(),
+            start_byte: node.start_byte(),
+            end_byte: node.end_byte(),
+            start_row: node.start_position().row,
+            stale: false,
+            highlight_tokens,
+            issues,
+            cognitive_complexity,
+            cyclomatic_complexity,
+        }
+    }
+
+    /// Moves the item after an edit that happened on previous lines.
+    fn shift(&mut self, byte_delta: isize, row_delta: isize) {
+        self.start_byte = self.start_byte.saturating_add_signed(byte_delta);
+        self.end_byte = self.end_byte.saturating_add_signed(byte_delta);
+        self.start_row = self.start_row.saturating_add_signed(row_delta);
+
+        if row_delta == 0 {
+            return;
+        }
+        for token in &mut self.highlight_tokens {
+            shift_location(&mut token.location, row_delta);
+        }
+        for issue in &mut self.issues {
+            shift_location(&mut issue.location, row_delta);
+            for secondary in &mut issue.secondary_locations {
+                shift_location(&mut secondary.location, row_delta);
+            }
+        }
+    }
+
+    fn overlaps(&self, start_byte: usize, end_byte: usize) -> bool {
+        self.start_byte <= end_byte && start_byte <= self.end_byte
+    }
+}
+
+fn shift_location(location: &mut SonarLocation, row_delta: isize) {
+    location.start_line = location.start_line.saturating_add_signed(row_delta);
+    location.end_line = location.end_line.saturating_add_signed(row_delta);
+}
+
+/// Cached state of a document: its content, syntax tree and the analysis results of its items.
+pub struct Document {
+    pub source_code: String,
+    pub tree: Tree,
+    pub items: Vec<ItemOutput>,
+}
+
+impl Document {
+    pub fn new(source_code: String) -> Result<Self, AnalyzerError> {
+        let tree = reparse_rust_code(&source_code, None)?;
+        Ok(Document {
+            source_code,
+            tree,
+            items: Vec::new(),
+        })
+    }
+
+    /// Applies a change to the content and the tree of the document, and reparses it incrementally.
+    /// Items affected by the change are marked as stale, the others are moved to their new
+    /// position.
+    pub fn apply(&mut self, change: DocumentChange) -> Result<(), AnalyzerError> {
+        let edits = match change {
+            DocumentChange::Content(source_code) => {
+                diff(&self.source_code, &source_code).into_iter().collect()
+            }
+            DocumentChange::Edits(edits) => edits,
+        };
+        if edits.is_empty() {
+            return Ok(());
+        }
+
+        for edit in &edits {
+            self.apply_edit(edit)?;
+        }
+
+        let tree = reparse_rust_code(&self.source_code, Some(&self.tree))?;
+        // Changed ranges only cover structural changes, edited ranges are handled by `apply_edit`
+        for range in self.tree.changed_ranges(&tree) {
+            for item in &mut self.items {
+                if item.overlaps(range.start_byte, range.end_byte) {
+                    item.stale = true;
+                }
+            }
+        }
+        self.tree = tree;
+
+        Ok(())
+    }
+
+    fn apply_edit(&mut self, edit: &TextEdit) -> Result<(), AnalyzerError> {
+        let TextEdit {
+            start_byte,
+            old_end_byte,
+            text,
+        } = edit;
+        let (start_byte, old_end_byte) = (*start_byte, *old_end_byte);
+        if start_byte > old_end_byte
+            || !self.source_code.is_char_boundary(start_byte)
+            || !self.source_code.is_char_boundary(old_end_byte)
+        {
+            return Err(AnalyzerError::FileError(format!(
+                "invalid edit of range {}..{} in a document of {} bytes",
+                start_byte,
+                old_end_byte,
+                self.source_code.len()
+            )));
+        }
+
+        let start_position = position_at(&self.source_code, start_byte);
+        let old_end_position = position_at(&self.source_code, old_end_byte);
+        self.source_code
+            .replace_range(start_byte..old_end_byte, text);
+        let new_end_byte = start_byte + text.len();
+        let new_end_position = position_at(&self.source_code, new_end_byte);
+
+        self.tree.edit(&InputEdit {
+            start_byte,
+            old_end_byte,
+            new_end_byte,
+            start_position,
+            old_end_position,
+            new_end_position,
+        });
+
+        let byte_delta = new_end_byte as isize - old_end_byte as isize;
+        let row_delta = new_end_position.row as isize - old_end_position.row as isize;
+        for item in &mut self.items {
+            if item.end_byte < start_byte {
+                continue;
+            }
+            // Items starting on the last edited line are reanalyzed, as their columns changed
+            if item.start_byte > old_end_byte && item.start_row > old_end_position.row {
+                item.shift(byte_delta, row_delta);
+            } else {
+                item.stale = true;
+            }
+        }
+
+        Ok(())
+    }
+
+    /// Removes the items whose results can be reused from the document, indexed by byte range.
+    pub fn take_reusable_items(&mut self) -> HashMap<(usize, usize), ItemOutput> {
+        self.items
+            .drain(..)
+            .filter(|item| !item.stale)
+            .map(|item| ((item.start_byte, item.end_byte), item))
+            .collect()
+    }
+}
+
+/// Returns the cached results of an item if they are still valid for the given node.
+pub fn reuse_item(
+    reusable_items: &mut HashMap<(usize, usize), ItemOutput>,
+    node: Node<'_>,
+) -> Option<ItemOutput> {
+    reusable_items
+        .remove(&(node.start_byte(), node.end_byte()))
+        .filter(|item| item.kind == node.kind())
+}
+
+/// Returns the Tree-sitter position of a byte offset: the row and the byte offset in the row.
+fn position_at(source_code: &str, byte: usize) -> Point {
+    let before = &source_code.as_bytes()[..byte];
+    let row = before.iter().filter(|&&b| b == b'\n').count();
+    let row_start = before
+        .iter()
+        .rposition(|&b| b == b'\n')
+        .map_or(0, |index| index + 1);
+    Point::new(row, byte - row_start)
+}
+
+/// Computes the single edit turning `old` into `new`, by trimming their common prefix and suffix.
+fn diff(old: &str, new: &str) -> Option<TextEdit> {
+    if old == new {
+        return None;
+    }
+
+    let (old_bytes, new_bytes) = (old.as_bytes(), new.as_bytes());
+    let mut prefix = old_bytes
+        .iter()
+        .zip(new_bytes)
+        .take_while(|(a, b)| a == b)
+        .count();
+    while !old.is_char_boundary(prefix) || !new.is_char_boundary(prefix) {
+        prefix -= 1;
+    }
+
+    let max_suffix = old.len().min(new.len()) - prefix;
+    let mut suffix = old_bytes
+        .iter()
+        .rev()
+        .zip(new_bytes.iter().rev())
+        .take(max_suffix)
+        .take_while(|(a, b)| a == b)
+        .count();
+    while !old.is_char_boundary(old.len() - suffix) || !new.is_char_boundary(new.len() - suffix) {
+        suffix -= 1;
+    }
+
+    Some(TextEdit {
+        start_byte: prefix,
+        old_end_byte: old.len() - suffix,
+        text: new[prefix..new.len() - suffix].to_string(),
+    })
+}
+
+/// Documents of the session, indexed by URI.
+#[derive(Default)]
+pub struct DocumentCache {
+    documents: HashMap<String, (Document, u64)>,
+    clock: u64,
+}
+
+impl DocumentCache {
+    /// Removes a document from the cache, to update it.
+    pub fn take(&mut self, uri: &str) -> Option<Document> {
+        self.documents.remove(uri).map(|(document, _)| document)
+    }
+
+    pub fn put(&mut self, uri: &str, document: Document) {
+        if self.documents.len() >= MAX_DOCUMENTS {
+            let least_recently_used = self
+                .documents
+                .iter()
+                .min_by_key(|(_, (_, last_used))| *last_used)
+                .map(|(uri, _)| uri.clone());
+            if let Some(uri) = least_recently_used {
+                self.documents.remove(&uri);
+            }
+        }
+
+        self.clock += 1;
+        self.documents
+            .insert(uri.to_string(), (document, self.clock));
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_diff() {
+        assert_eq!(diff("fn main() {}", "fn main() {}"), None);
+        assert_eq!(
+            diff("fn main() {}", "fn main() { foo(); }"),
+            Some(TextEdit {
+                start_byte: 11,
+                old_end_byte: 11,
+                text: " foo(); ".to_string(),
+            })
+        );
+        assert_eq!(
+            diff("let x = 1;", "let y = 1;"),
+            Some(TextEdit {
+                start_byte: 4,
+                old_end_byte: 5,
+                text: "y".to_string(),
+            })
+        );
+        // Repeated characters: the prefix takes precedence
+        assert_eq!(
+            diff("aaa", "aa"),
+            Some(TextEdit {
+                start_byte: 2,
+                old_end_byte: 3,
+                text: "".to_string(),
+            })
+        );
+    }
+
+    #[test]
+    fn test_diff_multibyte_characters() {
+        // "é" and "è" share their first byte
+        assert_eq!(
+            diff("// é", "// è"),
+            Some(TextEdit {
+                start_byte: 3,
+                old_end_byte: 5,
+                text: "è".to_string(),
+            })
+        );
+    }
+
+    #[test]
+    fn test_position_at() {
+        let source_code = "fn a() {}\n  fn b() {}";
+        assert_eq!(position_at(source_code, 0), Point::new(0, 0));
+        assert_eq!(position_at(source_code, 10), Point::new(1, 0));
+        assert_eq!(position_at(source_code, 12), Point::new(1, 2));
+    }
+
+    #[test]
+    fn test_invalid_edit() {
+        let mut document = Document::new("fn main() {}".to_string()).unwrap();
+        let result = document.apply(DocumentChange::Edits(vec![TextEdit {
+            start_byte: 5,
+            old_end_byte: 100,
+            text: "x".to_string(),
+        }]));
+
+        assert!(matches!(result, Err(AnalyzerError::FileError(_))));
+    }
+
+    #[test]
+    fn test_cache_eviction() {
+        let mut cache = DocumentCache::default();
+        for i in 0..=MAX_DOCUMENTS {
+            cache.put(&i.to_string(), Document::new(String::new()).unwrap());
+        }
+
+        assert_eq!(cache.documents.len(), MAX_DOCUMENTS);
+        assert!(cache.take("0").is_none());
+        assert!(cache.take(&MAX_DOCUMENTS.to_string()).is_some());
+    }
+}
@@ -14,9 +14,9 @@
  * You should have received a copy of the Sonar Source-Available License
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
-use crate::rules::rule::all_rules;
+use crate::cfg::CfgCache;
+use crate::rules::rule::Rule;
 use crate::tree::{AnalyzerError, SonarLocation};
-use std::collections::HashMap;
 use tree_sitter::Tree;
 
 #[derive(Debug, PartialEq, Eq, PartialOrd, Ord, Clone)]
@@ -36,11 +36,12 @@ pub struct SecondaryLocation {
 pub fn find_issues(
     tree: &Tree,
     source_code: &str,
-    parameters: &HashMap<String, String>,
+    rules: &[Box<dyn Rule>],
+    cfgs: &CfgCache<'_>,
 ) -> Result<Vec<Issue>, AnalyzerError> {
     let mut issues = Vec::new();
-    for rule in all_rules(parameters)? {
-        issues.extend(rule.check(tree, source_code)?);
+    for rule in rules {
+        issues.extend(rule.check(tree, source_code, cfgs)?);
     }
     Ok(issues)
 }
@@ -15,10 +15,13 @@
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
 mod analyze;
+mod cfg;
+mod document;
 mod issue;
 mod rules {
     pub mod cognitive_complexity_check;
     pub mod parsing_error_check;
+    pub mod query_rule;
     pub mod rule;
 }
 mod tree;
@@ -30,7 +33,9 @@ mod visitors {
     pub mod metrics;
 }
 
-use analyze::analyze;
+use analyze::{AnalysisSession, Output, METRICS_PASS};
+use document::{DocumentChange, TextEdit};
+use rules::query_rule::QueryRule;
 use std::{
     collections::HashMap,
     io::{self, Read, Write},
@@ -42,23 +47,25 @@ fn main() {
         return;
     }
     let parameters = read_map();
+    let contributed_rules = read_query_rules();
 
-    loop {
-        let command = read_string();
-        if command != "analyze" {
+    let mut session = match AnalysisSession::new(&parameters, contributed_rules) {
+        Ok(session) => session,
+        Err(AnalyzerError::FileError(message) | AnalyzerError::GlobalError(message)) => {
+            eprintln!("error {}", message);
             return;
         }
+    };
 
-        let len = read_i32();
-        let mut buf = vec![0u8; len as usize];
-        io::stdin().read_exact(&mut buf).expect("read from stdin");
-
-        let source_code = std::str::from_utf8(&buf).expect("UTF-8 conversion error");
-
-        let output = match analyze(source_code, &parameters) {
-            Ok(output) => output,
+    loop {
+        let output = match execute_command(&read_string(), &mut session) {
+            Ok(Some(output)) => output,
+            Ok(None) => return,
             Err(AnalyzerError::FileError(message)) => {
-                eprintln!("warn {}", message);
+                // The response must always be terminated, the plugin waits for it
+                write_string("error");
+                write_string(&message);
+                write_string("end");
                 continue;
             }
             Err(AnalyzerError::GlobalError(message)) => {
@@ -67,20 +74,29 @@ fn main() {
             }
         };
 
+        if let Some(reason) = output.skip_reason {
+            write_string("skipped_file");
+            write_string(reason);
+            write_string("end");
+            continue;
+        }
+
         for token in &output.highlight_tokens {
             write_string("highlight");
             write_string(token.token_type.to_sonar_api_name());
             write_location(&token.location);
         }
 
-        write_string("metrics");
-        write_int(output.metrics.ncloc);
-        write_int(output.metrics.comment_lines);
-        write_int(output.metrics.functions);
-        write_int(output.metrics.statements);
-        write_int(output.metrics.classes);
-        write_int(output.metrics.cognitive_complexity);
-        write_int(output.metrics.cyclomatic_complexity);
+        if !output.skipped_passes.contains(&METRICS_PASS) {
+            write_string("metrics");
+            write_int(output.metrics.ncloc);
+            write_int(output.metrics.comment_lines);
+            write_int(output.metrics.functions);
+            write_int(output.metrics.statements);
+            write_int(output.metrics.classes);
+            write_int(output.metrics.cognitive_complexity);
+            write_int(output.metrics.cyclomatic_complexity);
+        }
 
         for token in &output.cpd_tokens {
             write_string("cpd");
@@ -100,10 +116,81 @@ fn main() {
             }
         }
 
+        for pass in &output.skipped_passes {
+            write_string("skipped_pass");
+            write_string(pass);
+        }
+
         write_string("end");
     }
 }
 
+/// Reads the arguments of a command and executes it. Returns `None` for unknown commands, which
+/// end the analysis.
+fn execute_command(
+    command: &str,
+    session: &mut AnalysisSession,
+) -> Result<Option<Output>, AnalyzerError> {
+    let output = match command {
+        "analyze" => session.analyze(&read_source_code())?,
+        "analyze_test" => session.analyze_test(&read_source_code())?,
+        "analyze_document" => {
+            let uri = read_string();
+            session.analyze_document(&uri, read_document_change())?
+        }
+        _ => return Ok(None),
+    };
+    Ok(Some(output))
+}
+
+/// Reads the bytes of a source file, which the plugin sends without decoding them when the file is
+/// encoded in UTF-8. Invalid sequences are replaced by U+FFFD, as the plugin did when it decoded
+/// the files itself, so that the rest of the file is still analyzed. Valid files are not copied.
+fn read_source_code() -> String {
+    let len = read_i32();
+    let mut buf = vec![0u8; len as usize];
+    io::stdin().read_exact(&mut buf).expect("read from stdin");
+
+    String::from_utf8(buf)
+        .unwrap_or_else(|err| String::from_utf8_lossy(err.as_bytes()).into_owned())
+}
+
+/// Reads either the full content of a document, or a list of edits.
+fn read_document_change() -> DocumentChange {
+    if read_string() == "content" {
+        return DocumentChange::Content(read_source_code());
+    }
+
+    let count = read_i32();
+    let mut edits = Vec::with_capacity(count as usize);
+    for _ in 0..count {
+        edits.push(TextEdit {
+            start_byte: read_i32() as usize,
+            old_end_byte: read_i32() as usize,
+            text: read_string(),
+        });
+    }
+    DocumentChange::Edits(edits)
+}
+
+/// Reads the query rules contributed by other plugins. Rules whose query does not compile are
+/// reported and discarded, so that they do not prevent the analysis.
+fn read_query_rules() -> Vec<QueryRule> {
+    let count = read_i32();
+    let mut rules = Vec::with_capacity(count as usize);
+    for _ in 0..count {
+        let rule_key = read_string();
+        let pattern = read_string();
+        let message = read_string();
+        let rule = QueryRule::new(&rule_key, &pattern, &message);
+        match rule.validate() {
+            Ok(()) => rules.push(rule),
+            Err(message) => eprintln!("warn {}", message),
+        }
+    }
+    rules
+}
+
 fn read_i32() -> i32 {
     // Read an i32 from stdin
     let mut buf = [0u8; 4];
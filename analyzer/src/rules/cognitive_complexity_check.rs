@@ -15,12 +15,13 @@
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
 use crate::{
+    cfg::CfgCache,
     issue::{Issue, SecondaryLocation},
     rules::rule::Rule,
     tree::{AnalyzerError, NodeIterator, TreeSitterLocation},
     visitors::cognitive_complexity::calculate_cognitive_complexity,
 };
-use tree_sitter::{Node, Tree};
+use tree_sitter::Node;
 
 const RULE_KEY: &str = "S3776";
 
@@ -35,8 +36,13 @@ impl CognitiveComplexityCheck {
 }
 
 impl Rule for CognitiveComplexityCheck {
-    fn check(&self, tree: &Tree, source_code: &str) -> Result<Vec<Issue>, AnalyzerError> {
-        let iter = NodeIterator::new(tree.root_node(), |node| is_outer_function_node(node));
+    fn check_node(
+        &self,
+        node: Node<'_>,
+        source_code: &str,
+        _cfgs: &CfgCache<'_>,
+    ) -> Result<Vec<Issue>, AnalyzerError> {
+        let iter = NodeIterator::new(node, |node| is_outer_function_node(node));
         let mut issues: Vec<Issue> = vec![];
 
         for function_item in iter {
@@ -106,7 +112,9 @@ fn main() {
         let rule = CognitiveComplexityCheck::new(0);
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
         let expected = vec![];
 
         assert_eq!(actual, expected);
@@ -129,7 +137,9 @@ fn foo(c1: bool, c2: bool) {
         let rule = CognitiveComplexityCheck::new(0);
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(actual.len(), 1);
         assert_eq!(actual[0].rule_key, RULE_KEY);
@@ -210,7 +220,9 @@ fn foo(c1: bool) {
         let rule = CognitiveComplexityCheck::new(0);
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(actual.len(), 1);
         assert_eq!(actual[0].rule_key, RULE_KEY);
@@ -270,7 +282,9 @@ fn foo(c1: bool) {
         let rule = CognitiveComplexityCheck::new(15);
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
         assert_eq!(actual.len(), 1);
 
         assert_eq!(actual.len(), 1);
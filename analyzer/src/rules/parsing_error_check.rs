@@ -16,11 +16,12 @@
  */
 
 use crate::{
+    cfg::CfgCache,
     issue::Issue,
     rules::rule::Rule,
     tree::{walk_tree, AnalyzerError, NodeVisitor, SonarLocation, TreeSitterLocation},
 };
-use tree_sitter::{Node, Tree};
+use tree_sitter::Node;
 
 const RULE_KEY: &str = "S2260";
 
@@ -33,9 +34,14 @@ impl ParsingErrorCheck {
 }
 
 impl Rule for ParsingErrorCheck {
-    fn check(&self, tree: &Tree, source_code: &str) -> Result<Vec<Issue>, AnalyzerError> {
+    fn check_node(
+        &self,
+        node: Node<'_>,
+        source_code: &str,
+        _cfgs: &CfgCache<'_>,
+    ) -> Result<Vec<Issue>, AnalyzerError> {
         let mut visitor = RuleVisitor::new(source_code);
-        walk_tree(tree.root_node(), &mut visitor)?;
+        walk_tree(node, &mut visitor)?;
 
         Ok(visitor.issues)
     }
@@ -130,7 +136,9 @@ fn main() {
         let rule = ParsingErrorCheck::new();
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
         let expected = vec![];
 
         assert_eq!(actual, expected);
@@ -148,7 +156,9 @@ fn
         let rule = ParsingErrorCheck::new();
         let tree = parse_rust_code(source_code).unwrap();
 
-        let actual = rule.check(&tree, source_code).unwrap();
+        let actual = rule
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
         let expected = vec![
             Issue {
                 rule_key: RULE_KEY.to_string(),
@@ -0,0 +1,291 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+use crate::{
+    cfg::CfgCache,
+    issue::Issue,
+    rules::rule::Rule,
+    tree::{AnalyzerError, TreeSitterLocation},
+};
+use tree_sitter::{Node, Query, QueryCursor, StreamingIterator};
+
+/// Name of the capture designating the node an issue is reported on.
+/// When a pattern does not define it, the issue is reported on the first capture of the match.
+const ISSUE_CAPTURE: &str = "issue";
+
+/// A rule declared as a Tree-sitter query: an issue is raised for every match of its pattern.
+///
+/// The pattern is an S-expression that may contain several top-level patterns and predicates
+/// (e.g. `#eq?`, `#match?`). It must capture at least one node, preferably as `@issue`.
+#[derive(Debug, Clone, PartialEq, Eq)]
+pub struct QueryRule {
+    pub rule_key: String,
+    pub pattern: String,
+    pub message: String,
+}
+
+impl QueryRule {
+    pub fn new(rule_key: &str, pattern: &str, message: &str) -> Self {
+        QueryRule {
+            rule_key: rule_key.to_string(),
+            pattern: pattern.to_string(),
+            message: message.to_string(),
+        }
+    }
+
+    /// Checks that the pattern compiles on its own, so that an invalid rule contributed by another
+    /// plugin can be discarded instead of failing the compilation of the merged query.
+    pub fn validate(&self) -> Result<(), String> {
+        Query::new(&tree_sitter_rust::LANGUAGE.into(), &self.pattern)
+            .map(|_| ())
+            .map_err(|err| {
+                format!(
+                    "failed to compile the query of rule '{}': {}",
+                    self.rule_key, err
+                )
+            })
+    }
+}
+
+/// Executes all query rules at once.
+///
+/// The patterns of all rules are merged into a single compiled query, so that a single pass of a
+/// query cursor finds the matches of every rule. Matches are dispatched to their rule using the
+/// index of the pattern that produced them.
+pub struct QueryRuleEngine {
+    rules: Vec<QueryRule>,
+    query: Query,
+    /// Index in `rules` of the rule declaring each pattern of `query`.
+    pattern_rules: Vec<usize>,
+    issue_capture: Option<u32>,
+}
+
+impl QueryRuleEngine {
+    pub fn new(rules: Vec<QueryRule>) -> Result<Self, AnalyzerError> {
+        // Byte offset of the pattern of each rule in the merged query source.
+        let mut rule_offsets = Vec::with_capacity(rules.len());
+        let mut source = String::new();
+        for rule in &rules {
+            rule_offsets.push(source.len());
+            source.push_str(&rule.pattern);
+            source.push('\n');
+        }
+
+        let rule_at = |offset: usize| rule_offsets.partition_point(|&start| start <= offset) - 1;
+
+        let query = Query::new(&tree_sitter_rust::LANGUAGE.into(), &source).map_err(|err| {
+            AnalyzerError::GlobalError(format!(
+                "failed to compile the query of rule '{}': {}",
+                rules[rule_at(err.offset)].rule_key,
+                err
+            ))
+        })?;
+
+        let pattern_rules = (0..query.pattern_count())
+            .map(|index| rule_at(query.start_byte_for_pattern(index)))
+            .collect();
+        let issue_capture = query.capture_index_for_name(ISSUE_CAPTURE);
+
+        Ok(QueryRuleEngine {
+            rules,
+            query,
+            pattern_rules,
+            issue_capture,
+        })
+    }
+}
+
+impl Rule for QueryRuleEngine {
+    fn check_node(
+        &self,
+        node: Node<'_>,
+        source_code: &str,
+        _cfgs: &CfgCache<'_>,
+    ) -> Result<Vec<Issue>, AnalyzerError> {
+        let mut cursor = QueryCursor::new();
+        let mut matches = cursor.matches(&self.query, node, source_code.as_bytes());
+        let mut issues = Vec::new();
+
+        while let Some(m) = matches.next() {
+            let capture = m
+                .captures
+                .iter()
+                .find(|capture| Some(capture.index) == self.issue_capture)
+                .or_else(|| m.captures.first());
+
+            // Patterns without any capture have no node to report on
+            if let Some(capture) = capture {
+                let rule = &self.rules[self.pattern_rules[m.pattern_index]];
+                issues.push(Issue {
+                    rule_key: rule.rule_key.clone(),
+                    message: rule.message.clone(),
+                    location: TreeSitterLocation::from_tree_sitter_node(capture.node)
+                        .to_sonar_location(source_code),
+                    secondary_locations: vec![],
+                });
+            }
+        }
+
+        Ok(issues)
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::tree::{parse_rust_code, SonarLocation};
+
+    fn check(rules: Vec<QueryRule>, source_code: &str) -> Vec<Issue> {
+        let engine = QueryRuleEngine::new(rules).unwrap();
+        let tree = parse_rust_code(source_code).unwrap();
+        engine
+            .check(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap()
+    }
+
+    #[test]
+    fn test_no_rules() {
+        assert_eq!(check(vec![], "fn main() {}"), vec![]);
+    }
+
+    #[test]
+    fn test_single_rule() {
+        let actual = check(
+            vec![QueryRule::new(
+                "S1",
+                "(unsafe_block) @issue",
+                "Avoid unsafe blocks.",
+            )],
+            "fn main() {\n    unsafe { foo() }\n}",
+        );
+
+        assert_eq!(
+            actual,
+            vec![Issue {
+                rule_key: "S1".to_string(),
+                message: "Avoid unsafe blocks.".to_string(),
+                location: SonarLocation {
+                    start_line: 2,
+                    start_column: 4,
+                    end_line: 2,
+                    end_column: 20,
+                },
+                secondary_locations: vec![],
+            }]
+        );
+    }
+
+    #[test]
+    fn test_matches_are_dispatched_to_their_rule() {
+        let rules = vec![
+            QueryRule::new("S1", "(loop_expression) @issue", "loop"),
+            // A rule can declare several patterns
+            QueryRule::new(
+                "S2",
+                "(while_expression) @issue\n(for_expression) @issue",
+                "while or for",
+            ),
+            QueryRule::new("S3", "(unsafe_block) @issue", "unsafe"),
+        ];
+        let source_code = r#"
+fn main() {
+    loop {}
+    while x {}
+    for i in y {}
+    unsafe {}
+}
+"#;
+        let actual: Vec<(String, String, usize)> = check(rules, source_code)
+            .into_iter()
+            .map(|issue| (issue.rule_key, issue.message, issue.location.start_line))
+            .collect();
+
+        assert_eq!(
+            actual,
+            vec![
+                ("S1".to_string(), "loop".to_string(), 3),
+                ("S2".to_string(), "while or for".to_string(), 4),
+                ("S2".to_string(), "while or for".to_string(), 5),
+                ("S3".to_string(), "unsafe".to_string(), 6),
+            ]
+        );
+    }
+
+    #[test]
+    fn test_predicates() {
+        let actual = check(
+            vec![QueryRule::new(
+                "S1",
+                r#"((call_expression function: (identifier) @issue) (#eq? @issue "forbidden"))"#,
+                "Do not call 'forbidden'.",
+            )],
+            "fn main() { allowed(); forbidden(); }",
+        );
+
+        assert_eq!(actual.len(), 1);
+        assert_eq!(
+            actual[0].location,
+            SonarLocation {
+                start_line: 1,
+                start_column: 23,
+                end_line: 1,
+                end_column: 32,
+            }
+        );
+    }
+
+    #[test]
+    fn test_issue_capture_takes_precedence() {
+        let actual = check(
+            vec![QueryRule::new(
+                "S1",
+                "(function_item name: (identifier) @name body: (block) @issue)",
+                "body",
+            )],
+            "fn main() {}",
+        );
+
+        assert_eq!(actual.len(), 1);
+        assert_eq!(actual[0].location.start_column, 10);
+    }
+
+    #[test]
+    fn test_validate() {
+        assert!(QueryRule::new("S1", "(unsafe_block) @issue", "unsafe")
+            .validate()
+            .is_ok());
+
+        let error = QueryRule::new("repo:S2", "(not_a_node) @issue", "invalid")
+            .validate()
+            .unwrap_err();
+        assert!(error.starts_with("failed to compile the query of rule 'repo:S2'"));
+    }
+
+    #[test]
+    fn test_invalid_pattern() {
+        let result = QueryRuleEngine::new(vec![
+            QueryRule::new("S1", "(unsafe_block) @issue", "unsafe"),
+            QueryRule::new("S2", "(not_a_node) @issue", "invalid"),
+        ]);
+
+        match result {
+            Err(AnalyzerError::GlobalError(message)) => {
+                assert!(message.starts_with("failed to compile the query of rule 'S2'"))
+            }
+            _ => panic!("expected a global error"),
+        }
+    }
+}
@@ -18,21 +18,46 @@
 use std::collections::HashMap;
 
 use crate::{
+    cfg::CfgCache,
     issue::Issue,
     rules::{
         cognitive_complexity_check::CognitiveComplexityCheck,
         parsing_error_check::ParsingErrorCheck,
+        query_rule::{QueryRule, QueryRuleEngine},
     },
     tree::AnalyzerError,
 };
-use tree_sitter::Tree;
+use tree_sitter::{Node, Tree};
 
-pub trait Rule {
-    fn check(&self, tree: &Tree, source_code: &str) -> Result<Vec<Issue>, AnalyzerError>;
+/// Rules are shared between the threads of a parallel analysis, hence `Send` and `Sync`.
+pub trait Rule: Send + Sync {
+    /// Checks the subtree of a node. Issues must only depend on this subtree, so that the top-level
+    /// items of a document can be checked independently when it is analyzed incrementally.
+    ///
+    /// The control-flow graphs of functions are available through `cfgs`, they are built on demand
+    /// and shared with the other rules.
+    fn check_node(
+        &self,
+        node: Node<'_>,
+        source_code: &str,
+        cfgs: &CfgCache<'_>,
+    ) -> Result<Vec<Issue>, AnalyzerError>;
+
+    /// Checks a whole file.
+    fn check(
+        &self,
+        tree: &Tree,
+        source_code: &str,
+        cfgs: &CfgCache<'_>,
+    ) -> Result<Vec<Issue>, AnalyzerError> {
+        self.check_node(tree.root_node(), source_code, cfgs)
+    }
 }
 
+/// Returns the built-in rules, along with the query rules contributed by other plugins.
 pub fn all_rules(
     parameters: &HashMap<String, String>,
+    contributed_rules: Vec<QueryRule>,
 ) -> Result<Vec<Box<dyn Rule>>, AnalyzerError> {
     let cognitive_complexity_threshold = parameters
         .get("S3776:threshold")
@@ -48,11 +73,27 @@ pub fn all_rules(
             })
         })?;
 
-    Ok(vec![
+    let mut rules: Vec<Box<dyn Rule>> = vec![
         Box::new(CognitiveComplexityCheck::new(
             cognitive_complexity_threshold,
         )),
         Box::new(ParsingErrorCheck::new()),
         // Add other rules here
-    ])
+    ];
+
+    let mut query_rules = query_rules();
+    query_rules.extend(contributed_rules);
+    if !query_rules.is_empty() {
+        // All query rules are executed together, in a single pass over the tree
+        rules.push(Box::new(QueryRuleEngine::new(query_rules)?));
+    }
+
+    Ok(rules)
+}
+
+/// Rules that are fully described by a Tree-sitter query and a message.
+fn query_rules() -> Vec<QueryRule> {
+    vec![
+        // Add query rules here
+    ]
 }
@@ -137,6 +137,15 @@ pub(crate) fn walk_tree(
 }
 
 pub(crate) fn parse_rust_code(source_code: &str) -> Result<Tree, AnalyzerError> {
+    reparse_rust_code(source_code, None)
+}
+
+/// Parses source code, reusing the unchanged parts of `old_tree` if any.
+/// The old tree must have been edited with `Tree::edit` to match the new source code.
+pub(crate) fn reparse_rust_code(
+    source_code: &str,
+    old_tree: Option<&Tree>,
+) -> Result<Tree, AnalyzerError> {
     let mut parser = Parser::new();
     parser
         .set_language(&tree_sitter_rust::LANGUAGE.into())
@@ -145,7 +154,7 @@ pub(crate) fn parse_rust_code(source_code: &str) -> Result<Tree, AnalyzerError>
         })?;
 
     let tree = parser
-        .parse(source_code, None)
+        .parse(source_code, old_tree)
         .ok_or(AnalyzerError::FileError(
             "failed to parse the source code".to_string(),
         ))?;
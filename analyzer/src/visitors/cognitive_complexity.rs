@@ -16,7 +16,7 @@
  */
 use crate::tree::{walk_tree, AnalyzerError, NodeVisitor, TreeSitterLocation};
 use std::collections::HashSet;
-use tree_sitter::{Node, Tree};
+use tree_sitter::Node;
 
 #[allow(dead_code)] // Location is currently only used in tests, so we allow dead code
 pub struct Increment {
@@ -24,8 +24,8 @@ pub struct Increment {
     pub nesting: i32,
 }
 
-pub fn calculate_total_cognitive_complexity(tree: &Tree) -> Result<i32, AnalyzerError> {
-    Ok(calculate_cognitive_complexity(tree.root_node())?
+pub fn calculate_total_cognitive_complexity(node: Node<'_>) -> Result<i32, AnalyzerError> {
+    Ok(calculate_cognitive_complexity(node)?
         .iter()
         .map(|inc| inc.nesting + 1)
         .sum())
@@ -486,7 +486,7 @@ match x { // +1
 
     fn total_complexity(source_code: &str) -> i32 {
         let tree = parse_rust_code(format!("fn main() {{ {} }}", source_code).as_str()).unwrap();
-        calculate_total_cognitive_complexity(&tree).unwrap()
+        calculate_total_cognitive_complexity(tree.root_node()).unwrap()
     }
 
     fn check_complexity(source_code: &str) {
@@ -15,24 +15,50 @@
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
 use crate::{
+    cfg::CfgCache,
     tree::{walk_tree, AnalyzerError, NodeVisitor},
     visitors::cognitive_complexity::is_logical_operator,
 };
-use tree_sitter::{Node, Tree};
+use tree_sitter::Node;
 
-pub(crate) fn calculate_cyclomatic_complexity(tree: &Tree) -> Result<i32, AnalyzerError> {
-    let mut visitor = CyclomaticComplexityVisitor::default();
-    walk_tree(tree.root_node(), &mut visitor)?;
+/// Computes the cyclomatic complexity of the subtree of a node. The complexity of functions is
+/// computed on their control-flow graph, code outside of functions (e.g. closures in statics) is
+/// counted syntactically.
+pub(crate) fn calculate_cyclomatic_complexity(
+    node: Node<'_>,
+    cfgs: &CfgCache<'_>,
+) -> Result<i32, AnalyzerError> {
+    let mut visitor = CyclomaticComplexityVisitor {
+        cfgs,
+        complexity: 0,
+        function_depth: 0,
+    };
+    walk_tree(node, &mut visitor)?;
     Ok(visitor.complexity)
 }
 
-#[derive(Debug, Default)]
-struct CyclomaticComplexityVisitor {
+struct CyclomaticComplexityVisitor<'a, 'b> {
+    cfgs: &'a CfgCache<'b>,
     complexity: i32,
+    /// Number of enclosing functions, whose CFG already accounts for the visited node.
+    function_depth: usize,
 }
 
-impl NodeVisitor for CyclomaticComplexityVisitor {
+impl NodeVisitor for CyclomaticComplexityVisitor<'_, '_> {
     fn enter_node(&mut self, node: Node<'_>) -> Result<(), AnalyzerError> {
+        if node.kind() == "function_item" {
+            if has_non_empty_field(node, "body") {
+                self.complexity += 1;
+            }
+            self.complexity += self.cfgs.get(node).cyclomatic_complexity();
+            self.function_depth += 1;
+            return Ok(());
+        }
+
+        if self.function_depth > 0 {
+            return Ok(());
+        }
+
         match node.kind() {
             "if_expression" | "loop_expression" | "while_expression" | "for_expression"
             | "closure_expression" => {
@@ -44,17 +70,21 @@ impl NodeVisitor for CyclomaticComplexityVisitor {
             "match_arm" if has_non_empty_field(node, "value") => {
                 self.complexity += 1;
             }
-            "function_item" if has_non_empty_field(node, "body") => {
-                self.complexity += 1;
-            }
             _ => {}
         }
 
         Ok(())
     }
+
+    fn exit_node(&mut self, node: Node<'_>) -> Result<(), AnalyzerError> {
+        if node.kind() == "function_item" {
+            self.function_depth -= 1;
+        }
+        Ok(())
+    }
 }
 
-fn has_non_empty_field(node: Node<'_>, field_name: &str) -> bool {
+pub(crate) fn has_non_empty_field(node: Node<'_>, field_name: &str) -> bool {
     node.child_by_field_name(field_name)
         .filter(|n| {
             if n.kind() == "block" {
@@ -68,7 +98,7 @@ fn has_non_empty_field(node: Node<'_>, field_name: &str) -> bool {
 
 #[cfg(test)]
 mod tests {
-    use crate::tree::parse_rust_code;
+    use crate::{cfg::CfgCache, tree::parse_rust_code};
 
     use super::calculate_cyclomatic_complexity;
 
@@ -149,8 +179,44 @@ mod tests {
         );
     }
 
+    #[test]
+    fn test_early_exits() {
+        // `?`, `return`, `break` and `continue` do not add complexity
+        assert_eq!(
+            complexity(
+                r#"
+    fn foo() -> Option<i32> { // +1
+        let x = bar()?;
+        'a: loop { // +1
+            if x { // +1
+                break 'a;
+            }
+            continue;
+        }
+        return None;
+    }"#
+            ),
+            3
+        );
+    }
+
+    #[test]
+    fn test_outside_of_functions() {
+        assert_eq!(
+            complexity(
+                r#"
+    static F: fn(bool) = |x| { // +1
+        if x { // +1
+        }
+    };"#
+            ),
+            2
+        );
+    }
+
     fn complexity(source_code: &str) -> i32 {
         let tree = parse_rust_code(source_code).unwrap();
-        calculate_cyclomatic_complexity(&tree).unwrap()
+        calculate_cyclomatic_complexity(tree.root_node(), &CfgCache::new(source_code))
+            .unwrap()
     }
 }
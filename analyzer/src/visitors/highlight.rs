@@ -14,10 +14,19 @@
  * You should have received a copy of the Sonar Source-Available License
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
-use crate::tree::{AnalyzerError, SonarLocation, TreeSitterLocation};
-use std::collections::HashSet;
+use crate::tree::{child_of_kind, AnalyzerError, SonarLocation, TreeSitterLocation};
 use tree_sitter::{Node, Query, QueryCursor, StreamingIterator, Tree};
 
+/// Names of the captures of the upstream highlighting query that are mapped to a token type.
+/// Patterns of the upstream query that don't use any of these captures are never compiled.
+const MAPPED_CAPTURES: [&str; 5] = [
+    "keyword",
+    "comment",
+    "string",
+    "constant.builtin",
+    "comment.documentation",
+];
+
 #[derive(Debug, PartialOrd, Ord, PartialEq, Eq, Clone)]
 #[allow(dead_code)]
 pub enum HighlightTokenType {
@@ -64,56 +73,403 @@ impl HighlightTokenType {
     }
 }
 
-pub fn highlight(tree: &Tree, source_code: &str) -> Result<Vec<HighlightToken>, AnalyzerError> {
-    let highlight_query = Query::new(
-        &tree_sitter_rust::LANGUAGE.into(),
-        tree_sitter_rust::HIGHLIGHTS_QUERY,
-    )
-    .map_err(|err| {
-        AnalyzerError::GlobalError(format!("Failed to create highlight query: {}", err))
-    })?;
+/// Highlighting query, compiled once per analysis session.
+pub struct HighlightQuery {
+    query: Query,
+    /// Token type of each capture of the query, indexed by capture index.
+    token_types: Vec<Option<HighlightTokenType>>,
+}
+
+impl HighlightQuery {
+    /// Compiles the subset of the upstream highlighting query whose patterns produce mapped captures.
+    pub fn new() -> Result<Self, AnalyzerError> {
+        Self::from_source(&slim_query(tree_sitter_rust::HIGHLIGHTS_QUERY))
+    }
+
+    fn from_source(source: &str) -> Result<Self, AnalyzerError> {
+        let query = Query::new(&tree_sitter_rust::LANGUAGE.into(), source).map_err(|err| {
+            AnalyzerError::GlobalError(format!("Failed to create highlight query: {}", err))
+        })?;
+        let token_types = query
+            .capture_names()
+            .iter()
+            .map(|name| HighlightTokenType::from_capture_name(name))
+            .collect();
 
+        Ok(HighlightQuery { query, token_types })
+    }
+}
+
+pub fn highlight(
+    tree: &Tree,
+    source_code: &str,
+    highlight_query: &HighlightQuery,
+) -> Result<Vec<HighlightToken>, AnalyzerError> {
+    highlight_node(tree.root_node(), source_code, highlight_query)
+}
+
+/// Highlights the subtree of a node.
+pub fn highlight_node(
+    node: Node<'_>,
+    source_code: &str,
+    highlight_query: &HighlightQuery,
+) -> Result<Vec<HighlightToken>, AnalyzerError> {
     let mut cursor = QueryCursor::new();
     let mut query_matches =
-        cursor.matches(&highlight_query, tree.root_node(), source_code.as_bytes());
+        cursor.matches(&highlight_query.query, node, source_code.as_bytes());
 
     let mut tokens: Vec<HighlightToken> = Vec::new();
-    let capture_names = highlight_query.capture_names();
-
-    // Doc comments and comments are both matched by the same 'comment' capture, so we need to handle them separately
-    let mut comments: HashSet<Node<'_>> = HashSet::new();
-    let mut doc_comments: HashSet<Node<'_>> = HashSet::new();
 
     while let Some(m) = query_matches.next() {
         for capture in m.captures {
-            match HighlightTokenType::from_capture_name(capture_names[capture.index as usize]) {
-                Some(HighlightTokenType::Comment) => {
-                    comments.insert(capture.node);
+            let Some(token_type) = &highlight_query.token_types[capture.index as usize] else {
+                continue;
+            };
+
+            // Doc comments are matched both as comments and as documentation, only the latter is kept
+            if *token_type == HighlightTokenType::Comment
+                && child_of_kind(capture.node, "doc_comment").is_some()
+            {
+                continue;
+            }
+
+            tokens.push(HighlightToken {
+                token_type: token_type.clone(),
+                location: TreeSitterLocation::from_tree_sitter_node(capture.node)
+                    .to_sonar_location(source_code),
+            });
+        }
+    }
+
+    Ok(tokens)
+}
+
+/// Keeps only the top-level patterns of a query that use at least one of the mapped captures.
+fn slim_query(source: &str) -> String {
+    top_level_patterns(source)
+        .into_iter()
+        .filter(|pattern| {
+            capture_names(pattern)
+                .iter()
+                .any(|name| MAPPED_CAPTURES.contains(name))
+        })
+        .collect::<Vec<_>>()
+        .join("\n")
+}
+
+/// Splits a query into its top-level patterns. Each pattern keeps its captures, quantifiers and the
+/// comments preceding it. Strings and comments are skipped, so that brackets they contain are ignored.
+fn top_level_patterns(source: &str) -> Vec<&str> {
+    let bytes = source.as_bytes();
+    let mut patterns = Vec::new();
+    let mut pattern_start = 0;
+    let mut has_node = false;
+    let mut depth = 0;
+    let mut i = 0;
+
+    while i < bytes.len() {
+        match bytes[i] {
+            b';' => {
+                while i < bytes.len() && bytes[i] != b'\n' {
+                    i += 1;
                 }
-                Some(token_type) => {
-                    if token_type == HighlightTokenType::StructuredComment {
-                        doc_comments.insert(capture.node);
-                    }
+                continue;
+            }
+            b'(' | b'[' | b'"' if depth == 0 => {
+                if has_node {
+                    patterns.push(&source[pattern_start..i]);
+                    pattern_start = i;
+                }
+                has_node = true;
+            }
+            _ => {}
+        }
+
+        match bytes[i] {
+            b'"' => i = skip_string(bytes, i),
+            b'(' | b'[' => depth += 1,
+            b')' | b']' => depth -= 1,
+            _ => {}
+        }
+        i += 1;
+    }
+
+    if has_node {
+        patterns.push(&source[pattern_start..]);
+    }
+    patterns
+}
+
+/// Returns the names of the captures used in a pattern, including those referenced by predicates.
+fn capture_names(pattern: &str) -> Vec<&str> {
+    let bytes = pattern.as_bytes();
+    let mut names = Vec::new();
+    let mut i = 0;
 
-                    tokens.push(HighlightToken {
-                        token_type,
-                        location: TreeSitterLocation::from_tree_sitter_node(capture.node)
-                            .to_sonar_location(source_code),
-                    });
+    while i < bytes.len() {
+        match bytes[i] {
+            b';' => {
+                while i < bytes.len() && bytes[i] != b'\n' {
+                    i += 1;
+                }
+            }
+            b'"' => i = skip_string(bytes, i),
+            b'@' => {
+                let start = i + 1;
+                let mut end = start;
+                while end < bytes.len()
+                    && (bytes[end].is_ascii_alphanumeric() || b"_.-".contains(&bytes[end]))
+                {
+                    end += 1;
                 }
-                None => {}
+                names.push(&pattern[start..end]);
+                i = end - 1;
             }
+            _ => {}
         }
+        i += 1;
     }
 
-    let comments_without_doc_comments = &comments - &doc_comments;
-    for comment in comments_without_doc_comments {
-        tokens.push(HighlightToken {
-            token_type: HighlightTokenType::Comment,
-            location: TreeSitterLocation::from_tree_sitter_node(comment)
-                .to_sonar_location(source_code),
-        });
+    names
+}
+
+/// Returns the index of the closing quote of the string starting at `start`.
+fn skip_string(bytes: &[u8], start: usize) -> usize {
+    let mut i = start + 1;
+    while i < bytes.len() && bytes[i] != b'"' {
+        if bytes[i] == b'\\' {
+            i += 1;
+        }
+        i += 1;
     }
+    i
+}
 
-    Ok(tokens)
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::tree::parse_rust_code;
+    use std::collections::HashSet;
+
+    #[test]
+    fn test_top_level_patterns() {
+        let source = r#"
+; Comment with a ( bracket
+(line_comment) @comment
+"fn" @keyword
+((identifier) @constant
+ (#match? @constant "^[A-Z]\\("))
+[
+  "(" ")"
+] @punctuation.bracket
+(parameter (identifier) @variable.parameter)*
+"#;
+        let patterns: Vec<&str> = top_level_patterns(source)
+            .iter()
+            .map(|pattern| pattern.trim())
+            .collect();
+
+        assert_eq!(
+            patterns,
+            vec![
+                "; Comment with a ( bracket\n(line_comment) @comment",
+                "\"fn\" @keyword",
+                "((identifier) @constant\n (#match? @constant \"^[A-Z]\\\\(\"))",
+                "[\n  \"(\" \")\"\n] @punctuation.bracket",
+                "(parameter (identifier) @variable.parameter)*",
+            ]
+        );
+    }
+
+    #[test]
+    fn test_capture_names() {
+        assert_eq!(
+            capture_names(r#"((identifier) @constant (#match? @constant "@x"))"#),
+            vec!["constant", "constant"]
+        );
+        assert_eq!(
+            capture_names("(line_comment (doc_comment)) @comment.documentation"),
+            vec!["comment.documentation"]
+        );
+    }
+
+    #[test]
+    fn test_slim_query() {
+        let full = Query::new(
+            &tree_sitter_rust::LANGUAGE.into(),
+            tree_sitter_rust::HIGHLIGHTS_QUERY,
+        )
+        .unwrap();
+        let slim = HighlightQuery::new().unwrap().query;
+
+        assert!(slim.pattern_count() < full.pattern_count());
+        for name in MAPPED_CAPTURES {
+            assert_eq!(
+                slim.capture_index_for_name(name).is_some(),
+                full.capture_index_for_name(name).is_some(),
+                "capture {}",
+                name
+            );
+        }
+    }
+
+    /// Highlighting as implemented before the slim query: the full upstream query is run, and the
+    /// comments that are also doc comments are removed using sets of nodes.
+    fn baseline_highlight(tree: &Tree, source_code: &str) -> Vec<HighlightToken> {
+        let query = Query::new(
+            &tree_sitter_rust::LANGUAGE.into(),
+            tree_sitter_rust::HIGHLIGHTS_QUERY,
+        )
+        .unwrap();
+        let mut cursor = QueryCursor::new();
+        let mut query_matches = cursor.matches(&query, tree.root_node(), source_code.as_bytes());
+        let capture_names = query.capture_names();
+
+        let mut tokens = Vec::new();
+        let mut comments: HashSet<Node<'_>> = HashSet::new();
+        let mut doc_comments: HashSet<Node<'_>> = HashSet::new();
+        while let Some(m) = query_matches.next() {
+            for capture in m.captures {
+                match HighlightTokenType::from_capture_name(capture_names[capture.index as usize]) {
+                    Some(HighlightTokenType::Comment) => {
+                        comments.insert(capture.node);
+                    }
+                    Some(token_type) => {
+                        if token_type == HighlightTokenType::StructuredComment {
+                            doc_comments.insert(capture.node);
+                        }
+                        tokens.push(HighlightToken {
+                            token_type,
+                            location: TreeSitterLocation::from_tree_sitter_node(capture.node)
+                                .to_sonar_location(source_code),
+                        });
+                    }
+                    None => {}
+                }
+            }
+        }
+        for comment in &comments - &doc_comments {
+            tokens.push(HighlightToken {
+                token_type: HighlightTokenType::Comment,
+                location: TreeSitterLocation::from_tree_sitter_node(comment)
+                    .to_sonar_location(source_code),
+            });
+        }
+        tokens
+    }
+
+    fn assert_same_tokens_as_baseline(source_code: &str) {
+        let tree = parse_rust_code(source_code).unwrap();
+        // Tokens of ERROR nodes would not tell whether both queries agree on valid code
+        assert!(!tree.root_node().has_error());
+        let mut expected = baseline_highlight(&tree, source_code);
+        let mut actual = highlight(&tree, source_code, &HighlightQuery::new().unwrap()).unwrap();
+        expected.sort();
+        actual.sort();
+
+        assert!(!actual.is_empty());
+        assert_eq!(actual, expected);
+    }
+
+    #[test]
+    fn test_top_level_patterns_with_strings_and_comments() {
+        let source = r#"
+"(" @punctuation.bracket ; a "comment" with (brackets
+"\"" @string
+((string_literal) @string (#match? @string "[;(\\\"]"))
+"#;
+        let patterns: Vec<&str> = top_level_patterns(source)
+            .iter()
+            .map(|pattern| pattern.trim())
+            .collect();
+
+        assert_eq!(
+            patterns,
+            vec![
+                "\"(\" @punctuation.bracket ; a \"comment\" with (brackets",
+                "\"\\\"\" @string",
+                "((string_literal) @string (#match? @string \"[;(\\\\\\\"]\"))",
+            ]
+        );
+    }
+
+    #[test]
+    fn test_same_tokens_as_full_query() {
+        let source_code = r#"
+//! Crate documentation
+use std::collections::HashMap;
+
+/// A point
+#[derive(Debug)]
+pub struct Point<'a> {
+    x: i32,
+    y: f64,
+    name: &'a str,
+}
+
+/* block comment */
+/** block doc comment */
+impl<'a> Point<'a> {
+    const ORIGIN: i32 = 0;
+
+    pub async fn new(x: i32, y: f64) -> Self {
+        let mut map = HashMap::new();
+        map.insert('c', r"raw");
+        if x > 0 && true {
+            return Point { x, y: 1.5e3, name: "name" };
+        }
+        for i in 0..10 {
+            match i {
+                0 => continue,
+                _ => break,
+            }
+        }
+        loop {
+            unsafe { std::ptr::null::<u8>() };
+        }
+    }
+}
+
+macro_rules! foo {
+    ($x:expr) => { $x };
+}
+"#;
+        assert_same_tokens_as_baseline(source_code);
+    }
+
+    #[test]
+    fn test_same_tokens_as_full_query_for_doc_comments() {
+        assert_same_tokens_as_baseline(
+            r#"//! Inner line doc
+/*! Inner block doc */
+/// Outer line doc with `code` and "quotes"
+/** Outer block doc
+ * spanning lines
+ */
+// Regular comment, not a doc: //// four slashes
+/* Nested /* block */ comment */
+fn documented() {}
+"#,
+        );
+    }
+
+    #[test]
+    fn test_same_tokens_as_full_query_for_strings_and_macros() {
+        assert_same_tokens_as_baseline(
+            r##"fn main() {
+    let raw = r#"a "quoted" (string) ; with brackets"#;
+    let escaped = "escaped \" quote \\ and \n newline";
+    let bytes = b"bytes";
+    let chars = ['"', '\'', '\\'];
+    println!("{} {}", "nested", format!("{:?}", vec!["a", "b"]));
+    assert!(matches!(Some(1), Some(x) if x > 0), "message with {}", true);
+    let v = vec![r"raw", concat!("a", "b")];
+}
+
+macro_rules! nested {
+    ($($x:expr),* $(,)?) => { [$(stringify!($x)),*] };
+}
+"##,
+        );
+    }
 }
@@ -14,6 +14,7 @@
  * You should have received a copy of the Sonar Source-Available License
  * along with this program; if not, see https://sonarsource.com/license/ssal/
  */
+use crate::cfg::CfgCache;
 use crate::tree::{walk_tree, AnalyzerError, NodeVisitor};
 use crate::visitors::cognitive_complexity::calculate_total_cognitive_complexity;
 use crate::visitors::cyclomatic_complexity::calculate_cyclomatic_complexity;
@@ -31,14 +32,25 @@ pub struct Metrics {
     pub cyclomatic_complexity: i32,
 }
 
-pub fn calculate_metrics(tree: &Tree, source_code: &str) -> Result<Metrics, AnalyzerError> {
+pub fn calculate_metrics(
+    tree: &Tree,
+    source_code: &str,
+    cfgs: &CfgCache<'_>,
+) -> Result<Metrics, AnalyzerError> {
+    let mut metrics = calculate_size_metrics(tree, source_code)?;
+    metrics.cognitive_complexity = calculate_total_cognitive_complexity(tree.root_node())?;
+    metrics.cyclomatic_complexity = calculate_cyclomatic_complexity(tree.root_node(), cfgs)?;
+
+    Ok(metrics)
+}
+
+/// Calculates all metrics but the complexity ones, which are left to 0.
+pub fn calculate_size_metrics(tree: &Tree, source_code: &str) -> Result<Metrics, AnalyzerError> {
     let mut metrics_visitor = MetricsVisitor::new(source_code);
     walk_tree(tree.root_node(), &mut metrics_visitor)?;
 
     let mut metrics = Metrics::default();
     metrics_visitor.update_metrics(&mut metrics);
-    metrics.cognitive_complexity = calculate_total_cognitive_complexity(tree)?;
-    metrics.cyclomatic_complexity = calculate_cyclomatic_complexity(tree)?;
 
     Ok(metrics)
 }
@@ -131,7 +143,8 @@ fn main() {
 }         
 "#;
         let tree = parse_rust_code(source_code).unwrap();
-        let actual = calculate_metrics(&tree, source_code).unwrap();
+        let actual = calculate_metrics(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(
             actual,
@@ -157,7 +170,8 @@ fn main() {
 }
 "#;
         let tree = parse_rust_code(source_code).unwrap();
-        let actual = calculate_metrics(&tree, source_code).unwrap();
+        let actual = calculate_metrics(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(
             actual,
@@ -188,7 +202,8 @@ fn main() {
 }
 "#;
         let tree = parse_rust_code(source_code).unwrap();
-        let actual = calculate_metrics(&tree, source_code).unwrap();
+        let actual = calculate_metrics(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(
             actual,
@@ -230,7 +245,8 @@ fn main() {
 }
 "#;
         let tree = parse_rust_code(source_code).unwrap();
-        let actual = calculate_metrics(&tree, source_code).unwrap();
+        let actual = calculate_metrics(&tree, source_code, &CfgCache::new(source_code))
+            .unwrap();
 
         assert_eq!(
             actual,
@@ -25,7 +25,8 @@ import org.sonar.api.server.rule.RulesDefinition;
  *   <li>{@link #OVERRIDING_RULE} reuses an id that the base {@code rust} repository also defines and
  *   activates in "Sonar way", to exercise reconciliation (the contributed rule should supersede the
  *   base one).</li>
- *   <li>{@link #NEW_RULE} is a brand-new id only this plugin provides.</li>
+ *   <li>{@link #NEW_RULE} is a brand-new id only this plugin provides, implemented as a query rule
+ *   executed by the base plugin's analyzer.</li>
  * </ul>
  */
 public class CustomRulesDefinition implements RulesDefinition {
@@ -36,6 +37,8 @@ public class CustomRulesDefinition implements RulesDefinition {
   static final String OVERRIDING_RULE = "S3776";
   /** Only defined by this plugin. */
   static final String NEW_RULE = "S9999";
+  /** Parameter of {@link #NEW_RULE}: name of the function that must not be called. */
+  static final String FUNCTION_NAME_PARAM = "functionName";
 
   @Override
   public void define(Context context) {
@@ -43,9 +46,12 @@ public class CustomRulesDefinition implements RulesDefinition {
     repository.createRule(OVERRIDING_RULE)
       .setName("Custom reimplementation of a base rule")
       .setHtmlDescription("Reuses the id of a base <code>rust</code> rule to test reconciliation.");
-    repository.createRule(NEW_RULE)
+    var newRule = repository.createRule(NEW_RULE)
       .setName("Custom-only rule")
       .setHtmlDescription("A rule that only the custom plugin provides.");
+    newRule.createParam(FUNCTION_NAME_PARAM)
+      .setDescription("Name of the function that must not be called.")
+      .setDefaultValue("forbidden");
     repository.done();
   }
 }
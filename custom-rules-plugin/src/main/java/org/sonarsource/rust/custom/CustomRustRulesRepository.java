@@ -18,6 +18,7 @@ package org.sonarsource.rust.custom;
 
 import java.util.Collection;
 import java.util.List;
+import org.sonar.plugins.rust.api.RustQueryRule;
 import org.sonar.plugins.rust.api.RustRulesRepository;
 
 /**
@@ -32,4 +33,13 @@ public class CustomRustRulesRepository implements RustRulesRepository {
       CustomRulesDefinition.REPOSITORY + ":" + CustomRulesDefinition.OVERRIDING_RULE,
       CustomRulesDefinition.REPOSITORY + ":" + CustomRulesDefinition.NEW_RULE);
   }
+
+  @Override
+  public Collection<RustQueryRule> queryRules() {
+    var functionName = "{" + CustomRulesDefinition.FUNCTION_NAME_PARAM + "}";
+    return List.of(new RustQueryRule(
+      CustomRulesDefinition.REPOSITORY + ":" + CustomRulesDefinition.NEW_RULE,
+      "((call_expression function: (identifier) @issue) (#eq? @issue \"" + functionName + "\"))",
+      "Do not call \"" + functionName + "\"."));
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonar.plugins.rust.api;
+
+/**
+ * A rule implemented as a <a href="https://tree-sitter.github.io/tree-sitter/using-parsers/queries/">Tree-sitter query</a>,
+ * contributed through {@link RustRulesRepository#queryRules()}.
+ *
+ * <p>Query rules are executed by the analyzer of the base Rust plugin, in the same pass over the syntax tree as its
+ * built-in rules: all queries are compiled once per analysis and matched together. An issue is raised for every match
+ * of the query, on the node captured as {@code @issue} (or on the first captured node when there is no such capture).
+ * The query is written against the node types of the <a href="https://github.com/tree-sitter/tree-sitter-rust">tree-sitter-rust</a>
+ * grammar.</p>
+ *
+ * <p>The query and the message may reference the parameters of the rule as {@code {parameterKey}}: they are replaced
+ * by the values of the parameters in the active quality profile. For example:</p>
+ * <pre>
+ * new RustQueryRule(
+ *   "rustcustom:S9999",
+ *   "((call_expression function: (identifier) @issue) (#eq? @issue \"{name}\"))",
+ *   "Do not call \"{name}\".")
+ * </pre>
+ *
+ * <p>A query that does not compile is reported in the logs and ignored, without preventing the analysis.</p>
+ *
+ * @param ruleKey the fully-qualified key of the rule, in the {@code "repositoryKey:ruleId"} form
+ * @param query the Tree-sitter query matching the nodes to report
+ * @param message the message of the issues
+ */
+public record RustQueryRule(String ruleKey, String query, String message) {
+}
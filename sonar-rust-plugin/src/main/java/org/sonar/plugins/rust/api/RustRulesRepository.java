@@ -17,7 +17,9 @@
 package org.sonar.plugins.rust.api;
 
 import java.util.Collection;
+import java.util.List;
 import org.sonar.api.ExtensionPoint;
+import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.server.ServerSide;
 
 /**
@@ -34,8 +36,13 @@ import org.sonar.api.server.ServerSide;
  * <p>When a contributed rule id matches a rule already provided by the base {@code rust}
  * repository, the built-in profile activates the contributed rule instead of the base one, so the
  * contributing plugin's implementation supersedes the base one.</p>
+ *
+ * <p>Rules that can be expressed as a Tree-sitter query can also be implemented by the contributing
+ * plugin as {@link #queryRules() query rules}: the base plugin then executes them during the
+ * analysis, which is why implementations are also available on the scanner side.</p>
  */
 @ServerSide
+@ScannerSide
 @ExtensionPoint
 public interface RustRulesRepository {
 
@@ -46,4 +53,15 @@ public interface RustRulesRepository {
    * @return the fully-qualified keys of the rules to activate
    */
   Collection<String> ruleKeys();
+
+  /**
+   * Rules implemented as Tree-sitter queries, executed by the base plugin's analyzer when they are
+   * active in the quality profile. The rules must be defined by the contributing plugin, like any
+   * other rule.
+   *
+   * @return the query rules of the contributing plugin, none by default
+   */
+  default Collection<RustQueryRule> queryRules() {
+    return List.of();
+  }
 }
@@ -0,0 +1,67 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.cargo;
+
+import com.google.gson.Gson;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Subset of the output of <code>cargo metadata --format-version 1 --no-deps</code>: the packages of a workspace and
+ * their dependencies. Field names follow the JSON output of Cargo.
+ */
+public record CargoMetadata(@Nullable List<Package> packages, @Nullable List<String> workspace_members, @Nullable String workspace_root) {
+
+  private static final Gson GSON = new Gson();
+
+  public record Package(String name, String id, String manifest_path, @Nullable List<Dependency> dependencies) {
+
+    public Path directory() {
+      return Path.of(manifest_path).toAbsolutePath().normalize().getParent();
+    }
+
+    public List<Dependency> dependencies() {
+      return Objects.requireNonNullElse(dependencies, List.of());
+    }
+  }
+
+  /**
+   * A dependency of a package. Only path dependencies, such as other members of the workspace, have a path.
+   */
+  public record Dependency(String name, @Nullable String path) {
+  }
+
+  public static CargoMetadata parse(String json) {
+    var metadata = GSON.fromJson(json, CargoMetadata.class);
+    if (metadata == null) {
+      throw new IllegalStateException("Empty Cargo metadata");
+    }
+    return metadata;
+  }
+
+  /**
+   * Returns the members of the workspace, in the order of the workspace members.
+   */
+  public List<Package> workspacePackages() {
+    var members = Objects.requireNonNullElse(workspace_members, List.<String>of());
+    return Objects.requireNonNullElse(packages, List.<Package>of()).stream()
+      .filter(cargoPackage -> members.contains(cargoPackage.id()))
+      .toList();
+  }
+}
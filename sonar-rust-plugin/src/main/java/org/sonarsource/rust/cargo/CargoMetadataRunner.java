@@ -0,0 +1,69 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.cargo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonarsource.rust.common.ProcessWrapper;
+
+/**
+ * Runs <code>cargo metadata</code> to describe the workspace of a manifest. Dependencies are not resolved, so it
+ * requires neither network access nor a build.
+ */
+public class CargoMetadataRunner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CargoMetadataRunner.class);
+
+  /** Provides a new process wrapper for each run, since the workspaces of Clippy runs are described concurrently. */
+  private final Supplier<ProcessWrapper> processWrappers;
+
+  public CargoMetadataRunner() {
+    this(ProcessWrapper::new);
+  }
+
+  CargoMetadataRunner(ProcessWrapper processWrapper) {
+    this(() -> processWrapper);
+  }
+
+  private CargoMetadataRunner(Supplier<ProcessWrapper> processWrappers) {
+    this.processWrappers = processWrappers;
+  }
+
+  public CargoMetadata run(Path workDir) {
+    var command = List.of("cargo", "metadata", "--format-version", "1", "--no-deps");
+    LOG.debug("Running Cargo: {}", command);
+    var output = new StringBuilder();
+    var processWrapper = processWrappers.get();
+    try {
+      processWrapper.start(command, workDir, line -> output.append(line).append('\n'), LOG::debug);
+      int exitValue = processWrapper.waitFor();
+      if (exitValue != 0) {
+        throw new IllegalStateException("Cargo metadata failed with exit code " + exitValue);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Cargo metadata was interrupted", e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to run Cargo metadata", e);
+    }
+    return CargoMetadata.parse(output.toString());
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.cargo;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Resolves the directories where Cargo writes its build output, e.g. the sources generated by build scripts in
+ * {@code OUT_DIR}. These sources are not part of the project and should not be analyzed.
+ */
+public class CargoTargetDirectories {
+
+  public static final String CARGO_TARGET_DIR_ENV = "CARGO_TARGET_DIR";
+
+  private CargoTargetDirectories() {
+    // utility class
+  }
+
+  /**
+   * Returns the {@code target} directory next to each manifest, along with the directory set by
+   * {@code CARGO_TARGET_DIR} if any (relative to the base directory of the project when it is not absolute).
+   */
+  public static Set<Path> resolve(List<File> manifests, @Nullable String cargoTargetDir, Path baseDir) {
+    Set<Path> targetDirectories = new LinkedHashSet<>();
+    for (File manifest : manifests) {
+      targetDirectories.add(manifest.getAbsoluteFile().toPath().getParent().resolve("target").normalize());
+    }
+    if (cargoTargetDir != null && !cargoTargetDir.isBlank()) {
+      targetDirectories.add(baseDir.resolve(cargoTargetDir).toAbsolutePath().normalize());
+    }
+    return targetDirectories;
+  }
+
+  public static boolean isInTargetDirectory(Path file, Set<Path> targetDirectories) {
+    Path path = file.toAbsolutePath().normalize();
+    return targetDirectories.stream().anyMatch(path::startsWith);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Lists and hashes the files read by Cargo and Clippy, from the disk.
+ */
+class CargoInputs {
+
+  static final String MANIFEST_NAME = "Cargo.toml";
+  /** Files of a workspace root and of its parent directories that are read by Cargo or Clippy. */
+  static final List<String> CONFIGURATION_FILES = List.of(MANIFEST_NAME, "Cargo.lock", "clippy.toml", ".clippy.toml",
+    "rust-toolchain", "rust-toolchain.toml", ".cargo/config", ".cargo/config.toml");
+  /** Cargo marks its target directories with this file. */
+  private static final String CACHE_DIRECTORY_TAG = "CACHEDIR.TAG";
+
+  private CargoInputs() {
+    // utility class
+  }
+
+  /**
+   * Returns the regular files under the root, except those of the excluded directories and of the directories whose
+   * content does not change the diagnostics, or changes with each analysis: Cargo target directories and hidden
+   * directories other than {@code .cargo}.
+   */
+  static List<Path> files(Path root, Predicate<Path> excludedDirectory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        return dir.equals(root) || !(isSkipped(dir) || excludedDirectory.test(dir)) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files;
+  }
+
+  private static boolean isSkipped(Path dir) {
+    String name = dir.getFileName().toString();
+    return (name.startsWith(".") && !name.equals(".cargo"))
+      || Files.exists(dir.resolve(CACHE_DIRECTORY_TAG))
+      || (name.equals("target") && Files.exists(dir.resolveSibling(MANIFEST_NAME)));
+  }
+
+  static void updateIfExists(MessageDigest digest, String name, Path file) throws IOException {
+    if (Files.isRegularFile(file)) {
+      update(digest, name);
+      updateWithContent(digest, file);
+    }
+  }
+
+  static void updateWithContent(MessageDigest digest, Path file) throws IOException {
+    try (InputStream stream = new DigestInputStream(Files.newInputStream(file), digest)) {
+      // The length of the content is hashed after it, since it is not known before
+      long length = stream.transferTo(OutputStream.nullOutputStream());
+      digest.update(ByteBuffer.allocate(Long.BYTES).putLong(length).array());
+    }
+  }
+
+  /**
+   * Hashes the length of the value before its bytes, so that consecutive values cannot be confused.
+   */
+  static void update(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  static void update(MessageDigest digest, int value) {
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+  }
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every implementation of the Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonarsource.rust.cargo.CargoMetadata;
+
+/**
+ * Finds the packages of a workspace that must be linted on a pull request: the packages containing changed files, and
+ * the packages depending on them, whose diagnostics may change as well.
+ */
+class ChangedPackages {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChangedPackages.class);
+
+  private ChangedPackages() {
+    // utility class
+  }
+
+  /**
+   * Returns the names of the packages to lint, or null when the changed files of the workspace cannot be mapped
+   * unambiguously to packages, in which case the whole workspace must be linted. Changed files outside the workspace
+   * root are ignored.
+   *
+   * @param changedFiles the indexed files changed by the pull request
+   * @param changedSources the names of the packages whose sources changed on the disk, including files which are not
+   * indexed and deleted files
+   */
+  @Nullable
+  static List<String> find(CargoMetadata metadata, List<InputFile> changedFiles, Set<String> changedSources) {
+    if (metadata.workspace_root() == null) {
+      return null;
+    }
+    var workspaceRoot = Path.of(metadata.workspace_root()).toAbsolutePath().normalize();
+    var packages = metadata.workspacePackages();
+    Set<CargoMetadata.Package> changedPackages = new LinkedHashSet<>();
+    for (InputFile changedFile : changedFiles) {
+      var path = changedFile.path().toAbsolutePath().normalize();
+      if (!path.startsWith(workspaceRoot)) {
+        continue;
+      }
+      var cargoPackage = packageOf(packages, path);
+      if (cargoPackage == null) {
+        LOG.debug("Changed file {} does not belong to any package of the workspace", changedFile);
+        return null;
+      }
+      changedPackages.add(cargoPackage);
+    }
+    packages.stream().filter(cargoPackage -> changedSources.contains(cargoPackage.name())).forEach(changedPackages::add);
+
+    // Reverse dependencies, transitively
+    var queue = new ArrayDeque<>(changedPackages);
+    while (!queue.isEmpty()) {
+      var changedDirectory = queue.poll().directory();
+      for (var cargoPackage : packages) {
+        boolean dependsOnChanged = cargoPackage.dependencies().stream()
+          .anyMatch(dependency -> dependency.path() != null && Path.of(dependency.path()).normalize().equals(changedDirectory));
+        if (dependsOnChanged && changedPackages.add(cargoPackage)) {
+          queue.add(cargoPackage);
+        }
+      }
+    }
+
+    return changedPackages.stream().map(CargoMetadata.Package::name).toList();
+  }
+
+  /**
+   * Returns the package with the deepest directory containing the file, since packages can be nested.
+   */
+  @Nullable
+  private static CargoMetadata.Package packageOf(List<CargoMetadata.Package> packages, Path file) {
+    CargoMetadata.Package result = null;
+    for (var cargoPackage : packages) {
+      var directory = cargoPackage.directory();
+      if (file.startsWith(directory) && (result == null || directory.startsWith(result.directory()))) {
+        result = cargoPackage;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
+import org.sonarsource.rust.common.LocalResultCache;
+import org.sonarsource.rust.plugin.AnalysisWarningsWrapper;
+import org.sonarsource.rust.plugin.RustLanguage;
+import org.sonarsource.rust.plugin.RustPlugin;
+import org.sonarsource.rust.plugin.RustRulesDefinition;
+import org.sonarsource.rust.plugin.Telemetry;
+
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_ALL_LINTS;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_CHANGED_PACKAGES_ONLY;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_OFFLINE;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_PARALLELISM;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_TARGET_DIR;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_TIMEOUT;
+
+/**
+ * Runs Clippy on the Cargo manifests of a project. The analysis only reads the sensor context, so that it can run in
+ * the background of another sensor: its effects (telemetry, analysis warnings, cache entries and fail-fast) are
+ * returned, to be applied by the thread of the sensor saving the diagnostics.
+ */
+class ClippyAnalysis {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClippyAnalysis.class);
+
+  @FunctionalInterface
+  interface Effect {
+    void apply(SensorContext context, AnalysisWarningsWrapper analysisWarnings);
+  }
+
+  private final ClippyPrerequisite clippyPrerequisite;
+  private final ClippyRunner clippy;
+  private final CargoMetadataRunner cargoMetadata;
+
+  ClippyAnalysis(ClippyPrerequisite clippyPrerequisite, ClippyRunner clippy, CargoMetadataRunner cargoMetadata) {
+    this.clippyPrerequisite = clippyPrerequisite;
+    this.clippy = clippy;
+    this.cargoMetadata = cargoMetadata;
+  }
+
+  /**
+   * Passes the diagnostics of Clippy to the consumer, from the calling thread, and returns the effects of the analysis
+   * in the order they must be applied.
+   */
+  List<Effect> run(SensorContext context, Consumer<ClippyDiagnostic> consumer) {
+    List<Effect> effects = new ArrayList<>();
+    boolean offlineMode = context.config().getBoolean(CLIPPY_OFFLINE).orElse(false);
+    if (offlineMode) {
+      LOG.debug("Clippy running in offline mode. Use `cargo fetch` to make sure all prerequisites are available.");
+    }
+
+    var manifests = CargoManifestProvider.getManifests(context);
+    if (manifests.isEmpty()) {
+      var msg = "No Cargo manifest found, skipping Clippy analysis";
+      LOG.warn(msg);
+      fail(effects, msg, new IllegalStateException(msg));
+      return effects;
+    }
+
+    var baseDir = context.fileSystem().baseDir().toPath();
+
+    effects.add((sensorContext, warnings) -> Telemetry.reportAnalyzerClippyUsage(sensorContext));
+
+    String clippyVersion;
+    try {
+      var versions = clippyPrerequisite.check(baseDir);
+      clippyVersion = versions.clippyVersion();
+      effects.add((sensorContext, warnings) -> Telemetry.reportClippyVersion(sensorContext, clippyVersion));
+    } catch (Exception e) {
+      LOG.error("Failed to check Clippy prerequisites", e);
+      fail(effects, "Failed to check Clippy prerequisites. See logs for details.", e);
+      return effects;
+    }
+
+    var activeLints = context.activeRules().findByRepository(RustLanguage.KEY).stream()
+      .map(rule -> RustRulesDefinition.ruleKeyToLintId(rule.ruleKey().rule()))
+      // Not all rules can be mapped to Clippy lints, e.g. S2260 (syntax errors)
+      .filter(Objects::nonNull)
+      .toList();
+    // The lints are part of the fingerprints of Cargo, which stay valid when the quality profile changes if the same lints
+    // are always run. The diagnostics of inactive rules are then dropped after the cache, so that it is shared as well.
+    boolean allLints = context.config().getBoolean(CLIPPY_ALL_LINTS).orElse(false);
+    var lints = allLints ? RustRulesDefinition.clippyLintIds() : activeLints;
+    var activeConsumer = allLints ? onlyActive(consumer, Set.copyOf(activeLints)) : consumer;
+
+    var manifestPaths = manifests.stream().map(File::toPath).toList();
+    effects.add((sensorContext, warnings) -> Telemetry.reportManifestInfo(sensorContext, manifestPaths));
+
+    // Clippy is not run again on manifests whose crate did not change
+    var cache = new ClippyCache(context, LocalResultCache.fromConfiguration(context), clippyVersion, lints);
+    effects.add((sensorContext, warnings) -> cache.flush());
+    // On pull requests, the issues of unchanged files are copied from the target branch by the scanner
+    boolean changedPackagesOnly = context.config().getBoolean(CLIPPY_CHANGED_PACKAGES_ONLY).orElse(false);
+    List<InputFile> changedFiles = changedPackagesOnly && context.canSkipUnchangedFiles() ? changedFiles(context) : null;
+    int parallelism = context.config().getInt(CLIPPY_PARALLELISM).orElse(1);
+    var timeout = context.config().getLong(CLIPPY_TIMEOUT).filter(seconds -> seconds > 0).map(Duration::ofSeconds).orElse(null);
+    var targetDir = context.config().get(CLIPPY_TARGET_DIR)
+      .filter(dir -> !dir.isBlank())
+      .map(dir -> targetDir(baseDir.resolve(dir), clippyVersion))
+      .orElse(null);
+    var timedOut = new ConcurrentLinkedQueue<Path>();
+    try {
+      var targets = ClippyTarget.resolve(manifestPaths, cargoMetadata);
+      var scope = changedFiles;
+      ClippyParallelRuns.TargetRun<ClippyTarget> targetRun = (target, diagnostics) -> {
+        var workspaceTargetDir = targetDir == null ? null : ClippyRunner.workspaceTargetDir(targetDir, baseDir, target.workDir());
+        var options = new ClippyRunner.Options(offlineMode, timeout, workspaceTargetDir);
+        try {
+          lint(target, changedPackagesOnly, scope, lints, options, cache, diagnostics);
+        } catch (ClippyTimeoutException e) {
+          // The diagnostics emitted before the timeout are saved, but not cached since they are incomplete
+          LOG.warn(e.getMessage());
+          timedOut.add(target.manifestPath());
+        }
+      };
+      if (parallelism > 1 && targets.size() > 1) {
+        LOG.debug("Running Clippy on {} targets, {} at a time", targets.size(), parallelism);
+        ClippyParallelRuns.run(targets, parallelism, targetRun, activeConsumer);
+      } else {
+        for (var target : targets) {
+          targetRun.run(target, activeConsumer);
+        }
+      }
+      cache.log();
+      timedOut.forEach(manifest -> effects.add((sensorContext, warnings) -> warnings.addUnique(("Clippy timed out on %s, only the "
+        + "issues found before the timeout are reported. Increase the value of %s to lint it completely.").formatted(manifest, CLIPPY_TIMEOUT))));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.error("Clippy was interrupted", e);
+      fail(effects, "Failed to run Clippy. See logs for details.", e);
+    } catch (Exception e) {
+      LOG.error("Failed to run Clippy", e);
+      fail(effects, "Failed to run Clippy. See logs for details.", e);
+    }
+    return effects;
+  }
+
+  /**
+   * Returns the subdirectory of the toolchain in the configured target directory. Artifacts built by another toolchain
+   * cannot be reused, so toolchains do not evict the artifacts of each other when the directory is shared. The runs
+   * use a subdirectory of it for each workspace, see {@link ClippyRunner#workspaceTargetDir}.
+   */
+  static Path targetDir(Path configuredDir, String clippyVersion) {
+    var toolchain = clippyVersion.trim().replaceAll("[^A-Za-z0-9._]+", "-").replaceAll("(^-)|(-$)", "");
+    return configuredDir.toAbsolutePath().normalize().resolve(toolchain);
+  }
+
+  private static Consumer<ClippyDiagnostic> onlyActive(Consumer<ClippyDiagnostic> consumer, Set<String> activeLints) {
+    return diagnostic -> {
+      if (activeLints.contains(diagnostic.lintId())) {
+        consumer.accept(diagnostic);
+      }
+    };
+  }
+
+  /**
+   * Lints a target, or only its packages affected by the changes of the pull request when changed files are given. Can
+   * be called concurrently for different targets.
+   */
+  private void lint(ClippyTarget target, boolean changedPackagesOnly, @Nullable List<InputFile> changedFiles, List<String> lints,
+    ClippyRunner.Options options, ClippyCache cache, Consumer<ClippyDiagnostic> consumer) {
+    var workDir = target.workDir();
+    var packages = target.packages();
+    boolean complete = true;
+    if (changedPackagesOnly) {
+      var changedPackages = changedPackages(target, changedFiles, cache);
+      if (changedPackages != null) {
+        packages = changedPackages;
+        complete = false;
+      }
+    }
+    if (!complete && packages.isEmpty()) {
+      LOG.debug("No changed package in the workspace of {}, skipping Clippy", target.manifestPath());
+      return;
+    }
+    var runPackages = packages;
+    ClippyCache.ClippyRun clippyRun = runPackages.isEmpty()
+      ? diagnostics -> clippy.run(workDir, lints, diagnostics, options)
+      : diagnostics -> clippy.run(workDir, runPackages, lints, diagnostics, options);
+    cache.run(target.manifestPath(), runPackages, consumer, clippyRun, complete);
+  }
+
+  private static List<InputFile> changedFiles(SensorContext context) {
+    var predicates = context.fileSystem().predicates();
+    return StreamSupport.stream(context.fileSystem().inputFiles(predicates.and(
+        predicates.hasLanguage(RustLanguage.KEY),
+        predicates.or(predicates.hasStatus(InputFile.Status.ADDED), predicates.hasStatus(InputFile.Status.CHANGED))))
+      .spliterator(), false)
+      .toList();
+  }
+
+  /**
+   * Returns the packages of the target affected by the changes of the pull request, or null if all the packages of the
+   * target must be linted. The snapshot of the workspace is stored by every analysis, so that the next pull requests
+   * find the changes that the indexed files do not tell: changes of manifests, lock files, lint configuration, files
+   * which are not indexed, and deleted files. When the changes cannot be determined, all the packages are linted.
+   */
+  @Nullable
+  private List<String> changedPackages(ClippyTarget target, @Nullable List<InputFile> changedFiles, ClippyCache cache) {
+    var workDir = target.workDir();
+    if (!cache.isEnabled()) {
+      if (changedFiles != null) {
+        LOG.info("Changes of {} cannot be determined without the analysis cache, linting all packages", workDir);
+      }
+      return null;
+    }
+    var metadata = target.metadata();
+    if (metadata == null) {
+      try {
+        metadata = cargoMetadata.run(workDir);
+      } catch (Exception e) {
+        LOG.warn("Failed to read the Cargo metadata of {}, linting all packages: {}", workDir, e.getMessage());
+        return null;
+      }
+    }
+
+    WorkspaceSnapshot snapshot;
+    try {
+      snapshot = WorkspaceSnapshot.of(metadata);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the files of the workspace of {}, linting all packages: {}", workDir, e.getMessage());
+      return null;
+    }
+    var workspaceRoot = Path.of(metadata.workspace_root());
+    var previousSnapshot = cache.previousSnapshot(workspaceRoot);
+    cache.writeSnapshot(workspaceRoot, snapshot);
+    if (changedFiles == null) {
+      return null;
+    }
+    if (previousSnapshot == null) {
+      LOG.info("No snapshot of the workspace of {} in the analysis cache, linting all packages", workDir);
+      return null;
+    }
+    var changedSources = snapshot.changedPackages(previousSnapshot);
+    if (changedSources == null) {
+      LOG.info("Cargo or Clippy configuration of {} changed, linting all packages", workDir);
+      return null;
+    }
+
+    var packages = ChangedPackages.find(metadata, changedFiles, changedSources);
+    if (packages != null && !target.packages().isEmpty()) {
+      // Only the packages of the manifests to lint
+      packages = packages.stream().filter(target.packages()::contains).toList();
+    }
+    if (packages == null) {
+      LOG.info("Changed files of {} cannot be mapped to packages, linting all packages", workDir);
+    } else if (!packages.isEmpty()) {
+      LOG.info("Linting changed packages of {} and their dependents: {}", workDir, String.join(", ", packages));
+    }
+    return packages;
+  }
+
+  private static void fail(List<Effect> effects, String warning, Exception ex) {
+    effects.add((sensorContext, warnings) -> {
+      warnings.addUnique(warning);
+      failFastCheck(sensorContext, ex);
+    });
+  }
+
+  static void failFastCheck(SensorContext sensorContext, Exception ex) {
+    if (sensorContext.config().getBoolean(RustPlugin.FAIL_FAST_PROPERTY).orElse(false)) {
+      throw new IllegalStateException("Analysis failed", ex);
+    }
+  }
+}
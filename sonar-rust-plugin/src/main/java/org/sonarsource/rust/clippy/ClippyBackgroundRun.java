@@ -0,0 +1,121 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.scanner.ScannerSide;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
+
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_ANALYSIS_ENABLED;
+import static org.sonarsource.rust.clippy.ClippySensor.CLIPPY_BACKGROUND;
+
+/**
+ * Runs Clippy in the background of the Rust sensor, when enabled by {@value ClippySensor#CLIPPY_BACKGROUND}. Building
+ * the crates mostly waits for the compiler, while the Rust sensor waits for the analyzer, so both run at the same time.
+ * The diagnostics are buffered until the Clippy sensor joins the run and saves them.
+ * <p>
+ * Runs are tracked by base directory, since the Rust and the Clippy sensors of a module have distinct contexts.
+ */
+@ScannerSide
+public class ClippyBackgroundRun {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClippyBackgroundRun.class);
+
+  private record Run(FutureTask<List<ClippyAnalysis.Effect>> task, ClippyDiagnosticSpool spool) {
+  }
+
+  private final ClippyAnalysis analysis;
+  private final Map<Path, Run> runs = new ConcurrentHashMap<>();
+  /** Modules whose Clippy sensor already ran, so that a run started after it would never be joined. */
+  private final Set<Path> joined = ConcurrentHashMap.newKeySet();
+
+  public ClippyBackgroundRun() {
+    this(new ClippyAnalysis(new ClippyPrerequisite(), new ClippyRunner(), new CargoMetadataRunner()));
+  }
+
+  ClippyBackgroundRun(ClippyAnalysis analysis) {
+    this.analysis = analysis;
+  }
+
+  /**
+   * Starts Clippy on the module of the context, if running it in the background is enabled.
+   */
+  public void start(SensorContext context) {
+    var config = context.config();
+    if (!config.getBoolean(CLIPPY_ANALYSIS_ENABLED).orElse(true) || !config.getBoolean(CLIPPY_BACKGROUND).orElse(false)) {
+      return;
+    }
+    var module = module(context);
+    if (joined.contains(module) || runs.containsKey(module)) {
+      return;
+    }
+    var spool = new ClippyDiagnosticSpool(context.fileSystem().workDir().toPath());
+    var task = new FutureTask<>(() -> analysis.run(context, spool));
+    runs.put(module, new Run(task, spool));
+    var thread = new Thread(task, "clippy-background");
+    thread.setDaemon(true);
+    thread.start();
+    LOG.info("Clippy started in the background");
+  }
+
+  /**
+   * Waits for the background run of the module, passes its diagnostics to the consumer and returns the effects of the
+   * analysis. Returns null when no run was started, in which case Clippy must be run by the caller.
+   */
+  @Nullable
+  List<ClippyAnalysis.Effect> join(SensorContext context, Consumer<ClippyDiagnostic> consumer) throws InterruptedException {
+    var module = module(context);
+    joined.add(module);
+    var run = runs.remove(module);
+    if (run == null) {
+      return null;
+    }
+    LOG.debug("Waiting for Clippy to finish in the background");
+    List<ClippyAnalysis.Effect> effects;
+    try {
+      effects = run.task().get();
+    } catch (InterruptedException e) {
+      // Stops Clippy, the buffered diagnostics are removed with the working directory
+      run.task().cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Clippy failed in the background", e.getCause());
+    }
+    try (var spool = run.spool()) {
+      spool.replay(consumer);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read the Clippy diagnostics buffered on disk", e);
+    }
+    return effects;
+  }
+
+  private static Path module(SensorContext context) {
+    return context.fileSystem().baseDir().toPath().toAbsolutePath().normalize();
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonarsource.rust.common.LocalResultCache;
+
+import static org.sonarsource.rust.clippy.CargoInputs.sha256;
+import static org.sonarsource.rust.clippy.CargoInputs.update;
+import static org.sonarsource.rust.clippy.CargoInputs.updateIfExists;
+import static org.sonarsource.rust.clippy.CargoInputs.updateWithContent;
+
+/**
+ * Reuses the Clippy diagnostics of a manifest between analyses, through the analysis cache of SonarQube and through the
+ * local cache, when they are enabled.
+ * <p>
+ * Entries are addressed by what changes the diagnostics of a manifest: the Clippy version, the active lints, the linted
+ * packages, and the files Cargo and Clippy read. These files are read from the disk, whether they are indexed or not:
+ * <ul>
+ *   <li>all the files of the directory of the manifest, e.g. sources, lock file, build scripts and their inputs, lint
+ *   configuration, except the Cargo target directories, the local cache and the hidden directories other than
+ *   {@code .cargo},</li>
+ *   <li>all the files of the path dependencies outside of this directory, transitively,</li>
+ *   <li>the manifests, lock files, Cargo configuration, toolchain files and Clippy configuration of the parent
+ *   directories, and the Cargo configuration of {@code CARGO_HOME}.</li>
+ * </ul>
+ * Other inputs, such as environment variables read by build scripts or the registry dependencies when there is no lock
+ * file, are not covered. Diagnostics are stored as Cargo messages, with the path of their manifest relative to the base
+ * directory, so that they remain valid when the project is checked out elsewhere.
+ * <p>
+ * The analysis cache also holds the {@link WorkspaceSnapshot} of each workspace linted with
+ * {@link ClippySensor#CLIPPY_CHANGED_PACKAGES_ONLY}, to find the packages changed by a pull request.
+ */
+class ClippyCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClippyCache.class);
+
+  static final String KEY_PREFIX = "rust:clippy:";
+  /** Must be incremented whenever the content of entries or the inputs of keys change. */
+  private static final int FORMAT_VERSION = 2;
+
+  /** Dependencies, patches and targets with a path, whose value is a basic or literal string of TOML. */
+  private static final Pattern PATH_ENTRY = Pattern.compile("\\bpath\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+  @FunctionalInterface
+  interface ClippyRun {
+    void run(Consumer<ClippyDiagnostic> consumer);
+  }
+
+  private final SensorContext context;
+  private final boolean enabled;
+  @Nullable
+  private final LocalResultCache localCache;
+  private final Path baseDir;
+  private final String configurationHash;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  /** Entries of the next analysis cache, which is only written by {@link #flush()}. */
+  private final Map<String, byte[]> pendingWrites = new LinkedHashMap<>();
+
+  ClippyCache(SensorContext context, @Nullable LocalResultCache localCache, String clippyVersion, List<String> lints) {
+    this.context = context;
+    this.enabled = context.isCacheEnabled();
+    this.localCache = localCache;
+    this.baseDir = context.fileSystem().baseDir().toPath().toAbsolutePath().normalize();
+    this.configurationHash = configurationHash(clippyVersion, lints);
+  }
+
+  /**
+   * Can be called concurrently for different manifests.
+   * <p>
+   * Replays the cached diagnostics of the manifest if any, otherwise runs Clippy and caches its diagnostics. Diagnostics
+   * are only cached when Clippy succeeds, and when the run is complete, i.e. not limited to some packages.
+   */
+  void run(Path manifestPath, List<String> packages, Consumer<ClippyDiagnostic> consumer, ClippyRun clippyRun, boolean complete) {
+    if (!enabled && localCache == null) {
+      clippyRun.run(consumer);
+      return;
+    }
+
+    String hash;
+    try {
+      hash = inputsHash(manifestPath, packages);
+    } catch (IOException e) {
+      LOG.debug("Failed to compute the Clippy cache key of {}: {}", manifestPath, e.getMessage());
+      clippyRun.run(consumer);
+      return;
+    }
+
+    String key = KEY_PREFIX + hash;
+    byte[] data = read(key, hash);
+    List<ClippyDiagnostic> cached = data != null ? deserialize(key, data) : null;
+    if (cached != null) {
+      LOG.debug("Reusing cached Clippy diagnostics of {}", manifestPath);
+      hits.incrementAndGet();
+      cached.forEach(consumer);
+      write(key, hash, data);
+      return;
+    }
+
+    misses.incrementAndGet();
+    if (!complete) {
+      clippyRun.run(consumer);
+      return;
+    }
+    List<ClippyDiagnostic> diagnostics = new ArrayList<>();
+    clippyRun.run(diagnostic -> {
+      diagnostics.add(diagnostic);
+      consumer.accept(diagnostic);
+    });
+    write(key, hash, serialize(diagnostics));
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the snapshot of the workspace stored by the previous analysis, or null if there is none.
+   */
+  @Nullable
+  synchronized WorkspaceSnapshot previousSnapshot(Path workspaceRoot) {
+    String key = snapshotKey(workspaceRoot);
+    if (!enabled || !context.previousCache().contains(key)) {
+      return null;
+    }
+    try (InputStream stream = context.previousCache().read(key)) {
+      return WorkspaceSnapshot.deserialize(stream.readAllBytes());
+    } catch (IOException e) {
+      LOG.debug("Failed to read the cached snapshot {}: {}", key, e.getMessage());
+      return null;
+    }
+  }
+
+  synchronized void writeSnapshot(Path workspaceRoot, WorkspaceSnapshot snapshot) {
+    if (enabled) {
+      pendingWrites.put(snapshotKey(workspaceRoot), snapshot.serialize());
+    }
+  }
+
+  private String snapshotKey(Path workspaceRoot) {
+    return KEY_PREFIX + "workspace:" + relativePath(workspaceRoot);
+  }
+
+  void log() {
+    if (enabled || localCache != null) {
+      LOG.info("Clippy diagnostics: {} manifest(s) linted, {} manifest(s) reused from the cache", misses, hits);
+    }
+  }
+
+  @Nullable
+  private synchronized byte[] read(String key, String hash) {
+    if (enabled && context.previousCache().contains(key)) {
+      try (InputStream stream = context.previousCache().read(key)) {
+        return stream.readAllBytes();
+      } catch (IOException e) {
+        LOG.debug("Failed to read the cached Clippy diagnostics {}: {}", key, e.getMessage());
+      }
+    }
+    return localCache != null ? localCache.read(hash) : null;
+  }
+
+  /**
+   * Writes the entries of the next analysis cache. Must be called by the sensor thread once Clippy runs are finished,
+   * since the next cache is not expected to be written concurrently with other sensors.
+   */
+  synchronized void flush() {
+    pendingWrites.forEach(context.nextCache()::write);
+    pendingWrites.clear();
+  }
+
+  private synchronized void write(String key, String hash, byte[] data) {
+    if (enabled) {
+      pendingWrites.put(key, data);
+    }
+    if (localCache != null) {
+      localCache.write(hash, data);
+    }
+  }
+
+  private byte[] serialize(List<ClippyDiagnostic> diagnostics) {
+    var json = new StringBuilder();
+    for (ClippyDiagnostic diagnostic : diagnostics) {
+      var manifestPath = Path.of(diagnostic.manifest_path()).toAbsolutePath().normalize();
+      json.append(ClippyUtils.toJson(new ClippyDiagnostic(baseDir.relativize(manifestPath).toString(), diagnostic.message())))
+        .append('\n');
+    }
+    return json.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Nullable
+  private List<ClippyDiagnostic> deserialize(String key, byte[] data) {
+    var lines = new String(data, StandardCharsets.UTF_8).lines();
+    try {
+      return ClippyUtils.parse(lines)
+        .map(diagnostic -> new ClippyDiagnostic(baseDir.resolve(diagnostic.manifest_path()).normalize().toString(), diagnostic.message()))
+        .toList();
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to parse the cached Clippy diagnostics {}: {}", key, e.getMessage());
+      return null;
+    }
+  }
+
+  private String inputsHash(Path manifestPath, List<String> packages) throws IOException {
+    MessageDigest digest = sha256();
+    update(digest, FORMAT_VERSION);
+    update(digest, configurationHash);
+    update(digest, packages.size());
+    for (String cargoPackage : packages) {
+      update(digest, cargoPackage);
+    }
+
+    var crateDir = manifestPath.toAbsolutePath().normalize().getParent();
+    for (var file : crateFiles(crateDir).entrySet()) {
+      update(digest, file.getKey());
+      updateWithContent(digest, file.getValue());
+    }
+    // Configuration of the workspace, of Cargo and of Clippy looked up in the parent directories
+    for (var dir = crateDir.getParent(); dir != null; dir = dir.getParent()) {
+      for (String name : CargoInputs.CONFIGURATION_FILES) {
+        updateIfExists(digest, relativePath(dir.resolve(name)), dir.resolve(name));
+      }
+    }
+    var cargoHome = cargoHome();
+    if (cargoHome != null) {
+      // Named independently of the location of the Cargo home, which differs between machines
+      updateIfExists(digest, "$CARGO_HOME/config", cargoHome.resolve("config"));
+      updateIfExists(digest, "$CARGO_HOME/config.toml", cargoHome.resolve("config.toml"));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Returns the files of the crate directory and of the path dependencies outside of it, by path relative to the base
+   * directory, in a stable order.
+   */
+  private Map<String, Path> crateFiles(Path crateDir) throws IOException {
+    Map<String, Path> files = new TreeMap<>();
+    List<Path> roots = new ArrayList<>();
+    var queue = new ArrayDeque<Path>();
+    queue.add(crateDir);
+    while (!queue.isEmpty()) {
+      var root = queue.poll();
+      if (roots.stream().anyMatch(root::startsWith)) {
+        continue;
+      }
+      roots.add(root);
+      for (Path file : filesOf(root)) {
+        files.put(relativePath(file), file);
+        if (file.getFileName().toString().equals(CargoInputs.MANIFEST_NAME)) {
+          queue.addAll(pathDependencies(file));
+        }
+      }
+    }
+    return files;
+  }
+
+  private List<Path> filesOf(Path root) throws IOException {
+    var localCacheDir = localCache != null ? localCache.directory().toAbsolutePath().normalize() : null;
+    return CargoInputs.files(root, dir -> dir.equals(localCacheDir));
+  }
+
+  /**
+   * Returns the directories of the crates referenced by a path in a manifest, e.g. {@code core = { path = "../core" }}.
+   * Paths of targets, which are files, are ignored.
+   */
+  private static List<Path> pathDependencies(Path manifest) throws IOException {
+    List<Path> dependencies = new ArrayList<>();
+    var matcher = PATH_ENTRY.matcher(Files.readString(manifest, StandardCharsets.UTF_8));
+    while (matcher.find()) {
+      String path = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+      var dir = manifest.getParent().resolve(path).normalize();
+      if (Files.isRegularFile(dir.resolve(CargoInputs.MANIFEST_NAME))) {
+        dependencies.add(dir);
+      }
+    }
+    return dependencies;
+  }
+
+  /**
+   * Paths are hashed relatively to the base directory, so that keys do not depend on the location of the checkout.
+   */
+  private String relativePath(Path path) {
+    return baseDir.relativize(path.toAbsolutePath().normalize()).toString().replace('\\', '/');
+  }
+
+  @Nullable
+  private static Path cargoHome() {
+    String cargoHome = System.getenv("CARGO_HOME");
+    if (cargoHome != null && !cargoHome.isBlank()) {
+      return Path.of(cargoHome);
+    }
+    String userHome = System.getProperty("user.home");
+    return userHome != null ? Path.of(userHome, ".cargo") : null;
+  }
+
+  private static String configurationHash(String clippyVersion, List<String> lints) {
+    MessageDigest digest = sha256();
+    update(digest, clippyVersion);
+    for (String lint : lints.stream().sorted().toList()) {
+      update(digest, lint);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
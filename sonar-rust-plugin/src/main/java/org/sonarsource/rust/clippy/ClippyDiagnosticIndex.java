@@ -0,0 +1,135 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.nio.charset.StandardCharsets;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Index of the diagnostics which were saved, used to drop the duplicates. Cargo emits the same diagnostic once per target
+ * of a crate (lib, bins, tests, examples...), and several reports can contain the same diagnostic.
+ * <p>
+ * A diagnostic is identified by its lint, file and first span. Only a 64-bit hash of them is stored in an open-addressing
+ * set of primitive longs, which keeps the index compact for millions of diagnostics. A collision of hashes would drop a
+ * distinct diagnostic, but its probability is negligible for the number of diagnostics of a project.
+ */
+class ClippyDiagnosticIndex {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private long[] table = new long[INITIAL_CAPACITY];
+  private int size;
+  /** Zero marks empty slots of the table, so that key is tracked separately. */
+  private boolean containsZero;
+
+  /**
+   * Returns the key of a diagnostic, the diagnostic must have a span.
+   */
+  static long key(ClippyDiagnostic diagnostic, InputFile inputFile) {
+    var span = diagnostic.message().spans().get(0);
+    long hash = FNV_OFFSET_BASIS;
+    hash = hash(hash, diagnostic.lintId());
+    hash = hash(hash, inputFile.key());
+    hash = hash(hash, span.line_start());
+    hash = hash(hash, span.column_start());
+    hash = hash(hash, span.line_end());
+    hash = hash(hash, span.column_end());
+    return hash;
+  }
+
+  boolean contains(long key) {
+    if (key == 0) {
+      return containsZero;
+    }
+    int mask = table.length - 1;
+    int slot = (int) mix(key) & mask;
+    while (table[slot] != 0) {
+      if (table[slot] == key) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * Adds the key of a diagnostic once its issue is saved, so that a diagnostic which failed to be saved does not hide
+   * its duplicates.
+   */
+  void add(long key) {
+    if (key == 0) {
+      containsZero = true;
+      return;
+    }
+    int mask = table.length - 1;
+    int slot = (int) mix(key) & mask;
+    while (table[slot] != 0) {
+      if (table[slot] == key) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = key;
+    size++;
+    // The load factor is kept below one half, so that probe sequences stay short
+    if (size * 2 > table.length) {
+      grow();
+    }
+  }
+
+  private void grow() {
+    var previous = table;
+    table = new long[previous.length * 2];
+    int mask = table.length - 1;
+    for (long hash : previous) {
+      if (hash != 0) {
+        int slot = (int) mix(hash) & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+      }
+    }
+  }
+
+  private static long hash(long hash, String value) {
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+    }
+    // Separates consecutive strings, so that ("ab", "c") and ("a", "bc") have different hashes
+    return (hash ^ 0xff) * FNV_PRIME;
+  }
+
+  private static long hash(long hash, int value) {
+    for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+      hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Spreads the bits of a hash, since the slot only uses its lowest bits.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Buffers the diagnostics of a Clippy run until they can be saved. The first diagnostics are kept in memory, the next
+ * ones are spilled to a file of the working directory, so that a large run does not exhaust the memory of the scanner.
+ * <p>
+ * Diagnostics are only accepted by the thread running Clippy, and replayed once the run is finished.
+ */
+class ClippyDiagnosticSpool implements Consumer<ClippyDiagnostic>, AutoCloseable {
+
+  /** Number of diagnostics kept in memory before spilling to disk. */
+  static final int MEMORY_CAPACITY = 10_000;
+
+  private final Path workDir;
+  private final int memoryCapacity;
+  private final List<ClippyDiagnostic> diagnostics = new ArrayList<>();
+  @Nullable
+  private Path spillFile;
+  @Nullable
+  private BufferedWriter spillWriter;
+
+  ClippyDiagnosticSpool(Path workDir) {
+    this(workDir, MEMORY_CAPACITY);
+  }
+
+  ClippyDiagnosticSpool(Path workDir, int memoryCapacity) {
+    this.workDir = workDir;
+    this.memoryCapacity = memoryCapacity;
+  }
+
+  @Override
+  public void accept(ClippyDiagnostic diagnostic) {
+    if (spillWriter == null && diagnostics.size() < memoryCapacity) {
+      diagnostics.add(diagnostic);
+      return;
+    }
+    try {
+      if (spillWriter == null) {
+        Files.createDirectories(workDir);
+        spillFile = Files.createTempFile(workDir, "clippy-", ".json");
+        spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+      }
+      spillWriter.write(ClippyUtils.toJson(diagnostic));
+      spillWriter.newLine();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to spill Clippy diagnostics to disk", e);
+    }
+  }
+
+  /**
+   * Passes the buffered diagnostics to the consumer, in the order they were accepted.
+   */
+  void replay(Consumer<ClippyDiagnostic> consumer) throws IOException {
+    diagnostics.forEach(consumer);
+    if (spillWriter != null) {
+      spillWriter.close();
+      try (var lines = Files.lines(spillFile, StandardCharsets.UTF_8)) {
+        ClippyUtils.parse(lines).forEach(consumer);
+      }
+    }
+  }
+
+  /**
+   * Deletes the spill file, if any.
+   */
+  @Override
+  public void close() throws IOException {
+    diagnostics.clear();
+    if (spillWriter != null) {
+      spillWriter.close();
+      Files.deleteIfExists(spillFile);
+      spillWriter = null;
+      spillFile = null;
+    }
+  }
+}
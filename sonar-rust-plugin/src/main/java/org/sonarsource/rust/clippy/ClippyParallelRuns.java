@@ -0,0 +1,115 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Runs Clippy on independent targets concurrently. Each target is a distinct workspace with its own target directory,
+ * including when a target directory is configured, so runs do not wait for each other on the lock of Cargo. Diagnostics are funneled through a bounded queue to the calling
+ * thread, which is the only one saving issues to the sensor context.
+ */
+class ClippyParallelRuns {
+
+  /** Maximum number of diagnostics waiting to be saved, Clippy runs wait when it is reached. */
+  static final int QUEUE_CAPACITY = 1024;
+
+  @FunctionalInterface
+  interface TargetRun<T> {
+    void run(T target, Consumer<ClippyDiagnostic> consumer);
+  }
+
+  private ClippyParallelRuns() {
+    // utility class
+  }
+
+  /**
+   * Runs all targets, at most {@code parallelism} at a time, and passes their diagnostics to the saver from the calling
+   * thread. When a run fails, the targets which are not started yet are skipped, and the first failure is rethrown once
+   * the running ones have finished, as it would have been by a sequential loop.
+   */
+  static <T> void run(List<T> targets, int parallelism, TargetRun<T> targetRun, Consumer<ClippyDiagnostic> saver)
+    throws InterruptedException {
+    BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    var failure = new AtomicReference<RuntimeException>();
+    var threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, targets.size()), r -> {
+      Thread thread = new Thread(r);
+      thread.setName("clippy-runner-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      for (T target : targets) {
+        executor.execute(() -> runTarget(target, targetRun, queue, failure));
+      }
+      int running = targets.size();
+      while (running > 0) {
+        var item = queue.take();
+        if (item.diagnostic() == null) {
+          running--;
+        } else {
+          saver.accept(item.diagnostic());
+        }
+      }
+    } finally {
+      // Interrupts the runs when the calling thread stopped early
+      executor.shutdownNow();
+    }
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  private static <T> void runTarget(T target, TargetRun<T> targetRun, BlockingQueue<Item> queue,
+    AtomicReference<RuntimeException> failure) {
+    try {
+      if (failure.get() == null) {
+        targetRun.run(target, diagnostic -> put(queue, new Item(diagnostic)));
+      }
+    } catch (RuntimeException e) {
+      failure.compareAndSet(null, e);
+    } finally {
+      put(queue, Item.DONE);
+    }
+  }
+
+  private static void put(BlockingQueue<Item> queue, Item item) {
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Clippy was interrupted", e);
+    }
+  }
+
+  /**
+   * A diagnostic to save, or the end of a run when there is none.
+   */
+  private record Item(@Nullable ClippyDiagnostic diagnostic) {
+    static final Item DONE = new Item(null);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parses large Clippy reports on several threads. Since reports contain one JSON object per line, the memory-mapped
+ * report is split into chunks at line boundaries, which are parsed concurrently. The diagnostics of the chunks are passed
+ * to the consumer in the order of the report, from the calling thread, so that issues are created deterministically.
+ */
+class ClippyReportParser {
+
+  /** Reports smaller than a chunk are parsed on the calling thread. */
+  static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private static final int LINE_BOUNDARY_BUFFER_SIZE = 8192;
+
+  private ClippyReportParser() {
+    // Utility class
+  }
+
+  static void parse(File reportFile, Consumer<ClippyDiagnostic> consumer) {
+    parse(reportFile, consumer, CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  static void parse(File reportFile, Consumer<ClippyDiagnostic> consumer, int chunkSize, int parallelism) {
+    if (parallelism <= 1 || reportFile.length() <= chunkSize) {
+      ClippyUtils.parse(reportFile, consumer);
+      return;
+    }
+
+    var pool = new ForkJoinPool(parallelism);
+    try (var channel = FileChannel.open(reportFile.toPath(), StandardOpenOption.READ)) {
+      // Only a few chunks are parsed ahead of the consumer, which bounds the memory used by their diagnostics
+      var pending = new ArrayDeque<Future<List<ClippyDiagnostic>>>();
+      long size = channel.size();
+      long start = 0;
+      while (start < size || !pending.isEmpty()) {
+        while (start < size && pending.size() <= parallelism) {
+          long end = lineBoundary(channel, Math.min(start + chunkSize, size), size);
+          var chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          pending.add(pool.submit(() -> parseChunk(chunk)));
+          start = end;
+        }
+        pending.remove().get().forEach(consumer);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read Clippy report: " + reportFile, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing Clippy report: " + reportFile, e);
+    } catch (ExecutionException e) {
+      throw chunkFailure(reportFile, e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the position following the first end of line at or after the given position, or the size of the file if there
+   * is none.
+   */
+  private static long lineBoundary(FileChannel channel, long position, long size) throws IOException {
+    var buffer = ByteBuffer.allocate(LINE_BOUNDARY_BUFFER_SIZE);
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private static List<ClippyDiagnostic> parseChunk(ByteBuffer chunk) {
+    CharBuffer text;
+    try {
+      // Malformed input is reported, as it is when the report is read on a single thread
+      text = StandardCharsets.UTF_8.newDecoder().decode(chunk);
+    } catch (CharacterCodingException e) {
+      throw new UncheckedIOException(e);
+    }
+    return ClippyUtils.parse(text.toString().lines()).toList();
+  }
+
+  private static IllegalStateException chunkFailure(File reportFile, Throwable cause) {
+    if (cause instanceof UncheckedIOException uncheckedIOException) {
+      return new IllegalStateException("Failed to read Clippy report: " + reportFile, uncheckedIOException.getCause());
+    }
+    return new IllegalStateException("Failed to parse Clippy report: " + reportFile, cause);
+  }
+}
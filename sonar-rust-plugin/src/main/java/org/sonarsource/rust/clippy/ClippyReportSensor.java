@@ -20,7 +20,6 @@ import org.sonarsource.rust.common.ReportProvider;
 import org.sonarsource.rust.plugin.AnalysisWarningsWrapper;
 import org.sonarsource.rust.plugin.RustLanguage;
 import org.sonarsource.rust.plugin.Telemetry;
-import java.util.ArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.sensor.Sensor;
@@ -28,6 +27,7 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 
 import static org.sonarsource.rust.clippy.ClippyUtils.diagnosticToLocation;
+import static org.sonarsource.rust.clippy.ClippyUtils.resolveInputFile;
 
 public class ClippyReportSensor implements Sensor {
 
@@ -69,34 +69,46 @@ public class ClippyReportSensor implements Sensor {
       LOG.debug("Found {} Clippy report files", reportFiles.size());
     }
 
-    var diagnostics = new ArrayList<ClippyDiagnostic>();
+    // Several reports can contain the same diagnostics
+    var index = new ClippyDiagnosticIndex();
     for (var reportFile : reportFiles) {
+      var counters = new ImportCounters();
       try {
         LOG.debug("Parsing Clippy report: {}", reportFile);
-        var reportDiagnostics = ClippyUtils.parse(reportFile);
-        diagnostics.addAll(reportDiagnostics);
+        // Diagnostics are saved while the report is read, so that large reports are imported with constant memory
+        ClippyReportParser.parse(reportFile, diagnostic -> importDiagnostic(context, diagnostic, index, counters));
         LOG.debug("Successfully parsed Clippy report");
       } catch (Exception e) {
         LOG.error("Failed to parse Clippy report", e);
         analysisWarnings.addUnique(INVALID_REPORT_WARNING);
       }
+      LOG.info("Clippy report {}: {} diagnostic(s) imported, {} duplicate(s), {} with an unknown rule, {} on an unknown file, "
+        + "{} failed", reportFile, counters.imported, counters.duplicates, counters.unknownRule, counters.unknownFile, counters.failed);
     }
 
-    for (var diagnostic : diagnostics) {
-      try {
-        LOG.debug("Saving Clippy diagnostic: {}", diagnostic);
-        saveIssue(context, diagnostic);
+    LOG.debug("Processed Clippy reports");
+  }
+
+  private void importDiagnostic(SensorContext context, ClippyDiagnostic diagnostic, ClippyDiagnosticIndex index,
+    ImportCounters counters) {
+    try {
+      LOG.debug("Saving Clippy diagnostic: {}", diagnostic);
+      if (saveIssue(context, diagnostic, index)) {
+        counters.imported++;
         LOG.debug("Successfully saved Clippy diagnostic");
-      } catch (ClippyImportException e) {
-        LOG.warn("Failed to save Clippy diagnostic. {}", e.getMessage());
-        addWarning(e.category());
-      } catch (Exception e) {
-        LOG.warn("Failed to save Clippy diagnostic. {}", e.getMessage(), e);
-        analysisWarnings.addUnique(GENERIC_IMPORT_WARNING);
+      } else {
+        counters.duplicates++;
+        LOG.debug("Ignoring duplicate Clippy diagnostic");
       }
+    } catch (ClippyImportException e) {
+      LOG.warn("Failed to save Clippy diagnostic. {}", e.getMessage());
+      counters.count(e.category());
+      addWarning(e.category());
+    } catch (Exception e) {
+      LOG.warn("Failed to save Clippy diagnostic. {}", e.getMessage(), e);
+      counters.failed++;
+      analysisWarnings.addUnique(GENERIC_IMPORT_WARNING);
     }
-
-    LOG.debug("Processed Clippy reports");
   }
 
   private void addWarning(ClippyImportException.Category category) {
@@ -112,14 +124,26 @@ public class ClippyReportSensor implements Sensor {
     }
   }
 
+  /**
+   * Returns false when the same diagnostic was already saved.
+   */
   @SuppressWarnings("deprecation")
-  private static void saveIssue(SensorContext context, ClippyDiagnostic diagnostic) {
+  private static boolean saveIssue(SensorContext context, ClippyDiagnostic diagnostic, ClippyDiagnosticIndex index) {
     var ruleId = diagnostic.lintId().substring("clippy::".length());
     var loader = ClippyRulesDefinition.loader();
     if (!loader.ruleKeys().contains(ruleId)) {
       throw ClippyImportException.unknownRule(ruleId);
     }
 
+    var inputFile = resolveInputFile(diagnostic, context);
+    if (inputFile == null) {
+      throw ClippyImportException.unknownFile(diagnostic.message().spans().get(0).file_name());
+    }
+    long key = ClippyDiagnosticIndex.key(diagnostic, inputFile);
+    if (index.contains(key)) {
+      return false;
+    }
+
     var issue = context.newExternalIssue()
       .engineId(ClippyRulesDefinition.LINTER_KEY)
       .ruleId(ruleId)
@@ -127,14 +151,31 @@ public class ClippyReportSensor implements Sensor {
       .severity(loader.ruleSeverity(ruleId))
       .remediationEffortMinutes(loader.ruleConstantDebtMinutes(ruleId));
 
-    var location = diagnosticToLocation(issue.newLocation(), diagnostic, context);
-    if (location == null) {
-      throw ClippyImportException.unknownFile(diagnostic.message().spans().get(0).file_name());
-    }
-
+    var location = diagnosticToLocation(issue.newLocation(), diagnostic, inputFile);
     location.message(diagnostic.message().message());
 
     issue.at(location);
     issue.save();
+    index.add(key);
+    return true;
+  }
+
+  /**
+   * Outcome of the import of the diagnostics of a report.
+   */
+  private static class ImportCounters {
+    private int imported;
+    private int duplicates;
+    private int unknownRule;
+    private int unknownFile;
+    private int failed;
+
+    void count(ClippyImportException.Category category) {
+      switch (category) {
+        case UNKNOWN_RULE -> unknownRule++;
+        case UNKNOWN_FILE -> unknownFile++;
+        case INVALID_DIAGNOSTIC -> failed++;
+      }
+    }
   }
 }
@@ -16,13 +16,19 @@
  */
 package org.sonarsource.rust.clippy;
 
+import org.sonarsource.rust.cargo.CargoTargetDirectories;
 import org.sonarsource.rust.common.ProcessWrapper;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,28 +36,69 @@ public class ClippyRunner {
 
   private static final Logger LOG = LoggerFactory.getLogger(ClippyRunner.class);
 
-  private final ProcessWrapper processWrapper;
+  /** Cargo message emitted for each crate of the build, telling whether it was up to date. */
+  private static final String COMPILER_ARTIFACT = "{\"reason\":\"compiler-artifact\"";
+  private static final String FRESH = "\"fresh\":true";
+  private static final int WORKSPACE_HASH_LENGTH = 16;
+
+  /** Provides a new process wrapper for each run, since runs can be concurrent. */
+  private final Supplier<ProcessWrapper> processWrappers;
 
   ClippyRunner() {
-    this(new ProcessWrapper());
+    this(ProcessWrapper::new);
   }
 
   ClippyRunner(ProcessWrapper processWrapper) {
-    this.processWrapper = processWrapper;
+    this(() -> processWrapper);
+  }
+
+  private ClippyRunner(Supplier<ProcessWrapper> processWrappers) {
+    this.processWrappers = processWrappers;
+  }
+
+  /**
+   * Returns the target directory of a workspace in the directory configured for the runs. Cargo locks the target directory during a build, so workspaces sharing
+   * one would wait for each other when they are linted concurrently. The name only depends on the path of the workspace
+   * relative to the base directory, so that it stays valid when the project is checked out elsewhere.
+   */
+  static Path workspaceTargetDir(Path targetDir, Path baseDir, Path workDir) {
+    var relativePath = baseDir.toAbsolutePath().normalize().relativize(workDir.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    var digest = CargoInputs.sha256();
+    CargoInputs.update(digest, relativePath);
+    return targetDir.resolve(HexFormat.of().formatHex(digest.digest()).substring(0, WORKSPACE_HASH_LENGTH));
   }
 
-  public void run(Path workDir, List<String> lints, Consumer<ClippyDiagnostic> consumer, boolean offline) {
-    var command = buildCommand(lints, offline);
+  public void run(Path workDir, List<String> lints, Consumer<ClippyDiagnostic> consumer, Options options) {
+    run(workDir, List.of(), lints, consumer, options);
+  }
+
+  /**
+   * Runs Clippy on the given packages of the workspace only, or on the default packages when the list is empty.
+   */
+  public void run(Path workDir, List<String> packages, List<String> lints, Consumer<ClippyDiagnostic> consumer, Options options) {
+    var command = buildCommand(packages, lints, options.offline());
     LOG.debug("Running Clippy: {}", command);
+    var processWrapper = processWrappers.get();
+    if (options.targetDir() != null) {
+      LOG.debug("Using Cargo target directory {} for {}", options.targetDir(), workDir);
+      processWrapper.setEnvironment(Map.of(CargoTargetDirectories.CARGO_TARGET_DIR_ENV, options.targetDir().toString()));
+    }
+    var artifacts = new Artifacts();
     try {
-      processWrapper.start(command, workDir, output -> readOutput(output, consumer), LOG::warn);
+      processWrapper.start(command, workDir, output -> readOutput(output, consumer, artifacts), LOG::warn);
       // Note that by default, Clippy can return non-zero exit code in case of a high severity lint violation. We avoid this by
       // re-defining all lints as warnings when constructing the Clippy command below.
-      int exitValue = processWrapper.waitFor();
+      int exitValue = waitFor(processWrapper, workDir, options.timeout());
       if (exitValue != 0) {
         throw new IllegalStateException("Clippy failed with exit code " + exitValue);
       }
+      if (artifacts.fresh > 0 || artifacts.built > 0) {
+        LOG.info("Clippy build of {}: {} crate(s) up to date, {} crate(s) checked", workDir, artifacts.fresh, artifacts.built);
+      }
     } catch (InterruptedException e) {
+      // Cargo and the compilers it started would otherwise keep running after the analysis, e.g. when a background
+      // run is cancelled
+      processWrapper.destroyProcessTree();
       Thread.currentThread().interrupt();
       throw new IllegalStateException("Clippy was interrupted", e);
     } catch (IOException e) {
@@ -59,18 +106,59 @@ public class ClippyRunner {
     }
   }
 
-  private static List<String> buildCommand(List<String> lints, boolean offline) {
+  private static int waitFor(ProcessWrapper processWrapper, Path workDir, @Nullable Duration timeout) throws InterruptedException {
+    if (timeout == null) {
+      return processWrapper.waitFor();
+    }
+    if (!processWrapper.waitFor(timeout)) {
+      // Cargo does not stop the compilers it started when it is killed, e.g. when a build script hangs
+      processWrapper.destroyProcessTree();
+      throw new ClippyTimeoutException(workDir, timeout);
+    }
+    return processWrapper.exitValue();
+  }
+
+  private static List<String> buildCommand(List<String> packages, List<String> lints, boolean offline) {
     var cmd = new ArrayList<>(List.of("cargo", "clippy", "--quiet", "--message-format=json"));
     if (offline) {
       cmd.add("--offline");
     }
+    packages.forEach(cargoPackage -> cmd.addAll(List.of("-p", cargoPackage)));
     cmd.addAll(List.of("--", "-A", "clippy::all"));
     lints.stream().map(lint -> String.format("-W%s", lint)).forEach(cmd::add);
     return cmd;
   }
 
-  private static void readOutput(String output, Consumer<ClippyDiagnostic> consumer) {
+  private static void readOutput(String output, Consumer<ClippyDiagnostic> consumer, Artifacts artifacts) {
+    if (output.startsWith(COMPILER_ARTIFACT)) {
+      if (output.contains(FRESH)) {
+        artifacts.fresh++;
+      } else {
+        artifacts.built++;
+      }
+      return;
+    }
     ClippyUtils.parse(Stream.of(output)).forEach(consumer);
   }
 
+  /**
+   * Settings of a single run. They are given to each run instead of being set on the runner, since the runs of the
+   * modules of a project share the runner and can be concurrent.
+   *
+   * @param offline whether Cargo must not access the network
+   * @param timeout the maximum duration of the run, or null to wait for Clippy to finish
+   * @param targetDir the Cargo target directory of the workspace, or null to build in its default target directory
+   */
+  public record Options(boolean offline, @Nullable Duration timeout, @Nullable Path targetDir) {
+  }
+
+  /**
+   * Counts the crates reused from the target directory, and the ones checked again, during a run. Only updated by the
+   * thread reading the output of Cargo.
+   */
+  private static class Artifacts {
+    private int fresh;
+    private int built;
+  }
+
 }
@@ -16,15 +16,13 @@
  */
 package org.sonarsource.rust.clippy;
 
-import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
 import org.sonarsource.rust.plugin.AnalysisWarningsWrapper;
 import org.sonarsource.rust.plugin.RustLanguage;
-import org.sonarsource.rust.plugin.RustPlugin;
 import org.sonarsource.rust.plugin.RustRulesDefinition;
-import org.sonarsource.rust.plugin.Telemetry;
-import java.io.File;
-import java.nio.file.Path;
-import java.util.Objects;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.sensor.Sensor;
@@ -32,7 +30,9 @@ import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.api.rule.RuleKey;
 
+import static org.sonarsource.rust.clippy.ClippyAnalysis.failFastCheck;
 import static org.sonarsource.rust.clippy.ClippyUtils.diagnosticToLocation;
+import static org.sonarsource.rust.clippy.ClippyUtils.resolveInputFile;
 
 public class ClippySensor implements Sensor {
 
@@ -40,19 +40,40 @@ public class ClippySensor implements Sensor {
 
   public static final String CLIPPY_ANALYSIS_ENABLED = "sonar.rust.clippy.enabled";
   public static final String CLIPPY_OFFLINE = "sonar.rust.clippy.offline";
-
-  private final ClippyPrerequisite clippyPrerequisite;
-  private final ClippyRunner clippy;
+  public static final String CLIPPY_CHANGED_PACKAGES_ONLY = "sonar.rust.clippy.changedPackagesOnly";
+  public static final String CLIPPY_PARALLELISM = "sonar.rust.clippy.parallelism";
+  public static final String CLIPPY_TIMEOUT = "sonar.rust.clippy.timeout";
+  public static final String CLIPPY_BACKGROUND = "sonar.rust.clippy.background";
+  public static final String CLIPPY_TARGET_DIR = "sonar.rust.clippy.targetDir";
+  public static final String CLIPPY_ALL_LINTS = "sonar.rust.clippy.allLints";
+
+  private final ClippyAnalysis analysis;
   private final AnalysisWarningsWrapper analysisWarnings;
+  @Nullable
+  private final ClippyBackgroundRun backgroundRun;
 
   public ClippySensor() {
-    this(new ClippyPrerequisite(), new ClippyRunner(), new AnalysisWarningsWrapper());
+    this(new ClippyPrerequisite(), new ClippyRunner(), new CargoMetadataRunner(), new AnalysisWarningsWrapper(), null);
+  }
+
+  public ClippySensor(ClippyBackgroundRun backgroundRun) {
+    this(new ClippyPrerequisite(), new ClippyRunner(), new CargoMetadataRunner(), new AnalysisWarningsWrapper(), backgroundRun);
   }
 
   ClippySensor(ClippyPrerequisite clippyPrerequisite, ClippyRunner clippy, AnalysisWarningsWrapper analysisWarnings) {
-    this.clippyPrerequisite = clippyPrerequisite;
-    this.clippy = clippy;
+    this(clippyPrerequisite, clippy, new CargoMetadataRunner(), analysisWarnings);
+  }
+
+  ClippySensor(ClippyPrerequisite clippyPrerequisite, ClippyRunner clippy, CargoMetadataRunner cargoMetadata,
+    AnalysisWarningsWrapper analysisWarnings) {
+    this(clippyPrerequisite, clippy, cargoMetadata, analysisWarnings, null);
+  }
+
+  ClippySensor(ClippyPrerequisite clippyPrerequisite, ClippyRunner clippy, CargoMetadataRunner cargoMetadata,
+    AnalysisWarningsWrapper analysisWarnings, @Nullable ClippyBackgroundRun backgroundRun) {
+    this.analysis = new ClippyAnalysis(clippyPrerequisite, clippy, cargoMetadata);
     this.analysisWarnings = analysisWarnings;
+    this.backgroundRun = backgroundRun;
   }
 
   @Override
@@ -70,69 +91,39 @@ public class ClippySensor implements Sensor {
       return;
     }
 
-    boolean offlineMode = context.config().getBoolean(CLIPPY_OFFLINE).orElse(false);
-    if (offlineMode) {
-      LOG.debug("Clippy running in offline mode. Use `cargo fetch` to make sure all prerequisites are available.");
-    }
-
-    var manifests = CargoManifestProvider.getManifests(context);
-    if (manifests.isEmpty()) {
-      var msg = "No Cargo manifest found, skipping Clippy analysis";
-      LOG.warn(msg);
-      analysisWarnings.addUnique(msg);
-      failFastCheck(context, new IllegalStateException(msg));
-      return;
-    }
-
-    var baseDir = context.fileSystem().baseDir().toPath();
-
-    Telemetry.reportAnalyzerClippyUsage(context);
+    // Diagnostics are only saved by the sensor thread, so the index is not shared between threads
+    var index = new ClippyDiagnosticIndex();
+    Consumer<ClippyDiagnostic> saver = diagnostic -> {
+      try {
+        saveIssue(context, diagnostic, index);
+      } catch (Exception e) {
+        LOG.warn("Failed to save Clippy issue: {}", diagnostic, e);
+      }
+    };
 
+    List<ClippyAnalysis.Effect> effects;
     try {
-      var versions = clippyPrerequisite.check(baseDir);
-      Telemetry.reportClippyVersion(context, versions.clippyVersion());
-    } catch (Exception e) {
-      LOG.error("Failed to check Clippy prerequisites", e);
-      analysisWarnings.addUnique("Failed to check Clippy prerequisites. See logs for details.");
+      // Clippy may already be running in the background of the Rust sensor
+      effects = backgroundRun != null ? backgroundRun.join(context, saver) : null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.error("Clippy was interrupted", e);
+      analysisWarnings.addUnique("Failed to run Clippy. See logs for details.");
       failFastCheck(context, e);
       return;
-    }
-
-    var lints = context.activeRules().findByRepository(RustLanguage.KEY).stream()
-      .map(rule -> RustRulesDefinition.ruleKeyToLintId(rule.ruleKey().rule()))
-      // Not all rules can be mapped to Clippy lints, e.g. S2260 (syntax errors)
-      .filter(Objects::nonNull)
-      .toList();
-
-    Telemetry.reportManifestInfo(context, manifests.stream().map(File::toPath).toList());
-
-    try {
-      for (var manifest : manifests) {
-        Path manifestPath = manifest.toPath();
-
-        var workDir = manifestPath.getParent();
-        clippy.run(workDir, lints, diagnostic -> {
-          try {
-            saveIssue(context, diagnostic);
-          } catch (Exception e) {
-            LOG.warn("Failed to save Clippy issue: {}", diagnostic, e);
-          }
-        }, offlineMode);
-      }
     } catch (Exception e) {
       LOG.error("Failed to run Clippy", e);
       analysisWarnings.addUnique("Failed to run Clippy. See logs for details.");
       failFastCheck(context, e);
+      return;
     }
-  }
-
-  private static void failFastCheck(SensorContext sensorContext, Exception ex) {
-    if (sensorContext.config().getBoolean(RustPlugin.FAIL_FAST_PROPERTY).orElse(false)) {
-      throw new IllegalStateException("Analysis failed", ex);
+    if (effects == null) {
+      effects = analysis.run(context, saver);
     }
+    effects.forEach(effect -> effect.apply(context, analysisWarnings));
   }
 
-  private static void saveIssue(SensorContext context, ClippyDiagnostic diagnostic) {
+  private static void saveIssue(SensorContext context, ClippyDiagnostic diagnostic, ClippyDiagnosticIndex index) {
     LOG.debug("Saving Clippy diagnostic: {}", diagnostic);
 
     String lintId = diagnostic.lintId();
@@ -142,15 +133,24 @@ public class ClippySensor implements Sensor {
       return;
     }
 
-    var issue = context.newIssue()
-      .forRule(RuleKey.of(RustLanguage.KEY, ruleKey));
-
-    var location = diagnosticToLocation(issue.newLocation(), diagnostic, context);
-    if (location == null) {
+    var inputFile = resolveInputFile(diagnostic, context);
+    if (inputFile == null) {
       LOG.debug("No InputFile found for Clippy diagnostic: {}", diagnostic);
       return;
     }
 
+    // The same diagnostic is emitted for each target of a crate
+    long key = ClippyDiagnosticIndex.key(diagnostic, inputFile);
+    if (index.contains(key)) {
+      LOG.debug("Ignoring duplicate Clippy diagnostic: {}", diagnostic);
+      return;
+    }
+
+    var issue = context.newIssue()
+      .forRule(RuleKey.of(RustLanguage.KEY, ruleKey));
+
+    var location = diagnosticToLocation(issue.newLocation(), diagnostic, inputFile);
+
     var message = RustRulesDefinition.lintIdToMessage(lintId);
     if (message == null) {
       LOG.debug("No message found for Clippy lint: {}", lintId);
@@ -161,5 +161,6 @@ public class ClippySensor implements Sensor {
 
     issue.at(location);
     issue.save();
+    index.add(key);
   }
 }
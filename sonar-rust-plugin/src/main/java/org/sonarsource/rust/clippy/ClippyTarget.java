@@ -0,0 +1,122 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonarsource.rust.cargo.CargoMetadata;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
+
+/**
+ * A run of Clippy: the manifest in the directory of which Clippy is run, and the packages to lint, or an empty list for
+ * the default packages of the manifest.
+ *
+ * @param metadata the metadata of the workspace of the manifest, if it was read
+ */
+record ClippyTarget(Path manifestPath, List<String> packages, @Nullable CargoMetadata metadata) {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClippyTarget.class);
+  private static final String CARGO_MANIFEST_NAME = "Cargo.toml";
+
+  Path workDir() {
+    return manifestPath.getParent();
+  }
+
+  /**
+   * Returns the runs of Clippy linting the given manifests. Running Clippy in the directory of a member of a workspace
+   * checks the shared workspace, so the members of a workspace are linted by a single run in the workspace root.
+   * Standalone crates are linted in their own directory.
+   */
+  static List<ClippyTarget> resolve(List<Path> manifests, CargoMetadataRunner cargoMetadata) {
+    if (manifests.size() <= 1) {
+      return manifests.stream().map(manifest -> new ClippyTarget(manifest, List.of(), null)).toList();
+    }
+
+    List<Workspace> workspaces = new ArrayList<>();
+    for (Path manifest : manifests) {
+      var normalized = manifest.toAbsolutePath().normalize();
+      var workspace = workspaces.stream().filter(candidate -> candidate.contains(normalized)).findFirst().orElse(null);
+      if (workspace == null) {
+        workspace = new Workspace(metadata(cargoMetadata, normalized));
+        workspaces.add(workspace);
+      }
+      workspace.manifests.add(manifest);
+    }
+    return workspaces.stream().map(Workspace::target).toList();
+  }
+
+  @Nullable
+  private static CargoMetadata metadata(CargoMetadataRunner cargoMetadata, Path manifest) {
+    try {
+      var metadata = cargoMetadata.run(manifest.getParent());
+      return metadata.workspace_root() != null ? metadata : null;
+    } catch (Exception e) {
+      LOG.debug("Failed to read the Cargo metadata of {}, linting it on its own: {}", manifest, e.getMessage());
+      return null;
+    }
+  }
+
+  private static class Workspace {
+    @Nullable
+    private final CargoMetadata metadata;
+    private final List<Path> manifests = new ArrayList<>();
+
+    Workspace(@Nullable CargoMetadata metadata) {
+      this.metadata = metadata;
+    }
+
+    boolean contains(Path manifest) {
+      return metadata != null && (manifest.equals(rootManifest()) || member(manifest) != null);
+    }
+
+    ClippyTarget target() {
+      if (manifests.size() == 1 || metadata == null) {
+        return new ClippyTarget(manifests.get(0), List.of(), metadata);
+      }
+
+      var packages = new LinkedHashSet<String>();
+      for (Path manifest : manifests) {
+        var member = member(manifest.toAbsolutePath().normalize());
+        if (member == null) {
+          // The manifest of a virtual workspace, which stands for its members
+          metadata.workspacePackages().forEach(workspacePackage -> packages.add(workspacePackage.name()));
+        } else {
+          packages.add(member.name());
+        }
+      }
+      LOG.info("{} manifests of the workspace {} are linted by a single Clippy run", manifests.size(), metadata.workspace_root());
+      return new ClippyTarget(rootManifest(), List.copyOf(packages), metadata);
+    }
+
+    private Path rootManifest() {
+      return Path.of(metadata.workspace_root()).toAbsolutePath().normalize().resolve(CARGO_MANIFEST_NAME);
+    }
+
+    @Nullable
+    private CargoMetadata.Package member(Path manifest) {
+      return metadata.workspacePackages().stream()
+        .filter(workspacePackage -> Path.of(workspacePackage.manifest_path()).toAbsolutePath().normalize().equals(manifest))
+        .findFirst()
+        .orElse(null);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Thrown when Clippy was stopped because it did not finish in time. The diagnostics emitted before have been consumed.
+ */
+class ClippyTimeoutException extends IllegalStateException {
+
+  ClippyTimeoutException(Path workDir, Duration timeout) {
+    super("Clippy timed out after %d seconds in %s".formatted(timeout.toSeconds(), workDir));
+  }
+}
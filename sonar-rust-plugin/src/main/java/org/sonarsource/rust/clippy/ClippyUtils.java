@@ -18,13 +18,18 @@ package org.sonarsource.rust.clippy;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.sonar.api.batch.fs.InputFile;
@@ -38,19 +43,30 @@ class ClippyUtils {
   private static final Logger LOG = LoggerFactory.getLogger(ClippyUtils.class);
 
   private static final Gson GSON = new Gson();
+  private static final String REASON_PROPERTY = "\"reason\"";
+  private static final String COMPILER_MESSAGE_REASON = "\"compiler-message\"";
 
   private ClippyUtils() {
     // Utility class
   }
 
   static List<ClippyDiagnostic> parse(File reportFile) {
+    var diagnostics = new ArrayList<ClippyDiagnostic>();
+    parse(reportFile, diagnostics::add);
+    return diagnostics;
+  }
+
+  /**
+   * Passes the diagnostics of the report to the consumer as they are read, so that they are not all held in memory.
+   */
+  static void parse(File reportFile, Consumer<ClippyDiagnostic> consumer) {
     try (var reader = Files.newBufferedReader(reportFile.toPath())) {
       // Clippy reports are not syntactically valid JSON, because they contain one JSON object per line.
       // These objects are not separated by commas and the whole file is not enclosed in an array.
       // Therefore, we need to read the file line by line and parse each line separately.
       var lines = reader.lines();
-      return parse(lines).toList();
-    } catch (IOException e) {
+      parse(lines).forEach(consumer);
+    } catch (IOException | UncheckedIOException e) {
       throw new IllegalStateException("Failed to read Clippy report: " + reportFile, e);
     } catch (JsonSyntaxException e) {
       throw new IllegalStateException("Failed to parse Clippy report: " + reportFile, e);
@@ -67,10 +83,156 @@ class ClippyUtils {
           return false;
         }
       })
-      .map(line -> GSON.fromJson(line, ClippyDiagnostic.class))
+      .filter(ClippyUtils::mayBeClippyDiagnostic)
+      .map(ClippyUtils::readDiagnostic)
       .filter(ClippyUtils::isClippyDiagnostic);
   }
 
+  /**
+   * Cheap check on the raw line, which discards most Cargo messages without parsing them: artifacts, build script
+   * outputs and compiler messages of other tools. Lines without a reason are diagnostics serialized by {@link #toJson}.
+   */
+  private static boolean mayBeClippyDiagnostic(String line) {
+    return line.contains("clippy")
+      && (!line.contains(REASON_PROPERTY) || line.contains(COMPILER_MESSAGE_REASON));
+  }
+
+  /**
+   * Reads the fields of a diagnostic from a Cargo message. Other fields, such as the rendered message, the children
+   * and the expansions of spans, are skipped without being materialized.
+   */
+  @Nullable
+  private static ClippyDiagnostic readDiagnostic(String line) {
+    try (var reader = new JsonReader(new StringReader(line))) {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue();
+        return null;
+      }
+      String manifestPath = null;
+      ClippyMessage message = null;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "manifest_path" -> manifestPath = nextStringOrNull(reader);
+          case "message" -> message = readMessage(reader);
+          default -> reader.skipValue();
+        }
+      }
+      reader.endObject();
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new JsonSyntaxException("JSON document was not fully consumed.");
+      }
+      return new ClippyDiagnostic(manifestPath, message);
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      // Same exception as the one thrown by Gson for malformed JSON
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  @Nullable
+  private static ClippyMessage readMessage(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return null;
+    }
+    ClippyCode code = null;
+    String text = null;
+    List<ClippySpan> spans = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "code" -> code = readCode(reader);
+        case "message" -> text = nextStringOrNull(reader);
+        case "spans" -> spans = readFirstSpan(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new ClippyMessage(code, text, spans);
+  }
+
+  @Nullable
+  private static ClippyCode readCode(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return null;
+    }
+    String code = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("code".equals(reader.nextName())) {
+        code = nextStringOrNull(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new ClippyCode(code);
+  }
+
+  /**
+   * Only the first span is used as the location of issues, the other ones are skipped.
+   */
+  @Nullable
+  private static List<ClippySpan> readFirstSpan(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+      reader.skipValue();
+      return null;
+    }
+    List<ClippySpan> spans = new ArrayList<>(1);
+    reader.beginArray();
+    if (reader.hasNext()) {
+      spans.add(readSpan(reader));
+    }
+    while (reader.hasNext()) {
+      reader.skipValue();
+    }
+    reader.endArray();
+    return spans;
+  }
+
+  @Nullable
+  private static ClippySpan readSpan(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      reader.skipValue();
+      return null;
+    }
+    String fileName = null;
+    int lineStart = 0;
+    int columnStart = 0;
+    int lineEnd = 0;
+    int columnEnd = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "file_name" -> fileName = nextStringOrNull(reader);
+        case "line_start" -> lineStart = reader.nextInt();
+        case "column_start" -> columnStart = reader.nextInt();
+        case "line_end" -> lineEnd = reader.nextInt();
+        case "column_end" -> columnEnd = reader.nextInt();
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new ClippySpan(fileName, lineStart, columnStart, lineEnd, columnEnd);
+  }
+
+  @Nullable
+  private static String nextStringOrNull(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  /**
+   * Serializes a diagnostic in the format of Cargo messages, so that it can be read back by {@link #parse(Stream)}.
+   */
+  static String toJson(ClippyDiagnostic diagnostic) {
+    return GSON.toJson(diagnostic);
+  }
+
   private static boolean isClippyDiagnostic(@Nullable ClippyDiagnostic diagnostic) {
     return diagnostic != null
       && diagnostic.manifest_path() != null
@@ -80,13 +242,8 @@ class ClippyUtils {
       && diagnostic.message().code().code().startsWith("clippy");
   }
 
-  static NewIssueLocation diagnosticToLocation(NewIssueLocation location, ClippyDiagnostic diagnostic, SensorContext context) {
+  static NewIssueLocation diagnosticToLocation(NewIssueLocation location, ClippyDiagnostic diagnostic, InputFile inputFile) {
     var span = firstSpan(diagnostic);
-    var inputFile = resolveInputFile(diagnostic, context);
-    if (inputFile == null) {
-      return null;
-    }
-
     try {
       location
         .on(inputFile)
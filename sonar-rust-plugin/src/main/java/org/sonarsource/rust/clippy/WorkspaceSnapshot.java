@@ -0,0 +1,123 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.sonarsource.rust.cargo.CargoMetadata;
+
+import static org.sonarsource.rust.clippy.CargoInputs.sha256;
+import static org.sonarsource.rust.clippy.CargoInputs.update;
+import static org.sonarsource.rust.clippy.CargoInputs.updateIfExists;
+import static org.sonarsource.rust.clippy.CargoInputs.updateWithContent;
+
+/**
+ * Hashes of the files of a workspace, read from the disk, to find the changes of a pull request that the status of the
+ * indexed files does not tell: changes of files which are not indexed, and deleted files.
+ * <p>
+ * The configuration hash covers what may change the diagnostics of any package: the files of the workspace root and of
+ * its parent directories read by Cargo or Clippy, and the files of the packages other than Rust sources, e.g. manifests,
+ * lint configuration, build script inputs. The hash of each package covers the paths and content of its Rust sources.
+ * Paths are relative to the workspace root, so that snapshots do not depend on the location of the checkout.
+ *
+ * @param configuration hash of the configuration of the workspace
+ * @param packages hashes of the Rust sources by package name
+ */
+record WorkspaceSnapshot(String configuration, Map<String, String> packages) {
+
+  /** Must be incremented whenever the inputs of the hashes change. */
+  private static final int FORMAT_VERSION = 1;
+  private static final Gson GSON = new Gson();
+
+  static WorkspaceSnapshot of(CargoMetadata metadata) throws IOException {
+    if (metadata.workspace_root() == null) {
+      throw new IOException("Unknown workspace root");
+    }
+    var workspaceRoot = Path.of(metadata.workspace_root()).toAbsolutePath().normalize();
+    MessageDigest configuration = sha256();
+    update(configuration, FORMAT_VERSION);
+    for (var dir = workspaceRoot; dir != null; dir = dir.getParent()) {
+      for (String name : CargoInputs.CONFIGURATION_FILES) {
+        updateIfExists(configuration, relativePath(workspaceRoot, dir.resolve(name)), dir.resolve(name));
+      }
+    }
+
+    var packages = metadata.workspacePackages().stream()
+      .sorted(Comparator.comparing(CargoMetadata.Package::directory))
+      .toList();
+    var packageDirectories = packages.stream().map(CargoMetadata.Package::directory).collect(Collectors.toSet());
+    Map<String, String> packageHashes = new TreeMap<>();
+    for (var cargoPackage : packages) {
+      var directory = cargoPackage.directory();
+      // Nested packages are hashed on their own
+      var files = CargoInputs.files(directory, dir -> packageDirectories.contains(dir)).stream().sorted().toList();
+      MessageDigest sources = sha256();
+      update(configuration, cargoPackage.name());
+      for (Path file : files) {
+        var digest = file.getFileName().toString().endsWith(".rs") ? sources : configuration;
+        update(digest, relativePath(workspaceRoot, file));
+        updateWithContent(digest, file);
+      }
+      packageHashes.put(cargoPackage.name(), HexFormat.of().formatHex(sources.digest()));
+    }
+    return new WorkspaceSnapshot(HexFormat.of().formatHex(configuration.digest()), packageHashes);
+  }
+
+  /**
+   * Returns the packages whose Rust sources changed since the previous snapshot, or were added, or null when the
+   * configuration of the workspace changed, in which case all packages may be affected.
+   */
+  @Nullable
+  Set<String> changedPackages(WorkspaceSnapshot previous) {
+    if (!configuration.equals(previous.configuration())) {
+      return null;
+    }
+    return packages.entrySet().stream()
+      .filter(entry -> !entry.getValue().equals(previous.packages().get(entry.getKey())))
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toSet());
+  }
+
+  byte[] serialize() {
+    return GSON.toJson(this).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Nullable
+  static WorkspaceSnapshot deserialize(byte[] data) {
+    try {
+      var snapshot = GSON.fromJson(new String(data, StandardCharsets.UTF_8), WorkspaceSnapshot.class);
+      return snapshot != null && snapshot.configuration() != null && snapshot.packages() != null ? snapshot : null;
+    } catch (JsonParseException e) {
+      return null;
+    }
+  }
+
+  private static String relativePath(Path workspaceRoot, Path path) {
+    return workspaceRoot.relativize(path).toString().replace('\\', '/');
+  }
+}
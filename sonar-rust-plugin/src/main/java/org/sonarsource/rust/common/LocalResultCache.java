@@ -0,0 +1,199 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.sensor.SensorContext;
+
+/**
+ * Content-addressed store of analysis results in a local directory, for environments without the analysis cache of
+ * SonarQube but with a persistent workspace, such as CI runners.
+ * <p>
+ * Each entry is a file named after the hash of its key, in a sub-directory named after the first two characters of the
+ * hash. Entries are written to a temporary file which is then atomically moved, so concurrent analyses sharing the
+ * directory never read a partial entry: at worst they write the same entry twice. The last modification time of an
+ * entry is updated when it is read, and the least recently used entries are evicted when the store exceeds its maximum
+ * size.
+ */
+public class LocalResultCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalResultCache.class);
+
+  public static final String CACHE_DIR = "sonar.rust.cache.dir";
+  public static final String CACHE_MAX_SIZE = "sonar.rust.cache.maxSize";
+  public static final long DEFAULT_CACHE_MAX_SIZE = 1024;
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  /** Temporary files older than this are left over by interrupted analyses, not being written by a concurrent one. */
+  private static final Duration TEMP_FILE_MAX_AGE = Duration.ofHours(1);
+
+  private final Path directory;
+  private final long maxSize;
+
+  public LocalResultCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the local cache configured for the project, or null if none is configured.
+   */
+  @Nullable
+  public static LocalResultCache fromConfiguration(SensorContext context) {
+    return context.config().get(CACHE_DIR)
+      .filter(directory -> !directory.isBlank())
+      .map(directory -> {
+        long maxSize = context.config().getLong(CACHE_MAX_SIZE).orElse(DEFAULT_CACHE_MAX_SIZE);
+        return new LocalResultCache(context.fileSystem().baseDir().toPath().resolve(directory.trim()), maxSize * 1024 * 1024);
+      })
+      .orElse(null);
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * Returns the entry with the given hash, or null if there is none or if it cannot be read.
+   */
+  @Nullable
+  public byte[] read(String hash) {
+    Path path = path(hash);
+    try {
+      byte[] data = Files.readAllBytes(path);
+      Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+      return data;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      // The entry may have been evicted by a concurrent analysis
+      LOG.debug("Failed to read the local cache entry {}: {}", path, e.getMessage());
+      return null;
+    }
+  }
+
+  public void write(String hash, byte[] data) {
+    Path path = path(hash);
+    if (Files.exists(path)) {
+      return;
+    }
+    Path tempFile = null;
+    try {
+      Files.createDirectories(path.getParent());
+      tempFile = Files.createTempFile(path.getParent(), hash, TEMP_FILE_SUFFIX);
+      Files.write(tempFile, data);
+      move(tempFile, path);
+    } catch (IOException e) {
+      LOG.debug("Failed to write the local cache entry {}: {}", path, e.getMessage());
+      deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Removes the least recently used entries until the store fits in its maximum size.
+   */
+  public void evict() {
+    List<CachedFile> entries = new ArrayList<>();
+    long size = 0;
+    Instant tempFileExpiry = Instant.now().minus(TEMP_FILE_MAX_AGE);
+    List<Path> files;
+    try (Stream<Path> stream = Files.walk(directory, 2)) {
+      files = stream.toList();
+    } catch (IOException | UncheckedIOException e) {
+      LOG.debug("Failed to list the local cache entries in {}: {}", directory, e.getMessage());
+      return;
+    }
+    for (Path file : files) {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      } catch (IOException e) {
+        // The file was removed by a concurrent analysis
+        continue;
+      }
+      if (!attributes.isRegularFile()) {
+        continue;
+      }
+      if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+        if (attributes.lastModifiedTime().toInstant().isBefore(tempFileExpiry)) {
+          deleteIfExists(file);
+        }
+        continue;
+      }
+      entries.add(new CachedFile(file, attributes.size(), attributes.lastModifiedTime()));
+      size += attributes.size();
+    }
+
+    if (size <= maxSize) {
+      return;
+    }
+    entries.sort(Comparator.comparing(CachedFile::lastModified));
+    int evicted = 0;
+    for (CachedFile entry : entries) {
+      if (size <= maxSize) {
+        break;
+      }
+      deleteIfExists(entry.path());
+      size -= entry.size();
+      evicted++;
+    }
+    LOG.debug("{} least recently used entries evicted from the local cache {}", evicted, directory);
+  }
+
+  private Path path(String hash) {
+    return directory.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void deleteIfExists(@Nullable Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.debug("Failed to delete {}: {}", path, e.getMessage());
+    }
+  }
+
+  private record CachedFile(Path path, long size, FileTime lastModified) {
+  }
+}
@@ -20,7 +20,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
@@ -30,12 +33,23 @@ import javax.annotation.Nullable;
  */
 public class ProcessWrapper {
 
+  private static final int MAX_DESTROY_ATTEMPTS = 10;
+
   private Process process;
   private StreamConsumer consumer;
+  private Map<String, String> environment = Map.of();
+
+  /**
+   * Sets the variables added to the environment of the processes started afterward.
+   */
+  public void setEnvironment(Map<String, String> environment) {
+    this.environment = environment;
+  }
 
   public void start(List<String> command, @Nullable Path workDir, @Nullable Consumer<String> stdOut, @Nullable Consumer<String> stdErr) throws IOException {
     var pb = new ProcessBuilder(command)
       .directory(workDir != null ? workDir.toFile() : null);
+    pb.environment().putAll(environment);
     process = pb.start();
     consumer = new StreamConsumer();
     if (stdOut != null) {
@@ -60,8 +74,52 @@ public class ProcessWrapper {
     return exitValue;
   }
 
+  /**
+   * Returns false if the process is still running after the timeout.
+   */
+  public boolean waitFor(Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    if (!process.waitFor(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+      return false;
+    }
+    // Descendants inheriting the output streams keep them open after the process exited
+    return consumer.await(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+  }
+
+  public int exitValue() {
+    return process.exitValue();
+  }
+
+  public boolean isAlive() {
+    return process != null && process.isAlive();
+  }
+
   public void destroyForcibly() {
     process.destroyForcibly();
+    awaitConsumer();
+  }
+
+  /**
+   * Destroys the process and all its descendants, which would otherwise keep running when they are not stopped by their
+   * parent, e.g. the compilers started by Cargo.
+   */
+  public void destroyProcessTree() {
+    // Descendants are destroyed before the process, since orphans are no longer its descendants. The process may start
+    // new ones meanwhile, so they are collected again until none is left.
+    for (int attempt = 0; attempt < MAX_DESTROY_ATTEMPTS; attempt++) {
+      var descendants = process.descendants().toList();
+      if (descendants.isEmpty()) {
+        break;
+      }
+      descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+    var descendants = process.descendants().toList();
+    process.destroyForcibly();
+    descendants.forEach(ProcessHandle::destroyForcibly);
+    awaitConsumer();
+  }
+
+  private void awaitConsumer() {
     try {
       consumer.await();
     } catch (InterruptedException e) {
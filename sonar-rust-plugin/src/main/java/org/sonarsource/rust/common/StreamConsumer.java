@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +35,8 @@ import org.slf4j.LoggerFactory;
 class StreamConsumer {
 
   private static final Logger LOG = LoggerFactory.getLogger(StreamConsumer.class);
+  /** Maximum time to wait for the streams when the process has no timeout. */
+  private static final Duration MAX_AWAIT = Duration.ofMinutes(5);
   private final ExecutorService executorService;
 
   StreamConsumer() {
@@ -61,11 +64,18 @@ class StreamConsumer {
   }
 
   void await() throws InterruptedException {
-    executorService.shutdown();
-    if (!executorService.awaitTermination(5, TimeUnit.MINUTES)) {
+    if (!await(MAX_AWAIT)) {
       LOG.error("External process stream consumer timed out");
       executorService.shutdownNow();
     }
   }
 
+  /**
+   * Returns false if the streams are still open after the timeout.
+   */
+  boolean await(Duration timeout) throws InterruptedException {
+    executorService.shutdown();
+    return executorService.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
 }
@@ -0,0 +1,251 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Executes the analysis of files, either sequentially or in three stages connected by bounded queues, so that reading
+ * files, waiting for the analyzer and saving results overlap:
+ * <ol>
+ *   <li>a virtual thread reads the content of the next files ahead of the analysis,</li>
+ *   <li>the calling thread sends each content to the analyzer,</li>
+ *   <li>a single thread saves the results, it is the only one writing to the sensor context.</li>
+ * </ol>
+ * Files flow through the stages in order, so results are saved exactly as in a sequential analysis. A file with the same
+ * content as a file analyzed before is not analyzed again, the result of the first file is saved on it.
+ */
+class AnalysisPipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AnalysisPipeline.class);
+
+  /** Maximum number of items waiting in each queue, which bounds the memory used by files read ahead. */
+  static final int QUEUE_CAPACITY = 16;
+
+  @FunctionalInterface
+  interface Reader {
+    byte[] read(InputFile inputFile) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface Analysis<R> {
+    R analyze(InputFile inputFile, byte[] code) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface Saver<R> {
+    void save(InputFile inputFile, R result);
+  }
+
+  private AnalysisPipeline() {
+    // utility class
+  }
+
+  /**
+   * Analyzes each file, and saves its result.
+   */
+  static <R> void runSequentially(List<InputFile> inputFiles, Reader reader, Analysis<R> analysis, Saver<R> saver) {
+    var sameContentFiles = new SameContentFiles<R>(inputFiles);
+    for (InputFile inputFile : inputFiles) {
+      save(analyze(read(inputFile, reader, sameContentFiles), analysis, sameContentFiles), saver, sameContentFiles);
+    }
+    sameContentFiles.log();
+  }
+
+  /**
+   * Same as {@link #runSequentially}, with the reading, analysis and saving stages running concurrently.
+   */
+  static <R> void run(List<InputFile> inputFiles, Reader reader, Analysis<R> analysis, Saver<R> saver) throws InterruptedException {
+    var sameContentFiles = new SameContentFiles<R>(inputFiles);
+    var readQueue = new StageQueue<Read>("read");
+    var analyzedQueue = new StageQueue<Analyzed<R>>("analyzed");
+    var saveError = new AtomicReference<RuntimeException>();
+
+    Thread prefetcher = Thread.ofVirtual().name("rust-analysis-prefetcher")
+      .start(() -> prefetch(inputFiles, reader, sameContentFiles, readQueue));
+    Thread savingThread = Thread.ofPlatform().name("rust-analysis-saver").daemon()
+      .start(() -> save(analyzedQueue, saver, sameContentFiles, saveError));
+    try {
+      Read read;
+      while ((read = readQueue.take()) != Read.END) {
+        analyzedQueue.put(analyze(read, analysis, sameContentFiles));
+      }
+    } finally {
+      // Unblocks the prefetcher when the analysis stopped early
+      prefetcher.interrupt();
+      prefetcher.join();
+      analyzedQueue.put(Analyzed.end());
+      savingThread.join();
+    }
+
+    if (saveError.get() != null) {
+      throw saveError.get();
+    }
+    sameContentFiles.log();
+    LOG.debug("Analysis pipeline: {}; {}", readQueue.statistics(), analyzedQueue.statistics());
+  }
+
+  private static void prefetch(List<InputFile> inputFiles, Reader reader, SameContentFiles<?> sameContentFiles, StageQueue<Read> queue) {
+    try {
+      for (InputFile inputFile : inputFiles) {
+        queue.put(read(inputFile, reader, sameContentFiles));
+      }
+      queue.put(Read.END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads the content of a file, and hashes it when another file may have the same content.
+   */
+  private static Read read(InputFile inputFile, Reader reader, SameContentFiles<?> sameContentFiles) {
+    try {
+      byte[] code = reader.read(inputFile);
+      return new Read(inputFile, code, sameContentFiles.key(inputFile, code), null);
+    } catch (IOException | RuntimeException ex) {
+      // Errors are rethrown by the analysis stage, as in a sequential analysis
+      return new Read(inputFile, null, null, ex);
+    }
+  }
+
+  private static <R> Analyzed<R> analyze(Read read, Analysis<R> analysis, SameContentFiles<R> sameContentFiles) {
+    InputFile inputFile = read.file();
+    if (sameContentFiles.isAnalyzed(read.key())) {
+      return new Analyzed<>(inputFile, read.key(), null, true);
+    }
+    try {
+      R result = analysis.analyze(inputFile, read.content());
+      sameContentFiles.analyzed(read.key());
+      return new Analyzed<>(inputFile, read.key(), result, false);
+    } catch (IOException ex) {
+      logFailure(inputFile, ex);
+      // Still passed to the saving stage, which counts the files of each size
+      return new Analyzed<>(inputFile, read.key(), null, false);
+    }
+  }
+
+  private static <R> void save(StageQueue<Analyzed<R>> queue, Saver<R> saver, SameContentFiles<R> sameContentFiles,
+    AtomicReference<RuntimeException> error) {
+    try {
+      Analyzed<R> analyzed;
+      while (!(analyzed = queue.take()).isEnd()) {
+        // After a failure, the queue is still drained so that the analysis stage is never blocked
+        if (error.get() == null) {
+          try {
+            save(analyzed, saver, sameContentFiles);
+          } catch (RuntimeException ex) {
+            error.set(ex);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static <R> void save(Analyzed<R> analyzed, Saver<R> saver, SameContentFiles<R> sameContentFiles) {
+    R result = analyzed.duplicate() ? sameContentFiles.result(analyzed.key()) : analyzed.result();
+    if (result != null) {
+      saver.save(analyzed.file(), result);
+    }
+    sameContentFiles.saved(analyzed.file(), analyzed.key(), result);
+  }
+
+  private static void logFailure(InputFile inputFile, IOException ex) {
+    LOG.error("Failed to analyze file: {}. Reason: {}", inputFile.filename(), ex.getMessage());
+  }
+
+  /**
+   * The content of a file with its key if another file may have the same content, or the error that prevented reading it.
+   */
+  private record Read(@Nullable InputFile file, @Nullable byte[] code, @Nullable SameContentFiles.Key key, @Nullable Exception error) {
+    static final Read END = new Read(null, null, null, null);
+
+    byte[] content() throws IOException {
+      if (error instanceof IOException ioException) {
+        throw ioException;
+      }
+      if (error instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      return code;
+    }
+  }
+
+  /**
+   * The result of a file, which is null when its analysis failed or when the file has the same content as a file
+   * analyzed before.
+   */
+  private record Analyzed<R>(@Nullable InputFile file, @Nullable SameContentFiles.Key key, @Nullable R result, boolean duplicate) {
+    /** Marks the end of the results, it is the only item without file. */
+    static <T> Analyzed<T> end() {
+      return new Analyzed<>(null, null, null, false);
+    }
+
+    boolean isEnd() {
+      return file == null;
+    }
+  }
+
+  /**
+   * A bounded queue between two stages, which counts how often each side had to wait for the other.
+   */
+  private static class StageQueue<T> {
+    private final String name;
+    private final BlockingQueue<T> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger fullWaits = new AtomicInteger();
+    private final AtomicInteger emptyWaits = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    StageQueue(String name) {
+      this.name = name;
+    }
+
+    void put(T item) throws InterruptedException {
+      if (!queue.offer(item)) {
+        // Backpressure: the consumer is slower than the producer
+        fullWaits.incrementAndGet();
+        queue.put(item);
+      }
+      maxDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    T take() throws InterruptedException {
+      T item = queue.poll();
+      if (item == null) {
+        emptyWaits.incrementAndGet();
+        item = queue.take();
+      }
+      return item;
+    }
+
+    String statistics() {
+      return String.format("%s queue full %d times, empty %d times, max depth %d", name, fullWaits.get(), emptyWaits.get(),
+        maxDepth.get());
+    }
+  }
+}
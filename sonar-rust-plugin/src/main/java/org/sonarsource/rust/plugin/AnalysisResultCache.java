@@ -0,0 +1,251 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.plugins.rust.api.RustQueryRule;
+import org.sonarsource.rust.common.LocalResultCache;
+
+/**
+ * Reuses the results of the analyzer between analyses through the analysis cache of SonarQube, and through a
+ * {@link LocalResultCache local cache} when one is configured.
+ * <p>
+ * Entries are addressed by the content of the file, the version of the analyzer and the configuration of the analysis,
+ * so an entry stays valid as long as none of them changes, whatever the branch or the path of the file. Results are
+ * read from the caches while analyzing, and written to them by the thread saving results.
+ */
+class AnalysisResultCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AnalysisResultCache.class);
+
+  static final String KEY_PREFIX = "rust:analysis:";
+
+  enum Source {
+    ANALYZER,
+    PREVIOUS_CACHE,
+    LOCAL_CACHE
+  }
+
+  /**
+   * Result of the analysis of a file, with the key under which it is cached, if caching is enabled.
+   */
+  record Entry(Analyzer.AnalysisResult result, @Nullable String key, Source source) {
+  }
+
+  @FunctionalInterface
+  interface Analysis {
+    Analyzer.AnalysisResult run() throws IOException;
+  }
+
+  private final SensorContext sensorContext;
+  private final boolean enabled;
+  @Nullable
+  private final LocalResultCache localCache;
+  private final String analyzerVersion;
+  private final String configurationHash;
+  /** Keys already written to the next cache, which rejects duplicate keys. Only used by the thread saving results. */
+  private final Set<String> writtenKeys = new HashSet<>();
+  private int hits;
+  private int misses;
+  private int localHits;
+  private int localMisses;
+
+  AnalysisResultCache(SensorContext sensorContext, @Nullable LocalResultCache localCache, String analyzerVersion, String configurationHash) {
+    this.sensorContext = sensorContext;
+    this.enabled = sensorContext.isCacheEnabled();
+    this.localCache = localCache;
+    this.analyzerVersion = analyzerVersion;
+    this.configurationHash = configurationHash;
+  }
+
+  /**
+   * The analyzer is bundled in the plugin, so the version of the plugin identifies the analyzer.
+   */
+  static String analyzerVersion() {
+    String version = AnalysisResultCache.class.getPackage().getImplementationVersion();
+    return version != null ? version : "dev";
+  }
+
+  /**
+   * Hashes everything, other than the content of a file, that changes the result of its analysis: rule parameters,
+   * analyzer settings and contributed query rules.
+   */
+  static String configurationHash(Map<String, String> parameters, List<RustQueryRule> queryRules) {
+    MessageDigest digest = sha256();
+    for (var parameter : new TreeMap<>(parameters).entrySet()) {
+      update(digest, parameter.getKey());
+      update(digest, parameter.getValue());
+    }
+    for (var queryRule : queryRules) {
+      update(digest, queryRule.ruleKey());
+      update(digest, queryRule.query());
+      update(digest, queryRule.message());
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Returns the cached result of the file if any, otherwise runs the analysis.
+   */
+  Entry analyze(InputFile inputFile, byte[] code, Analysis analysis) throws IOException {
+    if (!enabled && localCache == null) {
+      return new Entry(analysis.run(), null, Source.ANALYZER);
+    }
+
+    String key = key(inputFile, code);
+    if (enabled) {
+      var cached = readPrevious(key);
+      if (cached != null) {
+        hits++;
+        return new Entry(cached, key, Source.PREVIOUS_CACHE);
+      }
+      misses++;
+    }
+    if (localCache != null) {
+      var cached = readLocal(localCache, key);
+      if (cached != null) {
+        localHits++;
+        return new Entry(cached, key, Source.LOCAL_CACHE);
+      }
+      localMisses++;
+    }
+    return new Entry(analysis.run(), key, Source.ANALYZER);
+  }
+
+  /**
+   * Stores the result in the next cache and in the local cache. Results read from the previous cache are copied without
+   * serializing them again.
+   */
+  void write(Entry entry) {
+    String key = entry.key();
+    if (key == null || !writtenKeys.add(key)) {
+      return;
+    }
+    byte[] data = null;
+    if (enabled) {
+      var nextCache = sensorContext.nextCache();
+      if (entry.source() == Source.PREVIOUS_CACHE) {
+        nextCache.copyFromPrevious(key);
+      } else {
+        data = AnalysisResultSerializer.serialize(entry.result());
+        nextCache.write(key, data);
+      }
+    }
+    if (localCache != null && entry.source() != Source.LOCAL_CACHE) {
+      localCache.write(hash(key), data != null ? data : AnalysisResultSerializer.serialize(entry.result()));
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries of the local cache, and logs how many results were reused.
+   */
+  void finish() {
+    if (enabled) {
+      LOG.info("{} file(s) analyzed, {} file(s) reused from the analysis cache", misses, hits);
+    }
+    if (localCache != null) {
+      localCache.evict();
+      LOG.info("Local cache {}: {} hit(s), {} miss(es), {}% hit rate", localCache.directory(), localHits, localMisses,
+        hitRate(localHits, localMisses));
+    }
+  }
+
+  private static long hitRate(int hits, int misses) {
+    int lookups = hits + misses;
+    return lookups == 0 ? 0 : Math.round(100.0 * hits / lookups);
+  }
+
+  private String key(InputFile inputFile, byte[] code) {
+    MessageDigest digest = sha256();
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(AnalysisResultSerializer.FORMAT_VERSION).array());
+    update(digest, analyzerVersion);
+    update(digest, configurationHash);
+    // Test files are analyzed with a reduced set of passes
+    update(digest, inputFile.type().name());
+    digest.update(code);
+    return KEY_PREFIX + HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Entries of the local cache are named after the hash of their key, which is a valid file name.
+   */
+  private static String hash(String key) {
+    return key.substring(KEY_PREFIX.length());
+  }
+
+  @Nullable
+  private static Analyzer.AnalysisResult readLocal(LocalResultCache localCache, String key) {
+    byte[] data = localCache.read(hash(key));
+    if (data == null) {
+      return null;
+    }
+    try {
+      return AnalysisResultSerializer.deserialize(data);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to read the local cache entry {}: {}", key, e.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private Analyzer.AnalysisResult readPrevious(String key) {
+    var previousCache = sensorContext.previousCache();
+    if (!previousCache.contains(key)) {
+      return null;
+    }
+    try (InputStream stream = previousCache.read(key)) {
+      return AnalysisResultSerializer.deserialize(stream.readAllBytes());
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to read the cached analysis result {}: {}", key, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Hashes the length of the value before its bytes, so that consecutive values cannot be confused.
+   */
+  private static void update(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every implementation of the Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary representation of {@link Analyzer.AnalysisResult}, used to cache results between analyses.
+ * The layout is the same as the one of the analyzer protocol: big-endian integers and UTF-8 strings prefixed with their
+ * length in bytes.
+ */
+class AnalysisResultSerializer {
+
+  /** Must be incremented whenever the layout changes, since it is part of the keys of cached results. */
+  static final int FORMAT_VERSION = 1;
+
+  private AnalysisResultSerializer() {
+    // utility class
+  }
+
+  static byte[] serialize(Analyzer.AnalysisResult result) {
+    var bytes = new ByteArrayOutputStream();
+    try (var out = new DataOutputStream(bytes)) {
+      out.writeInt(result.highlightTokens().size());
+      for (var token : result.highlightTokens()) {
+        writeString(out, token.tokenType());
+        writeLocation(out, token.location());
+      }
+
+      var measures = result.measures();
+      out.writeInt(measures.ncloc());
+      out.writeInt(measures.commentLines());
+      out.writeInt(measures.functions());
+      out.writeInt(measures.statements());
+      out.writeInt(measures.classes());
+      out.writeInt(measures.cognitiveComplexity());
+      out.writeInt(measures.cyclomaticComplexity());
+
+      out.writeInt(result.cpdTokens().size());
+      for (var token : result.cpdTokens()) {
+        writeString(out, token.image());
+        writeLocation(out, token.location());
+      }
+
+      out.writeInt(result.issues().size());
+      for (var issue : result.issues()) {
+        writeString(out, issue.ruleKey());
+        writeString(out, issue.message());
+        writeLocation(out, issue.location());
+        out.writeInt(issue.secondaryLocations().size());
+        for (var secondaryLocation : issue.secondaryLocations()) {
+          writeString(out, secondaryLocation.message());
+          writeLocation(out, secondaryLocation.location());
+        }
+      }
+
+      out.writeInt(result.skippedPasses().size());
+      for (var pass : result.skippedPasses()) {
+        writeString(out, pass);
+      }
+      writeNullableString(out, result.skipReason());
+    } catch (IOException e) {
+      // Writing to a byte array cannot fail
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static Analyzer.AnalysisResult deserialize(byte[] bytes) throws IOException {
+    try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      int highlightTokenCount = in.readInt();
+      List<Analyzer.HighlightTokens> highlightTokens = new ArrayList<>(highlightTokenCount);
+      for (int i = 0; i < highlightTokenCount; i++) {
+        highlightTokens.add(new Analyzer.HighlightTokens(readString(in), readLocation(in)));
+      }
+
+      var measures = new Analyzer.Measures(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+
+      int cpdTokenCount = in.readInt();
+      List<Analyzer.CpdToken> cpdTokens = new ArrayList<>(cpdTokenCount);
+      for (int i = 0; i < cpdTokenCount; i++) {
+        cpdTokens.add(new Analyzer.CpdToken(readString(in), readLocation(in)));
+      }
+
+      int issueCount = in.readInt();
+      List<Analyzer.Issue> issues = new ArrayList<>(issueCount);
+      for (int i = 0; i < issueCount; i++) {
+        String ruleKey = readString(in);
+        String message = readString(in);
+        Analyzer.Location location = readLocation(in);
+        int secondaryLocationCount = in.readInt();
+        List<Analyzer.SecondaryLocation> secondaryLocations = new ArrayList<>(secondaryLocationCount);
+        for (int j = 0; j < secondaryLocationCount; j++) {
+          secondaryLocations.add(new Analyzer.SecondaryLocation(readString(in), readLocation(in)));
+        }
+        issues.add(new Analyzer.Issue(ruleKey, message, location, secondaryLocations));
+      }
+
+      int skippedPassCount = in.readInt();
+      List<String> skippedPasses = new ArrayList<>(skippedPassCount);
+      for (int i = 0; i < skippedPassCount; i++) {
+        skippedPasses.add(readString(in));
+      }
+      String skipReason = readNullableString(in);
+
+      return new Analyzer.AnalysisResult(highlightTokens, measures, cpdTokens, issues, skippedPasses, skipReason);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeNullableString(DataOutputStream out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      writeString(out, value);
+    }
+  }
+
+  private static void writeLocation(DataOutputStream out, Analyzer.Location location) throws IOException {
+    out.writeInt(location.startLine());
+    out.writeInt(location.startColumn());
+    out.writeInt(location.endLine());
+    out.writeInt(location.endColumn());
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Nullable
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? readString(in) : null;
+  }
+
+  private static Analyzer.Location readLocation(DataInputStream in) throws IOException {
+    return new Analyzer.Location(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+  }
+}
@@ -24,8 +24,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.plugins.rust.api.RustQueryRule;
 
 public class Analyzer implements AutoCloseable {
 
@@ -36,6 +38,13 @@ public class Analyzer implements AutoCloseable {
   private final DataInputStream inputStream;
 
   public Analyzer(List<String> command, Map<String, String> parameters) {
+    this(command, parameters, List.of());
+  }
+
+  /**
+   * @param queryRules rules contributed by other plugins, executed along with the built-in rules
+   */
+  public Analyzer(List<String> command, Map<String, String> parameters, List<RustQueryRule> queryRules) {
     try {
       process = new ProcessWrapper();
       process.start(command, null, null, LOG::warn);
@@ -44,6 +53,7 @@ public class Analyzer implements AutoCloseable {
 
       writeString("sonar");
       writeMap(parameters);
+      writeQueryRules(queryRules);
     } catch (IOException ex) {
       throw new IllegalStateException("Failed to start the analyzer process", ex);
     }
@@ -54,16 +64,65 @@ public class Analyzer implements AutoCloseable {
    * @throws IOException if executing the analyzer fails due to an I/O error
    */
   public AnalysisResult analyze(String code) throws IOException {
+    return analyze(code.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Use the analyzer subprocess to analyze the given UTF-8 encoded code. The bytes are sent as is, and validated by the
+   * analyzer.
+   * @throws IOException if executing the analyzer fails due to an I/O error, or if the code is not valid UTF-8
+   */
+  public AnalysisResult analyze(byte[] utf8Code) throws IOException {
     writeString("analyze");
+    writeCode(utf8Code);
+    return readResult();
+  }
+
+  /**
+   * Use the analyzer subprocess to analyze the given code of a test file. Measures and duplications are not computed for
+   * test files: the corresponding passes are skipped and reported in {@link AnalysisResult#skippedPasses()}.
+   * @throws IOException if executing the analyzer fails due to an I/O error
+   */
+  public AnalysisResult analyzeTest(String code) throws IOException {
+    return analyzeTest(code.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Same as {@link #analyzeTest(String)}, for UTF-8 encoded code.
+   * @throws IOException if executing the analyzer fails due to an I/O error, or if the code is not valid UTF-8
+   */
+  public AnalysisResult analyzeTest(byte[] utf8Code) throws IOException {
+    writeString("analyze_test");
+    writeCode(utf8Code);
+    return readResult();
+  }
 
-    byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
-    writeInt(bytes.length);
-    write(bytes);
+  /**
+   * Use the analyzer subprocess to analyze the given code as a new version of a document.
+   * The analyzer keeps the documents it analyzed, and only reanalyzes the parts of the code that changed since the previous
+   * version of the document with the same URI.
+   * @throws IOException if executing the analyzer fails due to an I/O error
+   */
+  public AnalysisResult analyzeDocument(String uri, String code) throws IOException {
+    writeString("analyze_document");
+    writeString(uri);
+    writeString("content");
+    writeCode(code.getBytes(StandardCharsets.UTF_8));
+    return readResult();
+  }
 
+  public boolean isAlive() {
+    return process.isAlive();
+  }
+
+  private AnalysisResult readResult() throws IOException {
     List<HighlightTokens> highlightTokens = new ArrayList<>();
     Measures measures = new Measures();
     List<CpdToken> cpdTokens = new ArrayList<>();
     List<Issue> issues = new ArrayList<>();
+    List<String> skippedPasses = new ArrayList<>();
+    String skipReason = null;
+    String error = null;
 
     while (true) {
       String messageType = readString();
@@ -99,12 +158,21 @@ public class Analyzer implements AutoCloseable {
         }
 
         issues.add(new Issue(ruleKey, message, location, secondaryLocations));
+      } else if ("skipped_pass".equals(messageType)) {
+        skippedPasses.add(readString());
+      } else if ("skipped_file".equals(messageType)) {
+        skipReason = readString();
+      } else if ("error".equals(messageType)) {
+        error = readString();
       } else {
         break;
       }
     }
 
-    return new AnalysisResult(highlightTokens, measures, cpdTokens, issues);
+    if (error != null) {
+      throw new IOException(error);
+    }
+    return new AnalysisResult(highlightTokens, measures, cpdTokens, issues, skippedPasses, skipReason);
   }
 
   @Override
@@ -134,11 +202,18 @@ public class Analyzer implements AutoCloseable {
   }
 
   private void writeString(String value) throws IOException {
-    outputStream.writeInt(value.length());
-    outputStream.write(value.getBytes(StandardCharsets.UTF_8));
+    // The length is the number of bytes, which differs from the number of chars for non-ASCII strings
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    outputStream.writeInt(bytes.length);
+    outputStream.write(bytes);
     outputStream.flush();
   }
 
+  private void writeCode(byte[] utf8Code) throws IOException {
+    writeInt(utf8Code.length);
+    write(utf8Code);
+  }
+
   private void write(byte[] bytes) throws IOException {
     outputStream.write(bytes);
     outputStream.flush();
@@ -152,7 +227,25 @@ public class Analyzer implements AutoCloseable {
     }
   }
 
-  public record AnalysisResult(List<HighlightTokens> highlightTokens, Measures measures, List<CpdToken> cpdTokens, List<Issue> issues) {
+  private void writeQueryRules(List<RustQueryRule> queryRules) throws IOException {
+    outputStream.writeInt(queryRules.size());
+    for (RustQueryRule queryRule : queryRules) {
+      writeString(queryRule.ruleKey());
+      writeString(queryRule.query());
+      writeString(queryRule.message());
+    }
+  }
+
+  public static final String METRICS_PASS = "metrics";
+  public static final String CPD_PASS = "cpd";
+
+  /**
+   * @param skippedPasses passes that the analyzer did not execute for the file, such as {@link #METRICS_PASS} or
+   *                      {@link #CPD_PASS}, whose results are empty
+   * @param skipReason    why the analyzer did not analyze the file at all, e.g. because it is generated, or null
+   */
+  public record AnalysisResult(List<HighlightTokens> highlightTokens, Measures measures, List<CpdToken> cpdTokens, List<Issue> issues,
+    List<String> skippedPasses, @Nullable String skipReason) {
   }
 
   public record HighlightTokens(String tokenType, Location location) {
@@ -21,25 +21,34 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.Startable;
 import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.utils.TempFolder;
+import org.sonar.plugins.rust.api.RustQueryRule;
+import org.sonarsource.api.sonarlint.SonarLintSide;
 import org.tukaani.xz.XZInputStream;
 
 import static java.nio.file.attribute.PosixFilePermission.OWNER_EXECUTE;
 
 @ScannerSide
-public class AnalyzerFactory {
+@SonarLintSide(lifespan = SonarLintSide.INSTANCE)
+public class AnalyzerFactory implements Startable {
 
   private static final Logger LOG = LoggerFactory.getLogger(AnalyzerFactory.class);
 
   private final TempFolder tempFolder;
-  private final Map<String, String> parameters = new HashMap<>();
+  private volatile Map<String, String> parameters = Map.of();
+  private volatile List<RustQueryRule> queryRules = List.of();
+  private Analyzer reusableAnalyzer;
+  private Map<String, String> reusableAnalyzerParameters;
+  private List<RustQueryRule> reusableAnalyzerQueryRules;
 
   public AnalyzerFactory(TempFolder tempFolder) {
     this.tempFolder = tempFolder;
@@ -61,12 +70,63 @@ public class AnalyzerFactory {
       if (!Files.isExecutable(path)) {
         Files.setPosixFilePermissions(path, Set.of(OWNER_EXECUTE));
       }
-      return new Analyzer(List.of(path.toString()), parameters);
+      return new Analyzer(List.of(path.toString()), parameters, queryRules);
     }
   }
 
-  public void addParameters(Map<String, String> parameters) {
-    this.parameters.putAll(parameters);
+  /**
+   * Runs a task with an analyzer that outlives the analysis, so that the documents it caches can be reused by the next
+   * analyses of SonarQube IDE. The analyzer is leased to one task at a time, for the whole task: the frames of concurrent
+   * analyses are not interleaved, and the analyzer is neither recreated nor stopped while it is used. It is only
+   * recreated when it died or when the parameters or query rules of the analysis differ from the ones it was created with.
+   * <p>
+   * The factory lives as long as the IDE extension instance, whose container also provides the {@link TempFolder} the
+   * analyzer binary is extracted to.
+   */
+  synchronized void withReusableAnalyzer(Platform platform, Map<String, String> parameters, List<RustQueryRule> queryRules,
+    AnalyzerTask task) throws IOException, InterruptedException {
+    setParameters(parameters);
+    setQueryRules(queryRules);
+    if (reusableAnalyzer == null
+      || !reusableAnalyzer.isAlive()
+      || !this.parameters.equals(reusableAnalyzerParameters)
+      || !this.queryRules.equals(reusableAnalyzerQueryRules)) {
+      stop();
+      reusableAnalyzerParameters = this.parameters;
+      reusableAnalyzerQueryRules = this.queryRules;
+      reusableAnalyzer = create(platform);
+    }
+    task.run(reusableAnalyzer);
+  }
+
+  @Override
+  public void start() {
+    // Analyzers are created on demand
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (reusableAnalyzer != null) {
+      reusableAnalyzer.close();
+      reusableAnalyzer = null;
+    }
+  }
+
+  /**
+   * Sets the parameters of the analyzers created next. They replace the ones of the previous analysis, and are copied so
+   * that an analyzer is always created with the snapshot of a single analysis.
+   */
+  public void setParameters(Map<String, String> parameters) {
+    this.parameters = Collections.unmodifiableMap(new HashMap<>(parameters));
+  }
+
+  public void setQueryRules(List<RustQueryRule> queryRules) {
+    this.queryRules = List.copyOf(queryRules);
+  }
+
+  @FunctionalInterface
+  interface AnalyzerTask {
+    void run(Analyzer analyzer) throws IOException, InterruptedException;
   }
 
   static String pathInJar(Platform platform) {
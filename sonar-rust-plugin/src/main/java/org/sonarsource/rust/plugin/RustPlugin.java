@@ -17,12 +17,15 @@
 package org.sonarsource.rust.plugin;
 
 import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.clippy.ClippyBackgroundRun;
 import org.sonarsource.rust.clippy.ClippyReportSensor;
 import org.sonarsource.rust.clippy.ClippyRulesDefinition;
 import org.sonarsource.rust.clippy.ClippySensor;
+import org.sonarsource.rust.common.LocalResultCache;
 import org.sonarsource.rust.coverage.CoberturaSensor;
 import org.sonarsource.rust.coverage.LcovSensor;
 import org.sonar.api.Plugin;
+import org.sonar.api.PropertyType;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.config.PropertyDefinition.ConfigScope;
 
@@ -31,6 +34,7 @@ public class RustPlugin implements Plugin {
   public static final String FAIL_FAST_PROPERTY = "sonar.internal.analysis.rust.failFast";
   public static final String CATEGORY_RUST = "Rust";
   public static final String SUBCATEGORY_CLIPPY = "Clippy";
+  public static final String SUBCATEGORY_PERFORMANCE = "Performance";
 
   @Override
   public void define(Context context) {
@@ -38,6 +42,7 @@ public class RustPlugin implements Plugin {
       // keep sorted alphabetically
       AnalysisWarningsWrapper.class,
       AnalyzerFactory.class,
+      ClippyBackgroundRun.class,
       ClippyRulesDefinition.class,
       ClippyReportSensor.class,
       ClippySensor.class,
@@ -76,6 +81,77 @@ public class RustPlugin implements Plugin {
         .multiValues(true)
         .build());
 
+    // Exclusion of generated files
+    context.addExtension(
+      PropertyDefinition
+        .builder(RustSensor.EXCLUDE_GENERATED_FILES)
+        .category(CATEGORY_RUST)
+        .subCategory("Analysis Scope")
+        .name("Exclude generated files")
+        .description("Whether to skip the files located in Cargo target directories, and the files whose header contains "
+          + "an <code>@generated</code> or \"automatically generated\" marker.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("true")
+        .build());
+
+    // -------------------- PERFORMANCE --------------------
+
+    // Size threshold for intra-file parallel analysis
+    context.addExtension(
+      PropertyDefinition
+        .builder(RustSensor.PARALLEL_FILE_SIZE_THRESHOLD)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_PERFORMANCE)
+        .name("Parallel analysis file size threshold")
+        .description("Size in kilobytes above which highlighting, metrics, duplication and rules are computed in parallel "
+          + "for a single file. Parallel analysis is disabled when the value is 0.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .build());
+
+    // Pipelined analysis
+    context.addExtension(
+      PropertyDefinition
+        .builder(RustSensor.PIPELINE_ENABLED)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_PERFORMANCE)
+        .name("Pipelined analysis")
+        .description("Whether to read the next files and save the analysis results concurrently with the analysis of "
+          + "the current file. The results are the same as with a sequential analysis.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("true")
+        .build());
+
+    // Local cache of analysis results
+    context.addExtension(
+      PropertyDefinition
+        .builder(LocalResultCache.CACHE_DIR)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_PERFORMANCE)
+        .name("Local cache directory")
+        .description("Directory where the analysis results of files and the Clippy diagnostics of crates are stored and "
+          + "reused by the next analyses, e.g. on CI runners that keep a workspace cache between jobs. Relative paths are "
+          + "resolved from the project base directory. The local cache is disabled when no directory is set.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.STRING)
+        .build());
+
+    // Maximum size of the local cache
+    context.addExtension(
+      PropertyDefinition
+        .builder(LocalResultCache.CACHE_MAX_SIZE)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_PERFORMANCE)
+        .name("Local cache maximum size")
+        .description("Size in megabytes above which the least recently used results are removed from the local cache.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.INTEGER)
+        .defaultValue(String.valueOf(LocalResultCache.DEFAULT_CACHE_MAX_SIZE))
+        .build());
+
     // -------------------- CLIPPY --------------------
 
     // Clippy report paths
@@ -114,6 +190,85 @@ public class RustPlugin implements Plugin {
         .defaultValue("false")
         .build());
 
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_CHANGED_PACKAGES_ONLY)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Execute Clippy on changed packages only")
+        .description("Whether to lint only the workspace packages containing changed files, and the packages depending on "
+          + "them, on pull requests. All packages are linted when a changed file does not belong to a package.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .build());
+
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_PARALLELISM)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Clippy parallelism")
+        .description("Maximum number of Clippy processes running at the same time when the project contains several "
+          + "independent Cargo workspaces. Each Clippy process compiles its workspace, so it also uses several CPU cores.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.INTEGER)
+        .defaultValue("1")
+        .build());
+
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_TIMEOUT)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Clippy timeout")
+        .description("Maximum duration in seconds of a Clippy run. When it is reached, Cargo and the compilers it started are "
+          + "stopped, and only the issues found so far are reported. Use 0 to wait until Clippy finishes.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.INTEGER)
+        .defaultValue("0")
+        .build());
+
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_BACKGROUND)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Run Clippy in the background")
+        .description("Start Clippy when the Rust analysis starts, instead of after it, so that both run at the same time. "
+          + "The issues found by Clippy are buffered until they are saved by the Clippy sensor.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .build());
+
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_TARGET_DIR)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Clippy target directory")
+        .description("Cargo target directory used by Clippy, relative to the project base directory if not absolute. Keeping "
+          + "it between analyses, e.g. in the cache of the CI, avoids building all the dependencies again. Each toolchain "
+          + "and each Cargo workspace uses its own subdirectory. By default, the target directory of each Cargo workspace is used.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.STRING)
+        .build());
+
+    context.addExtension(
+      PropertyDefinition
+        .builder(ClippySensor.CLIPPY_ALL_LINTS)
+        .category(CATEGORY_RUST)
+        .subCategory(SUBCATEGORY_CLIPPY)
+        .name("Run all Clippy lints")
+        .description("Always run the lints of all the Clippy rules, and ignore the issues of the rules which are not active. "
+          + "Since the lints do not change with the quality profile, the crates already checked by Clippy in the target "
+          + "directory are reused after a profile change, or by projects with other profiles sharing the directory.")
+        .onConfigScopes(ConfigScope.PROJECT)
+        .type(PropertyType.BOOLEAN)
+        .defaultValue("false")
+        .build());
+
     // -------------------- COVERAGE --------------------
 
     // LCOV report paths
@@ -100,6 +100,13 @@ public class RustRulesDefinition implements RulesDefinition {
     return RULE_KEY_TO_LINT_ID.get(ruleKey);
   }
 
+  /**
+   * Returns the lints of all the Clippy rules, sorted so that they always produce the same arguments.
+   */
+  public static List<String> clippyLintIds() {
+    return CLIPPY_RULES.keySet().stream().sorted().toList();
+  }
+
   public static String lintIdToMessage(String lintId) {
     return Optional.ofNullable(CLIPPY_RULES.get(lintId)).map(ClippyRule::message).orElse(null);
   }
@@ -18,14 +18,23 @@ package org.sonarsource.rust.plugin;
 
 import org.sonarsource.rust.plugin.PlatformDetection.Platform;
 import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.cargo.CargoTargetDirectories;
+import org.sonarsource.rust.clippy.ClippyBackgroundRun;
+import org.sonarsource.rust.clippy.ClippySensor;
+import org.sonarsource.rust.common.LocalResultCache;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.SonarProduct;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
@@ -38,23 +47,62 @@ import org.sonar.api.batch.sensor.highlighting.NewHighlighting;
 import org.sonar.api.batch.sensor.highlighting.TypeOfText;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.rule.RuleKey;
+import org.sonar.plugins.rust.api.RustQueryRule;
+import org.sonar.plugins.rust.api.RustRulesRepository;
 
 public class RustSensor implements Sensor {
 
   private static final Logger LOG = LoggerFactory.getLogger(RustSensor.class);
 
+  public static final String PARALLEL_FILE_SIZE_THRESHOLD = "sonar.rust.analysis.parallelFileSizeThreshold";
+  static final String PARALLEL_FILE_SIZE_THRESHOLD_PARAMETER = "analysis:parallelFileSizeThreshold";
+  public static final String EXCLUDE_GENERATED_FILES = "sonar.rust.analysis.excludeGeneratedFiles";
+  static final String SKIP_GENERATED_FILES_PARAMETER = "analysis:skipGeneratedFiles";
+  public static final String PIPELINE_ENABLED = "sonar.rust.analysis.pipeline.enabled";
+
   private final AnalyzerFactory analyzerFactory;
   private final PlatformDetection platformDetection;
   private final AnalysisWarningsWrapper analysisWarnings;
+  private final RustRulesRepository[] repositories;
+  @Nullable
+  private final ClippyBackgroundRun clippyBackgroundRun;
 
   public RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings) {
-    this(analyzerFactory, analysisWarnings, new PlatformDetection());
+    this(analyzerFactory, analysisWarnings, new RustRulesRepository[0]);
+  }
+
+  /**
+   * Used by the container when no plugin contributes rules, since it cannot provide an empty array of repositories.
+   */
+  public RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, ClippyBackgroundRun clippyBackgroundRun) {
+    this(analyzerFactory, analysisWarnings, new RustRulesRepository[0], clippyBackgroundRun);
+  }
+
+  public RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, RustRulesRepository[] repositories) {
+    this(analyzerFactory, analysisWarnings, repositories, new PlatformDetection());
+  }
+
+  public RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, RustRulesRepository[] repositories,
+    ClippyBackgroundRun clippyBackgroundRun) {
+    this(analyzerFactory, analysisWarnings, repositories, new PlatformDetection(), clippyBackgroundRun);
   }
 
   RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, PlatformDetection platformDetection) {
+    this(analyzerFactory, analysisWarnings, new RustRulesRepository[0], platformDetection);
+  }
+
+  RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, RustRulesRepository[] repositories,
+    PlatformDetection platformDetection) {
+    this(analyzerFactory, analysisWarnings, repositories, platformDetection, null);
+  }
+
+  RustSensor(AnalyzerFactory analyzerFactory, AnalysisWarningsWrapper analysisWarnings, RustRulesRepository[] repositories,
+    PlatformDetection platformDetection, @Nullable ClippyBackgroundRun clippyBackgroundRun) {
     this.analyzerFactory = analyzerFactory;
     this.platformDetection = platformDetection;
     this.analysisWarnings = analysisWarnings;
+    this.repositories = repositories;
+    this.clippyBackgroundRun = clippyBackgroundRun;
   }
 
   @Override
@@ -66,10 +114,32 @@ public class RustSensor implements Sensor {
 
   @Override
   public void execute(SensorContext sensorContext) {
+    if (clippyBackgroundRun != null) {
+      // Clippy builds the crates while the analyzer runs, its issues are saved by the Clippy sensor
+      clippyBackgroundRun.start(sensorContext);
+    }
     var manifests = CargoManifestProvider.getManifests(sensorContext);
     Telemetry.reportDependencies(sensorContext, manifests.stream().map(File::toPath).toList());
 
     List<InputFile> inputFiles = inputFiles(sensorContext);
+    boolean excludeGeneratedFiles = sensorContext.config().getBoolean(EXCLUDE_GENERATED_FILES).orElse(true);
+    if (excludeGeneratedFiles) {
+      // Sources generated by build scripts (bindgen, prost, ...) are written to the Cargo target directories
+      var baseDir = sensorContext.fileSystem().baseDir().toPath();
+      var targetDirectories = CargoTargetDirectories.resolve(manifests, System.getenv(CargoTargetDirectories.CARGO_TARGET_DIR_ENV), baseDir);
+      // The target directory of Clippy may be in the project as well
+      sensorContext.config().get(ClippySensor.CLIPPY_TARGET_DIR)
+        .filter(dir -> !dir.isBlank())
+        .ifPresent(dir -> targetDirectories.add(baseDir.resolve(dir).toAbsolutePath().normalize()));
+      var projectFiles = inputFiles.stream()
+        .filter(inputFile -> !CargoTargetDirectories.isInTargetDirectory(inputFile.path(), targetDirectories))
+        .toList();
+      if (projectFiles.size() < inputFiles.size()) {
+        LOG.info("{} file(s) skipped in Cargo target directories", inputFiles.size() - projectFiles.size());
+      }
+      inputFiles = projectFiles;
+    }
+
     var platform = platformDetection.detect();
     if (platform == Platform.UNSUPPORTED) {
       String msg = "Unsupported platform for Rust analysis: " + platformDetection.debug();
@@ -90,12 +160,51 @@ public class RustSensor implements Sensor {
         parameters.put(String.format("%s:%s", activeRule.ruleKey().rule(), parameter.getKey()), parameter.getValue());
       }
     }
-    analyzerFactory.addParameters(parameters);
+    // Size (in kilobytes) above which the analyzer runs its passes over a file in parallel
+    sensorContext.config().getLong(PARALLEL_FILE_SIZE_THRESHOLD)
+      .filter(threshold -> threshold > 0)
+      .ifPresent(threshold -> parameters.put(PARALLEL_FILE_SIZE_THRESHOLD_PARAMETER, String.valueOf(threshold * 1024)));
+    // Files whose header marks them as generated are detected by the analyzer
+    parameters.put(SKIP_GENERATED_FILES_PARAMETER, String.valueOf(excludeGeneratedFiles));
+    var queryRules = activeQueryRules(sensorContext);
 
-    try (Analyzer analyzer = analyzerFactory.create(platform)) {
-      for (InputFile inputFile : inputFiles) {
-        analyzeFile(analyzer, sensorContext, inputFile);
+    try {
+      if (sensorContext.runtime().getProduct() == SonarProduct.SONARLINT) {
+        // The analyzer process is kept between analyses, to analyze documents incrementally
+        var files = inputFiles;
+        analyzerFactory.withReusableAnalyzer(platform, parameters, queryRules, analyzer -> {
+          for (InputFile inputFile : files) {
+            analyzeFile(sensorContext, inputFile, () -> analyzer.analyzeDocument(inputFile.uri().toASCIIString(), inputFile.contents()));
+          }
+        });
+      } else {
+        analyzerFactory.setParameters(parameters);
+        analyzerFactory.setQueryRules(queryRules);
+        try (Analyzer analyzer = analyzerFactory.create(platform)) {
+          var summary = new Summary();
+          var cache = new AnalysisResultCache(sensorContext, LocalResultCache.fromConfiguration(sensorContext), AnalysisResultCache.analyzerVersion(),
+            AnalysisResultCache.configurationHash(parameters, queryRules));
+          // Measures and duplications are not used for test files, the analyzer skips them
+          AnalysisPipeline.Analysis<AnalysisResultCache.Entry> analysis = (inputFile, code) -> cache.analyze(inputFile, code,
+            () -> inputFile.type() == InputFile.Type.TEST ? analyzer.analyzeTest(code) : analyzer.analyze(code));
+          // Byte-identical files, e.g. vendored crates, are analyzed once and the result is saved on each of them
+          AnalysisPipeline.Saver<AnalysisResultCache.Entry> saver = (inputFile, entry) -> {
+            saveResult(sensorContext, inputFile, entry.result());
+            cache.write(entry);
+            summary.add(inputFile, entry.result());
+          };
+          if (sensorContext.config().getBoolean(PIPELINE_ENABLED).orElse(true)) {
+            AnalysisPipeline.run(inputFiles, RustSensor::utf8Contents, analysis, saver);
+          } else {
+            AnalysisPipeline.runSequentially(inputFiles, RustSensor::utf8Contents, analysis, saver);
+          }
+          summary.log();
+          cache.finish();
+        }
       }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Rust analysis was interrupted", ex);
     } catch (Exception ex) {
       LOG.error("Failed to create Rust analyzer: {}", ex.getMessage());
       analysisWarnings.addUnique("Failed to create Rust analyzer: " + ex.getMessage());
@@ -103,25 +212,159 @@ public class RustSensor implements Sensor {
     }
   }
 
+  /**
+   * Query rules contributed by other plugins which are active in the quality profile, with their rule parameters resolved.
+   */
+  private List<RustQueryRule> activeQueryRules(SensorContext sensorContext) {
+    List<RustQueryRule> queryRules = new ArrayList<>();
+    for (RustRulesRepository repository : repositories) {
+      for (RustQueryRule queryRule : repository.queryRules()) {
+        RuleKey ruleKey;
+        try {
+          ruleKey = RuleKey.parse(queryRule.ruleKey());
+        } catch (IllegalArgumentException e) {
+          LOG.warn("Invalid key of query rule: {}. Reason: {}", queryRule.ruleKey(), e.getMessage());
+          continue;
+        }
+        var activeRule = sensorContext.activeRules().find(ruleKey);
+        if (activeRule != null) {
+          queryRules.add(new RustQueryRule(
+            queryRule.ruleKey(),
+            resolveQueryParameters(queryRule.query(), activeRule.params()),
+            resolveParameters(queryRule.message(), activeRule.params())));
+        }
+      }
+    }
+    if (!queryRules.isEmpty()) {
+      LOG.debug("Executing {} contributed query rules", queryRules.size());
+    }
+    return queryRules;
+  }
+
+  /**
+   * Replaces the {key} placeholders of a query by the values of the rule parameters. Values are escaped in string
+   * literals, so that a quote or a backslash is matched as such instead of ending the literal. Comments are left as is.
+   */
+  static String resolveQueryParameters(String query, Map<String, String> parameters) {
+    var result = new StringBuilder();
+    boolean inString = false;
+    int i = 0;
+    while (i < query.length()) {
+      char c = query.charAt(i);
+      int placeholderEnd = c == '{' ? query.indexOf('}', i) : -1;
+      String value = placeholderEnd < 0 ? null : parameters.get(query.substring(i + 1, placeholderEnd));
+      if (value != null) {
+        result.append(inString ? escapeQueryString(value) : value);
+        i = placeholderEnd + 1;
+      } else if (inString && c == '\\' && i + 1 < query.length()) {
+        result.append(c).append(query.charAt(i + 1));
+        i += 2;
+      } else if (!inString && c == ';') {
+        int lineEnd = query.indexOf('\n', i);
+        int commentEnd = lineEnd < 0 ? query.length() : lineEnd;
+        result.append(query, i, commentEnd);
+        i = commentEnd;
+      } else {
+        if (c == '"') {
+          inString = !inString;
+        }
+        result.append(c);
+        i++;
+      }
+    }
+    return result.toString();
+  }
+
+  private static String escapeQueryString(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  private static String resolveParameters(String text, Map<String, String> parameters) {
+    String result = text;
+    for (var parameter : parameters.entrySet()) {
+      result = result.replace("{" + parameter.getKey() + "}", parameter.getValue());
+    }
+    return result;
+  }
+
   private static void failFastCheck(SensorContext sensorContext, Exception ex) {
     if (sensorContext.config().getBoolean(RustPlugin.FAIL_FAST_PROPERTY).orElse(false)) {
       throw new IllegalStateException("Analysis failed", ex);
     }
   }
 
-  private static void analyzeFile(Analyzer analyzer, SensorContext sensorContext, InputFile inputFile) {
+  private static void analyzeFile(SensorContext sensorContext, InputFile inputFile, FileAnalysis analysis) {
     try {
-      var result = analyzer.analyze(inputFile.contents());
+      saveResult(sensorContext, inputFile, analysis.run());
+    } catch (IOException ex) {
+      LOG.error("Failed to analyze file: {}. Reason: {}", inputFile.filename(), ex.getMessage());
+    }
+  }
+
+  private static void saveResult(SensorContext sensorContext, InputFile inputFile, Analyzer.AnalysisResult result) {
+    if (result.skipReason() != null) {
+      LOG.debug("Skipped file {}: {}", inputFile, result.skipReason());
+      return;
+    }
 
+    if (!result.skippedPasses().contains(Analyzer.METRICS_PASS)) {
       saveMeasures(sensorContext, inputFile, result.measures());
-      saveHighlighting(sensorContext, inputFile, result.highlightTokens());
+    }
+    saveHighlighting(sensorContext, inputFile, result.highlightTokens());
+    if (!result.skippedPasses().contains(Analyzer.CPD_PASS)) {
       saveCPD(sensorContext, inputFile, result.cpdTokens());
+    }
+    // Issues of unchanged files are copied from the previous analysis by the scanner
+    if (!sensorContext.canSkipUnchangedFiles() || inputFile.status() != InputFile.Status.SAME) {
       saveIssues(sensorContext, inputFile, result.issues());
-    } catch (IOException ex) {
-      LOG.error("Failed to analyze file: {}. Reason: {}", inputFile.filename(), ex.getMessage());
     }
   }
 
+  /**
+   * Returns the content of the file encoded in UTF-8. The bytes of UTF-8 files, i.e. almost all Rust files, are read as
+   * is, without decoding them into a string first: the analyzer replaces invalid sequences, as decoding them would. Files
+   * in other charsets are transcoded.
+   */
+  static byte[] utf8Contents(InputFile inputFile) throws IOException {
+    if (StandardCharsets.UTF_8.equals(inputFile.charset())) {
+      // The input stream skips the byte order mark, if any
+      try (InputStream stream = inputFile.inputStream()) {
+        return stream.readAllBytes();
+      }
+    }
+    return inputFile.contents().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Counts the files that were analyzed partially or skipped by the analyzer. Only updated by the thread saving results.
+   */
+  private static class Summary {
+    private int testFiles;
+    private int generatedFiles;
+
+    void add(InputFile inputFile, Analyzer.AnalysisResult result) {
+      if (result.skipReason() != null) {
+        generatedFiles++;
+      } else if (inputFile.type() == InputFile.Type.TEST) {
+        testFiles++;
+      }
+    }
+
+    void log() {
+      if (testFiles > 0) {
+        LOG.info("{} test file(s) analyzed without computing measures and duplications", testFiles);
+      }
+      if (generatedFiles > 0) {
+        LOG.info("{} generated file(s) skipped", generatedFiles);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface FileAnalysis {
+    Analyzer.AnalysisResult run() throws IOException;
+  }
+
   private static List<InputFile> inputFiles(SensorContext sensorContext) {
     FileSystem fileSystem = sensorContext.fileSystem();
     FilePredicate predicate = fileSystem.predicates().hasLanguage(RustLanguage.KEY);
@@ -173,6 +416,14 @@ public class RustSensor implements Sensor {
     newCpdTokens.save();
   }
 
+  /**
+   * Built-in rules are reported with their rule id only, while contributed query rules are reported with their
+   * fully-qualified key.
+   */
+  private static RuleKey ruleKey(String key) {
+    return key.indexOf(':') >= 0 ? RuleKey.parse(key) : RuleKey.of(RustLanguage.KEY, key);
+  }
+
   private static void saveIssues(SensorContext sensorContext, InputFile inputFile, List<Analyzer.Issue> issues) {
     for (var issue : issues) {
       try {
@@ -182,7 +433,7 @@ public class RustSensor implements Sensor {
           .at(inputFile.newRange(issue.location().startLine(), issue.location().startColumn(), issue.location().endLine(), issue.location().endColumn()))
           .message(issue.message());
         newIssue
-          .forRule(RuleKey.of(RustLanguage.KEY, issue.ruleKey()))
+          .forRule(ruleKey(issue.ruleKey()))
           .at(location);
 
         for (var secondaryLocation : issue.secondaryLocations()) {
@@ -0,0 +1,169 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Finds the files whose contents are byte-identical, such as the copies of vendored crates, so that each distinct content
+ * is analyzed only once. The analysis results only contain line and column positions, so they can be saved on every
+ * file with the same content.
+ * <p>
+ * Contents are hashed by the stage of the {@link AnalysisPipeline} reading them, from the bytes read for the analysis.
+ * Only files with the same size, type and charset as another file can have the same content: the other files are not
+ * hashed, and the results of the candidates are only kept until all the files of their size were saved.
+ */
+class SameContentFiles<R> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SameContentFiles.class);
+
+  /** Size of the files whose size cannot be read, they are all candidates. */
+  private static final long UNKNOWN_SIZE = -1;
+
+  /** Files which may have the same content as another file. Read-only once created. */
+  private final Map<InputFile, Candidate> candidates = new HashMap<>();
+  /** Contents analyzed so far, and the number of files not analyzed again. Only used by the analysis stage. */
+  private final Set<Key> analyzed = new HashSet<>();
+  private int duplicates;
+  /** Number of candidates of each size, type and charset which were not saved yet. Only used by the saving stage. */
+  private final Map<Candidate, Integer> unsaved = new HashMap<>();
+  /** Results of the candidates saved so far, by size, type and charset, then by content. Only used by the saving stage. */
+  private final Map<Candidate, Map<String, R>> results = new HashMap<>();
+
+  SameContentFiles(List<InputFile> inputFiles) {
+    Map<InputFile, Candidate> all = new HashMap<>();
+    Map<Candidate, Integer> counts = new HashMap<>();
+    for (InputFile inputFile : inputFiles) {
+      // Files are only grouped with files of the same type and charset, since both change how they are analyzed
+      var candidate = new Candidate(inputFile.type(), inputFile.charset(), size(inputFile));
+      all.put(inputFile, candidate);
+      counts.merge(candidate, 1, Integer::sum);
+    }
+    all.forEach((inputFile, candidate) -> {
+      int count = counts.get(candidate);
+      if (count > 1) {
+        candidates.put(inputFile, candidate);
+        unsaved.put(candidate, count);
+      }
+    });
+  }
+
+  /**
+   * Returns the key of the content of a file, or null when no other file can have the same content. Called by the stage
+   * reading files.
+   */
+  @Nullable
+  Key key(InputFile inputFile, byte[] content) {
+    Candidate candidate = candidates.get(inputFile);
+    return candidate == null ? null : new Key(candidate, contentHash(content));
+  }
+
+  /**
+   * Whether a file with the same content was analyzed successfully. Called by the analysis stage.
+   */
+  boolean isAnalyzed(@Nullable Key key) {
+    if (key != null && analyzed.contains(key)) {
+      duplicates++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Called by the analysis stage once a file was analyzed successfully.
+   */
+  void analyzed(@Nullable Key key) {
+    if (key != null) {
+      analyzed.add(key);
+    }
+  }
+
+  /**
+   * Returns the result of the file with the same content saved before, or null once all the files of the same size were
+   * saved. Called by the saving stage.
+   */
+  @Nullable
+  R result(Key key) {
+    var candidateResults = results.get(key.candidate());
+    return candidateResults == null ? null : candidateResults.get(key.hash());
+  }
+
+  /**
+   * Remembers the result of a file for the next files with the same content, until all the files of the same size were
+   * saved. Called by the saving stage for every file, with a null result when its analysis failed.
+   */
+  void saved(InputFile inputFile, @Nullable Key key, @Nullable R result) {
+    Candidate candidate = candidates.get(inputFile);
+    if (candidate == null) {
+      return;
+    }
+    if (unsaved.merge(candidate, -1, Integer::sum) == 0) {
+      unsaved.remove(candidate);
+      results.remove(candidate);
+    } else if (key != null && result != null) {
+      results.computeIfAbsent(candidate, c -> new HashMap<>()).putIfAbsent(key.hash(), result);
+    }
+  }
+
+  void log() {
+    if (duplicates > 0) {
+      LOG.info("{} file(s) with the same content as another file are not analyzed again", duplicates);
+    }
+  }
+
+  private static long size(InputFile inputFile) {
+    try {
+      return Files.size(inputFile.path());
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to read the size of {}: {}", inputFile, e.getMessage());
+      return UNKNOWN_SIZE;
+    }
+  }
+
+  static String contentHash(byte[] content) {
+    return HexFormat.of().formatHex(sha256().digest(content));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every implementation of the Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private record Candidate(InputFile.Type type, Charset charset, long size) {
+  }
+
+  record Key(Candidate candidate, String hash) {
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.sonar.api.batch.sensor.cache.ReadCache;
+import org.sonar.api.batch.sensor.cache.WriteCache;
+
+/**
+ * Analysis cache reading the entries of a previous analysis and recording the entries of the current one.
+ */
+public class TestCache implements ReadCache, WriteCache {
+
+  public final Map<String, byte[]> previous;
+  public final Map<String, byte[]> next = new HashMap<>();
+  public final List<String> copied = new ArrayList<>();
+
+  public TestCache(Map<String, byte[]> previous) {
+    this.previous = previous;
+  }
+
+  @Override
+  public InputStream read(String key) {
+    return new ByteArrayInputStream(previous.get(key));
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return previous.containsKey(key);
+  }
+
+  @Override
+  public void write(String key, InputStream data) {
+    try {
+      write(key, data.readAllBytes());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void write(String key, byte[] data) {
+    if (next.putIfAbsent(key, data) != null) {
+      throw new IllegalArgumentException("Cache already contains key '" + key + "'");
+    }
+  }
+
+  @Override
+  public void copyFromPrevious(String key) {
+    write(key, previous.get(key));
+    copied.add(key);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.cargo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.sonarsource.rust.common.ProcessWrapper;
+
+class CargoMetadataTest {
+
+  // language=JSON
+  private static final String METADATA = """
+    {
+      "packages": [
+        {
+          "name": "app",
+          "version": "0.1.0",
+          "id": "path+file:///ws/app#0.1.0",
+          "manifest_path": "/ws/app/Cargo.toml",
+          "dependencies": [
+            { "name": "core", "source": null, "req": "*", "kind": null, "path": "/ws/core" },
+            { "name": "serde", "source": "registry+https://github.com/rust-lang/crates.io-index", "req": "^1" }
+          ],
+          "targets": [ { "kind": ["bin"], "name": "app", "src_path": "/ws/app/src/main.rs" } ]
+        },
+        {
+          "name": "core",
+          "version": "0.1.0",
+          "id": "path+file:///ws/core#0.1.0",
+          "manifest_path": "/ws/core/Cargo.toml",
+          "dependencies": []
+        },
+        {
+          "name": "excluded",
+          "version": "0.1.0",
+          "id": "path+file:///ws/excluded#0.1.0",
+          "manifest_path": "/ws/excluded/Cargo.toml"
+        }
+      ],
+      "workspace_members": ["path+file:///ws/app#0.1.0", "path+file:///ws/core#0.1.0"],
+      "workspace_root": "/ws",
+      "target_directory": "/ws/target",
+      "version": 1
+    }
+    """;
+
+  @Test
+  void parse() {
+    var metadata = CargoMetadata.parse(METADATA);
+
+    assertThat(metadata.workspace_root()).isEqualTo("/ws");
+    assertThat(metadata.workspacePackages()).extracting(CargoMetadata.Package::name).containsExactly("app", "core");
+    var app = metadata.workspacePackages().get(0);
+    assertThat(app.directory()).isEqualTo(Path.of("/ws/app").toAbsolutePath());
+    assertThat(app.dependencies()).containsExactly(new CargoMetadata.Dependency("core", "/ws/core"), new CargoMetadata.Dependency("serde", null));
+    assertThat(metadata.packages().get(2).dependencies()).isEmpty();
+  }
+
+  @Test
+  void parseEmpty() {
+    assertThatThrownBy(() -> CargoMetadata.parse("")).isInstanceOf(IllegalStateException.class);
+    assertThat(CargoMetadata.parse("{}").workspacePackages()).isEmpty();
+  }
+
+  @Test
+  void run() throws Exception {
+    var processWrapper = mock(ProcessWrapper.class);
+    doAnswer(invocation -> {
+      Consumer<String> outputConsumer = invocation.getArgument(2);
+      METADATA.lines().forEach(outputConsumer);
+      return null;
+    }).when(processWrapper).start(any(), any(), any(), any());
+    when(processWrapper.waitFor()).thenReturn(0);
+
+    var metadata = new CargoMetadataRunner(processWrapper).run(Path.of("ws"));
+
+    verify(processWrapper).start(eq(List.of("cargo", "metadata", "--format-version", "1", "--no-deps")), eq(Path.of("ws")), any(), any());
+    assertThat(metadata.workspacePackages()).hasSize(2);
+  }
+
+  @Test
+  void runFailure() throws Exception {
+    var processWrapper = mock(ProcessWrapper.class);
+    when(processWrapper.waitFor()).thenReturn(101);
+
+    var runner = new CargoMetadataRunner(processWrapper);
+    assertThatThrownBy(() -> runner.run(Path.of("ws")))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Cargo metadata failed with exit code 101");
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.cargo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CargoTargetDirectoriesTest {
+
+  @TempDir
+  Path baseDir;
+
+  @Test
+  void testTargetDirectoriesOfManifests() {
+    var manifests = List.of(baseDir.resolve("Cargo.toml").toFile(), baseDir.resolve("crates/foo/Cargo.toml").toFile());
+
+    var targetDirectories = CargoTargetDirectories.resolve(manifests, null, baseDir);
+
+    assertThat(targetDirectories).containsExactly(baseDir.resolve("target"), baseDir.resolve("crates/foo/target"));
+  }
+
+  @Test
+  void testCargoTargetDir() {
+    assertThat(CargoTargetDirectories.resolve(List.of(), "build/cargo", baseDir))
+      .containsExactly(baseDir.resolve("build/cargo"));
+    assertThat(CargoTargetDirectories.resolve(List.of(), "/tmp/cargo-target", baseDir))
+      .containsExactly(Path.of("/tmp/cargo-target").toAbsolutePath());
+    assertThat(CargoTargetDirectories.resolve(List.of(), " ", baseDir)).isEmpty();
+  }
+
+  @Test
+  void testIsInTargetDirectory() {
+    var targetDirectories = CargoTargetDirectories.resolve(List.of(baseDir.resolve("Cargo.toml").toFile()), null, baseDir);
+
+    assertThat(CargoTargetDirectories.isInTargetDirectory(baseDir.resolve("target/debug/build/foo/out/bindings.rs"), targetDirectories))
+      .isTrue();
+    assertThat(CargoTargetDirectories.isInTargetDirectory(baseDir.resolve("src/main.rs"), targetDirectories)).isFalse();
+    assertThat(CargoTargetDirectories.isInTargetDirectory(baseDir.resolve("targets/main.rs"), targetDirectories)).isFalse();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonarsource.rust.cargo.CargoMetadata;
+
+class ChangedPackagesTest {
+
+  @TempDir
+  Path baseDir;
+
+  @Test
+  void changedPackagesAndTheirDependents() {
+    var metadata = metadata(
+      cargoPackage("app", "app", "core"),
+      cargoPackage("cli", "cli", "app"),
+      cargoPackage("core", "core"),
+      cargoPackage("other", "other"));
+
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("core/src/lib.rs")), Set.of())).containsExactly("core", "app", "cli");
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("app/src/main.rs")), Set.of())).containsExactly("app", "cli");
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("other/src/lib.rs"), inputFile("cli/build.rs")), Set.of()))
+      .containsExactly("other", "cli");
+  }
+
+  @Test
+  void packagesChangedOnTheDisk() {
+    var metadata = metadata(
+      cargoPackage("app", "app", "core"),
+      cargoPackage("core", "core"),
+      cargoPackage("other", "other"));
+
+    assertThat(ChangedPackages.find(metadata, List.of(), Set.of("core"))).containsExactly("core", "app");
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("other/src/lib.rs")), Set.of("app"))).containsExactly("other", "app");
+    // Packages which are not members of the workspace are ignored
+    assertThat(ChangedPackages.find(metadata, List.of(), Set.of("serde"))).isEmpty();
+  }
+
+  @Test
+  void nestedPackages() {
+    var metadata = metadata(cargoPackage("root", ""), cargoPackage("nested", "crates/nested"));
+
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("crates/nested/src/lib.rs")), Set.of())).containsExactly("nested");
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("src/main.rs")), Set.of())).containsExactly("root");
+  }
+
+  @Test
+  void noChangedFileInWorkspace() {
+    var metadata = new CargoMetadata(List.of(cargoPackage("app", "ws/app")), List.of("app"), baseDir.resolve("ws").toString());
+
+    assertThat(ChangedPackages.find(metadata, List.of(), Set.of())).isEmpty();
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("other/src/lib.rs")), Set.of())).isEmpty();
+  }
+
+  @Test
+  void ambiguousChangedFiles() {
+    var metadata = metadata(cargoPackage("app", "app"));
+
+    // The file belongs to the workspace, but not to one of its packages
+    assertThat(ChangedPackages.find(metadata, List.of(inputFile("app/src/main.rs"), inputFile("scripts/gen.rs")), Set.of())).isNull();
+    assertThat(ChangedPackages.find(new CargoMetadata(List.of(), List.of(), null), List.of(inputFile("app/src/main.rs")), Set.of())).isNull();
+  }
+
+  private CargoMetadata metadata(CargoMetadata.Package... packages) {
+    var members = List.of(packages).stream().map(CargoMetadata.Package::id).toList();
+    return new CargoMetadata(List.of(packages), members, baseDir.toString());
+  }
+
+  private CargoMetadata.Package cargoPackage(String name, String directory, String... pathDependencies) {
+    var dependencies = List.of(pathDependencies).stream()
+      .map(dependency -> new CargoMetadata.Dependency(dependency, baseDir.resolve(dependency).toString()))
+      .toList();
+    return new CargoMetadata.Package(name, name, baseDir.resolve(directory).resolve("Cargo.toml").toString(), dependencies);
+  }
+
+  private InputFile inputFile(String relativePath) {
+    return new TestInputFileBuilder("moduleKey", relativePath)
+      .setModuleBaseDir(baseDir)
+      .setStatus(InputFile.Status.CHANGED)
+      .build();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.sonar.api.batch.fs.InputFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClippyDiagnosticIndexTest {
+
+  private static final InputFile MAIN = new TestInputFileBuilder("moduleKey", "src/main.rs").build();
+  private static final InputFile LIB = new TestInputFileBuilder("moduleKey", "src/lib.rs").build();
+
+  @Test
+  void same_diagnostic_is_a_duplicate() {
+    var index = new ClippyDiagnosticIndex();
+    long key = ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 1, 2, 3, 4), MAIN);
+
+    assertThat(index.contains(key)).isFalse();
+    index.add(key);
+    assertThat(index.contains(key)).isTrue();
+    // The file name of the span does not matter, the resolved file does
+    assertThat(ClippyDiagnosticIndex.key(diagnostic("clippy::a", "../src/main.rs", 1, 2, 3, 4), MAIN)).isEqualTo(key);
+  }
+
+  @Test
+  void diagnostics_differing_by_lint_file_or_span_are_distinct() {
+    long key = ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 1, 2, 3, 4), MAIN);
+
+    assertThat(List.of(
+      ClippyDiagnosticIndex.key(diagnostic("clippy::b", "main.rs", 1, 2, 3, 4), MAIN),
+      ClippyDiagnosticIndex.key(diagnostic("clippy::a", "lib.rs", 1, 2, 3, 4), LIB),
+      ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 2, 2, 3, 4), MAIN),
+      ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 1, 3, 3, 4), MAIN),
+      ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 1, 2, 4, 4), MAIN),
+      ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", 1, 2, 3, 5), MAIN)))
+      .doesNotContain(key)
+      .doesNotHaveDuplicates();
+  }
+
+  @Test
+  void index_grows() {
+    var index = new ClippyDiagnosticIndex();
+    for (int line = 1; line <= 100_000; line++) {
+      long key = ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", line, 1, line, 2), MAIN);
+      assertThat(index.contains(key)).isFalse();
+      index.add(key);
+    }
+    for (int line = 1; line <= 100_000; line++) {
+      assertThat(index.contains(ClippyDiagnosticIndex.key(diagnostic("clippy::a", "main.rs", line, 1, line, 2), MAIN))).isTrue();
+    }
+    index.add(0);
+    assertThat(index.contains(0)).isTrue();
+  }
+
+  private static ClippyDiagnostic diagnostic(String lint, String file, int lineStart, int columnStart, int lineEnd, int columnEnd) {
+    return new ClippyDiagnostic("Cargo.toml", new ClippyMessage(
+      new ClippyCode(lint),
+      "message",
+      List.of(new ClippySpan(file, lineStart, columnStart, lineEnd, columnEnd))));
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClippyDiagnosticSpoolTest {
+
+  @TempDir
+  Path workDir;
+
+  @Test
+  void replayDiagnosticsKeptInMemory() throws IOException {
+    var diagnostics = diagnostics(3);
+    List<ClippyDiagnostic> replayed = new ArrayList<>();
+    try (var spool = new ClippyDiagnosticSpool(workDir, 3)) {
+      diagnostics.forEach(spool);
+      spool.replay(replayed::add);
+      assertThat(workDir).isEmptyDirectory();
+    }
+
+    assertThat(replayed).isEqualTo(diagnostics);
+  }
+
+  @Test
+  void replaySpilledDiagnosticsInOrder() throws IOException {
+    var diagnostics = diagnostics(5);
+    List<ClippyDiagnostic> replayed = new ArrayList<>();
+    try (var spool = new ClippyDiagnosticSpool(workDir, 2)) {
+      diagnostics.forEach(spool);
+      try (var files = Files.list(workDir)) {
+        assertThat(files).hasSize(1);
+      }
+      spool.replay(replayed::add);
+    }
+
+    assertThat(replayed).isEqualTo(diagnostics);
+    // The spill file is deleted when the spool is closed
+    assertThat(workDir).isEmptyDirectory();
+  }
+
+  private static List<ClippyDiagnostic> diagnostics(int count) {
+    return IntStream.range(0, count)
+      .mapToObj(i -> new ClippyDiagnostic("Cargo.toml", new ClippyMessage(
+        new ClippyCode("clippy::absurd_extreme_comparisons"),
+        "message " + i,
+        List.of(new ClippySpan("src/main.rs", i + 1, 1, i + 1, 4)))))
+      .toList();
+  }
+}
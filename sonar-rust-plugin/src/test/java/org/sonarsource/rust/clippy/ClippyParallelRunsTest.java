@@ -0,0 +1,95 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClippyParallelRunsTest {
+
+  @Test
+  void diagnostics_are_saved_by_the_calling_thread() throws InterruptedException {
+    var targets = IntStream.range(0, 10).boxed().toList();
+    var saved = new ArrayList<String>();
+    var savingThreads = new CopyOnWriteArrayList<Thread>();
+
+    ClippyParallelRuns.run(targets, 3, (target, consumer) -> {
+      for (int i = 0; i < 200; i++) {
+        consumer.accept(diagnostic("file" + target + ".rs"));
+      }
+    }, diagnostic -> {
+      savingThreads.add(Thread.currentThread());
+      saved.add(diagnostic.message().spans().get(0).file_name());
+    });
+
+    assertThat(saved).hasSize(2000);
+    assertThat(saved).filteredOn("file7.rs"::equals).hasSize(200);
+    assertThat(savingThreads).containsOnly(Thread.currentThread());
+  }
+
+  @Test
+  void runs_are_bounded_by_parallelism() throws InterruptedException {
+    var running = new AtomicInteger();
+    var maxRunning = new AtomicInteger();
+
+    ClippyParallelRuns.run(IntStream.range(0, 8).boxed().toList(), 2, (target, consumer) -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      running.decrementAndGet();
+    }, diagnostic -> {
+    });
+
+    assertThat(maxRunning.get()).isBetween(1, 2);
+  }
+
+  @Test
+  void first_failure_is_rethrown_and_pending_runs_are_skipped() {
+    var started = new CopyOnWriteArrayList<Integer>();
+    var saved = new ArrayList<ClippyDiagnostic>();
+
+    // A single thread runs the targets in order
+    assertThatThrownBy(() -> ClippyParallelRuns.run(List.of(0, 1, 2), 1, (target, consumer) -> {
+      started.add(target);
+      consumer.accept(diagnostic("main.rs"));
+      throw new IllegalStateException("Clippy failed with exit code 101");
+    }, saved::add))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Clippy failed with exit code 101");
+
+    assertThat(started).containsExactly(0);
+    // Diagnostics emitted before the failure are still saved, as in a sequential run
+    assertThat(saved).hasSize(1);
+  }
+
+  private static ClippyDiagnostic diagnostic(String file) {
+    return new ClippyDiagnostic("Cargo.toml", new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan(file, 1, 2, 1, 4))));
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import com.google.gson.JsonSyntaxException;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClippyReportParserTest {
+
+  @TempDir
+  Path temp;
+
+  @Test
+  void chunks_are_merged_in_report_order() throws IOException {
+    var report = temp.resolve("report.json");
+    Files.writeString(report, IntStream.range(0, 500)
+      .mapToObj(ClippyReportParserTest::line)
+      // Mixes line terminators and lines without diagnostics
+      .collect(Collectors.joining("\r\n", "", "\n{\"reason\":\"build-finished\",\"success\":true}\n")));
+
+    var parallel = new ArrayList<ClippyDiagnostic>();
+    ClippyReportParser.parse(report.toFile(), parallel::add, 1000, 4);
+
+    assertThat(parallel)
+      .hasSize(500)
+      .containsExactlyElementsOf(ClippyUtils.parse(report.toFile()));
+    assertThat(parallel.get(499).message().spans().get(0).file_name()).isEqualTo("src/file499.rs");
+  }
+
+  @Test
+  void small_reports_are_parsed_sequentially() throws IOException {
+    var report = temp.resolve("report.json");
+    Files.writeString(report, line(1));
+
+    var diagnostics = new ArrayList<ClippyDiagnostic>();
+    ClippyReportParser.parse(report.toFile(), diagnostics::add);
+
+    assertThat(diagnostics).hasSize(1);
+  }
+
+  @Test
+  void malformed_line_fails_the_report() throws IOException {
+    var report = temp.resolve("report.json");
+    var lines = IntStream.range(0, 100).mapToObj(ClippyReportParserTest::line).collect(Collectors.toCollection(ArrayList::new));
+    lines.set(80, "{\"message\": {\"code\": {\"code\": \"clippy::some_lint\"}");
+    Files.write(report, lines);
+
+    assertThatThrownBy(() -> ClippyReportParser.parse(report.toFile(), diagnostic -> {
+    }, 500, 4))
+      .isInstanceOf(IllegalStateException.class)
+      .hasCauseInstanceOf(JsonSyntaxException.class)
+      .hasMessageContaining("Failed to parse Clippy report");
+  }
+
+  @Test
+  void invalid_encoding_fails_the_report() throws IOException {
+    var report = temp.resolve("report.json");
+    var content = IntStream.range(0, 100).mapToObj(ClippyReportParserTest::line).collect(Collectors.joining("\n"));
+    var bytes = content.getBytes();
+    bytes[bytes.length - 10] = (byte) 0xFF;
+    Files.write(report, bytes);
+
+    assertThatThrownBy(() -> ClippyReportParser.parse(report.toFile(), diagnostic -> {
+    }, 500, 4))
+      .isInstanceOf(IllegalStateException.class)
+      .hasCauseInstanceOf(CharacterCodingException.class)
+      .hasMessageContaining("Failed to read Clippy report");
+  }
+
+  private static String line(int index) {
+    return "{\"reason\":\"compiler-message\",\"manifest_path\":\"/dir/Cargo.toml\",\"message\":{\"code\":{\"code\":\"clippy::some_lint\"},"
+      + "\"message\":\"message\",\"spans\":[{\"file_name\":\"src/file" + index + ".rs\",\"line_start\":1,\"column_start\":1,"
+      + "\"line_end\":1,\"column_end\":2}]}}";
+  }
+}
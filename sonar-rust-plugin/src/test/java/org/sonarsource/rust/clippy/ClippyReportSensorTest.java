@@ -257,6 +257,48 @@ class ClippyReportSensorTest {
     Files.delete(tempFile);
   }
 
+  @Test
+  void testImportCountersAreLoggedPerReport() throws IOException {
+    logTester.setLevel(Level.INFO);
+    var warnings = new TestAnalysisWarnigs();
+    var manifestPath = baseDir.resolve("Cargo.toml");
+    var json = String.join(System.lineSeparator(),
+      """
+        {"manifest_path":"%s","message":{"code":{"code":"clippy::approx_constant"},"message":"approximate value",\
+        "spans":[{"file_name":"src/main.rs","column_end":17,"column_start":13,"line_end":2,"line_start":2}]}}""",
+      // Emitted again for another target of the crate
+      """
+        {"manifest_path":"%s","message":{"code":{"code":"clippy::approx_constant"},"message":"approximate value",\
+        "spans":[{"file_name":"src/main.rs","column_end":17,"column_start":13,"line_end":2,"line_start":2}]}}""",
+      """
+        {"manifest_path":"%s","message":{"code":{"code":"clippy::approx_constant"},"message":"approximate value",\
+        "spans":[{"file_name":"src/unknown.rs","column_end":17,"column_start":13,"line_end":2,"line_start":2}]}}""",
+      """
+        {"manifest_path":"%s","message":{"code":{"code":"clippy::unknown_rule"},"message":"unknown",\
+        "spans":[{"file_name":"src/main.rs","column_end":17,"column_start":13,"line_end":2,"line_start":2}]}}""")
+      .replace("%s", manifestPath.toString());
+    var tempFile = Files.createTempFile(baseDir, "clippy_report", ".json");
+    Files.writeString(tempFile, json);
+
+    var context = SensorContextTester.create(baseDir);
+    context.settings().setProperty(ClippyReportSensor.CLIPPY_REPORT_PATHS, tempFile.toString());
+    context.fileSystem().add(
+      new TestInputFileBuilder("moduleKey", "src/main.rs")
+      .setLanguage(RustLanguage.KEY)
+      .setContents("fn main() {\n    let x = 3.14;\n}\n")
+      .build());
+
+    sensor(warnings).execute(context);
+
+    assertThat(context.allExternalIssues()).hasSize(1);
+    assertThat(warnings.warnings).containsExactly(UNKNOWN_FILE_WARNING);
+    assertThat(logTester.logs(Level.INFO)).contains(
+      "Clippy report %s: 1 diagnostic(s) imported, 1 duplicate(s), 1 with an unknown rule, 1 on an unknown file, 0 failed"
+        .formatted(tempFile));
+
+    Files.delete(tempFile);
+  }
+
   @Test
   void testSaveIssueWithValidDiagnostic() throws IOException {
     var warnings = new TestAnalysisWarnigs();
@@ -23,6 +23,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,13 +31,24 @@ import org.sonarsource.rust.common.ProcessWrapper;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.event.Level;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 
 class ClippyRunnerTest {
 
+    @RegisterExtension
+    LogTesterJUnit5 logTester = new LogTesterJUnit5().setLevel(Level.INFO);
+
+    private static final ClippyRunner.Options ONLINE = new ClippyRunner.Options(false, null, null);
+    private static final ClippyRunner.Options OFFLINE = new ClippyRunner.Options(true, null, null);
+
     // language=JSON
     private static final String CLIPPY_MESSAGE = """
       {
@@ -115,7 +127,7 @@ class ClippyRunnerTest {
       when(processWrapper.waitFor()).thenReturn(0);
       ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
       List<ClippyDiagnostic>  diagnostics = new ArrayList<>();
-      clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add, false);
+      clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add, ONLINE);
       verify(processWrapper).start(
         eq(List.of("cargo", "clippy", "--quiet", "--message-format=json", "--", "-A", "clippy::all", "-Wclippy::some_lint")),
         eq(Path.of("path/workdir")), any(), any());
@@ -134,7 +146,7 @@ class ClippyRunnerTest {
       when(processWrapper.waitFor()).thenReturn(0);
       ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
       List<ClippyDiagnostic>  diagnostics = new ArrayList<>();
-      clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add, true);
+      clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add, OFFLINE);
       verify(processWrapper).start(
         eq(List.of("cargo", "clippy", "--quiet", "--message-format=json", "--offline", "--", "-A", "clippy::all", "-Wclippy::some_lint")),
         eq(Path.of("path/workdir")), any(), any());
@@ -142,22 +154,100 @@ class ClippyRunnerTest {
       assertThat(diagnostics.get(0).lintId()).isEqualTo("clippy::absolute_paths");
     }
 
+    @Test
+    void test_packages() throws Exception {
+      ProcessWrapper processWrapper = mock(ProcessWrapper.class);
+      when(processWrapper.waitFor()).thenReturn(0);
+      ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
+      clippyRunner.run(Path.of("path/workdir"), List.of("core", "app"), List.of("clippy::some_lint"), d -> {}, ONLINE);
+      verify(processWrapper).start(
+        eq(List.of("cargo", "clippy", "--quiet", "--message-format=json", "-p", "core", "-p", "app", "--", "-A", "clippy::all",
+          "-Wclippy::some_lint")),
+        eq(Path.of("path/workdir")), any(), any());
+    }
+
     @Test
     void testExitValue() throws Exception {
       ProcessWrapper processWrapper = mock(ProcessWrapper.class);
       when(processWrapper.getInputStream()).thenReturn(new ByteArrayInputStream("".getBytes()));
       when(processWrapper.waitFor()).thenReturn(1);
       ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
-      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, false))
+      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, ONLINE))
         .isInstanceOf(IllegalStateException.class).hasMessage("Clippy failed with exit code 1");
     }
 
+    @Test
+    void test_timeout() throws Exception {
+      ProcessWrapper processWrapper = mock(ProcessWrapper.class);
+      doAnswer(invocation -> {
+        Consumer<String> outputConsumer = invocation.getArgument(2);
+        outputConsumer.accept(CLIPPY_MESSAGE);
+        return null;
+      }).when(processWrapper).start(any(), any(), any(), any());
+      when(processWrapper.waitFor(Duration.ofSeconds(10))).thenReturn(false);
+      ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
+      List<ClippyDiagnostic> diagnostics = new ArrayList<>();
+
+      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add, withTimeout(10)))
+        .isInstanceOf(ClippyTimeoutException.class)
+        .hasMessage("Clippy timed out after 10 seconds in " + Path.of("path/workdir"));
+      verify(processWrapper).destroyProcessTree();
+      // Diagnostics emitted before the timeout are kept
+      assertThat(diagnostics).hasSize(1);
+    }
+
+    @Test
+    void test_exit_before_timeout() throws Exception {
+      ProcessWrapper processWrapper = mock(ProcessWrapper.class);
+      when(processWrapper.waitFor(Duration.ofSeconds(10))).thenReturn(true);
+      when(processWrapper.exitValue()).thenReturn(1);
+      ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
+
+      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, withTimeout(10)))
+        .isInstanceOf(IllegalStateException.class).hasMessage("Clippy failed with exit code 1");
+      verify(processWrapper, never()).destroyProcessTree();
+    }
+
+    @Test
+    void test_target_dir() throws Exception {
+      ProcessWrapper processWrapper = mock(ProcessWrapper.class);
+      doAnswer(invocation -> {
+        Consumer<String> outputConsumer = invocation.getArgument(2);
+        outputConsumer.accept("{\"reason\":\"compiler-artifact\",\"package_id\":\"serde 1.0.0\",\"fresh\":true}");
+        outputConsumer.accept("{\"reason\":\"compiler-artifact\",\"package_id\":\"rust_hello 0.1.0\",\"fresh\":false}");
+        outputConsumer.accept(CLIPPY_MESSAGE);
+        return null;
+      }).when(processWrapper).start(any(), any(), any(), any());
+      when(processWrapper.waitFor()).thenReturn(0);
+      ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
+      List<ClippyDiagnostic> diagnostics = new ArrayList<>();
+
+      clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), diagnostics::add,
+        new ClippyRunner.Options(false, null, Path.of("/cache/target/workdir")));
+
+      verify(processWrapper).setEnvironment(Map.of("CARGO_TARGET_DIR", Path.of("/cache/target/workdir").toString()));
+      assertThat(diagnostics).hasSize(1);
+      assertThat(logTester.logs(Level.INFO))
+        .containsExactly("Clippy build of " + Path.of("path/workdir") + ": 1 crate(s) up to date, 1 crate(s) checked");
+    }
+
+    @Test
+    void test_workspace_target_dir() {
+      var targetDir = Path.of("/cache/target");
+      var workspace = ClippyRunner.workspaceTargetDir(targetDir, Path.of("/project"), Path.of("/project/crates/a"));
+
+      assertThat(workspace.getParent()).isEqualTo(targetDir);
+      assertThat(ClippyRunner.workspaceTargetDir(targetDir, Path.of("/project"), Path.of("/project/crates/b"))).isNotEqualTo(workspace);
+      // The same workspace in another checkout
+      assertThat(ClippyRunner.workspaceTargetDir(targetDir, Path.of("/checkout"), Path.of("/checkout/crates/a"))).isEqualTo(workspace);
+    }
+
     @Test
     void testIOException() throws Exception {
       ProcessWrapper processWrapper = mock(ProcessWrapper.class);
       doThrow(new IOException("error")).when(processWrapper).start(any(), any(), any(), any());
       ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
-      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, false))
+      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, ONLINE))
         .isInstanceOf(IllegalStateException.class).hasMessage("Failed to run Clippy ");
     }
 
@@ -167,8 +257,14 @@ class ClippyRunnerTest {
       when(processWrapper.getInputStream()).thenReturn(new ByteArrayInputStream(CLIPPY_MESSAGE.getBytes()));
       doThrow(new InterruptedException("error")).when(processWrapper).waitFor();
       ClippyRunner clippyRunner = new ClippyRunner(processWrapper);
-      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, false))
+      assertThatThrownBy(() -> clippyRunner.run(Path.of("path/workdir"), List.of("clippy::some_lint"), d -> {}, ONLINE))
         .isInstanceOf(IllegalStateException.class).hasMessage("Clippy was interrupted");
+      verify(processWrapper).destroyProcessTree();
+      assertThat(Thread.interrupted()).isTrue();
+    }
+
+    private static ClippyRunner.Options withTimeout(long seconds) {
+      return new ClippyRunner.Options(false, Duration.ofSeconds(seconds), null);
     }
 
 }
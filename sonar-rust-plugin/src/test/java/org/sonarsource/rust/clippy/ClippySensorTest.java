@@ -17,19 +17,29 @@
 package org.sonarsource.rust.clippy;
 
 import org.sonarsource.rust.TestAnalysisWarnigs;
+import org.sonarsource.rust.TestCache;
 import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.cargo.CargoMetadata;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
+import org.sonarsource.rust.common.LocalResultCache;
 import org.sonarsource.rust.plugin.AnalysisWarningsWrapper;
 import org.sonarsource.rust.plugin.RustLanguage;
+import org.sonarsource.rust.plugin.RustRulesDefinition;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.slf4j.event.Level;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.TextRange;
 import com.sonarsource.scanner.engine.sensor.test.fixtures.SensorContextTester;
 import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder;
@@ -45,11 +55,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentCaptor.forClass;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 class ClippySensorTest {
@@ -123,7 +135,7 @@ class ClippySensorTest {
     doReturn(new ClippyPrerequisite.ToolVersions("cargo 1.2.3", "clippy 1.2.3")).when(clippyPrerequisite).check(any());
 
     var clippyRunner = mock(ClippyRunner.class);
-    doThrow(new IllegalStateException("error")).when(clippyRunner).run(any(), any(), any(), anyBoolean());
+    doThrow(new IllegalStateException("error")).when(clippyRunner).run(any(), any(), any(), any());
     var warnings = new TestAnalysisWarnigs();
     var sensor = new ClippySensor(clippyPrerequisite, clippyRunner, new AnalysisWarningsWrapper(warnings));
     context.settings().setProperty("sonar.internal.analysis.rust.failFast", "true");
@@ -173,14 +185,14 @@ class ClippySensorTest {
       Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
       diagnostics.forEach(diagnosticsConsumer);
       return null;
-    }).when(clippyRunner).run(any(), any(), any(), anyBoolean());
+    }).when(clippyRunner).run(any(), any(), any(), any());
 
     ClippySensor sensor = new ClippySensor(clippyPrerequisite, clippyRunner, new AnalysisWarningsWrapper());
     sensor.execute(context);
 
     ArgumentCaptor<Path> pathCaptor = forClass(Path.class);
     @SuppressWarnings("unchecked") ArgumentCaptor<List<String>> lintsCaptor = forClass(List.class);
-    verify(clippyRunner).run(pathCaptor.capture(), lintsCaptor.capture(), any(), anyBoolean());
+    verify(clippyRunner).run(pathCaptor.capture(), lintsCaptor.capture(), any(), any());
     assertThat(pathCaptor.getValue()).isEqualTo(baseDir);
     assertThat(lintsCaptor.getValue()).containsExactly("clippy::absurd_extreme_comparisons");
 
@@ -233,7 +245,7 @@ class ClippySensorTest {
       Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
       diagnostics.forEach(diagnosticsConsumer);
       return null;
-    }).when(clippyRunner).run(any(), any(), any(), anyBoolean());
+    }).when(clippyRunner).run(any(), any(), any(), any());
 
     var sensor = new ClippySensor(clippyPrerequisite, clippyRunner, new AnalysisWarningsWrapper());
     sensor.execute(context);
@@ -293,7 +305,7 @@ class ClippySensorTest {
       Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
       diagnostics.forEach(diagnosticsConsumer);
       return null;
-    }).when(clippyRunner).run(any(), any(), any(), anyBoolean());
+    }).when(clippyRunner).run(any(), any(), any(), any());
 
     var sensor = new ClippySensor(clippyPrerequisite, clippyRunner, new AnalysisWarningsWrapper());
     sensor.execute(context);
@@ -306,5 +318,558 @@ class ClippySensorTest {
     assertThat(context.allIssues()).isEmpty();
   }
 
+  @Test
+  void reportDiagnosticsFoundBeforeTimeout() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var cache = new TestCache(Map.of());
+    var context = cachingContext(cache, "fn main() {}");
+    context.settings().setProperty(ClippySensor.CLIPPY_TIMEOUT, "60");
+    var clippyRunner = mock(ClippyRunner.class);
+    doAnswer(invocation -> {
+      Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
+      diagnosticsConsumer.accept(new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+        new ClippyCode("clippy::absurd_extreme_comparisons"),
+        "message",
+        List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4)))));
+      throw new ClippyTimeoutException(baseDir, Duration.ofSeconds(60));
+    }).when(clippyRunner).run(any(), any(), any(), any());
+    var warnings = new TestAnalysisWarnigs();
+
+    new ClippySensor(prerequisite(), clippyRunner, new AnalysisWarningsWrapper(warnings)).execute(context);
+
+    ArgumentCaptor<ClippyRunner.Options> optionsCaptor = forClass(ClippyRunner.Options.class);
+    verify(clippyRunner).run(any(), any(), any(), optionsCaptor.capture());
+    assertThat(optionsCaptor.getValue().timeout()).isEqualTo(Duration.ofSeconds(60));
+    assertThat(context.allIssues()).hasSize(1);
+    // Incomplete diagnostics are not cached
+    assertThat(cache.next).isEmpty();
+    assertThat(warnings.warnings).containsExactly(("Clippy timed out on %s, only the issues found before the timeout are reported. "
+      + "Increase the value of sonar.rust.clippy.timeout to lint it completely.").formatted(baseDir.resolve("Cargo.toml")));
+    assertThat(logTester.logs(Level.ERROR)).doesNotContain("Failed to run Clippy");
+  }
+
+  @Test
+  void ignoreDuplicateDiagnostics() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = contextWithFile("fn main() {}");
+    var diagnostic = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4))));
+    var otherSpan = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 1, 1, 4))));
+
+    // Same diagnostic for the lib and test targets of the crate
+    new ClippySensor(prerequisite(), runnerEmitting(diagnostic, diagnostic, otherSpan), new AnalysisWarningsWrapper())
+      .execute(context);
+
+    assertThat(context.allIssues()).hasSize(2);
+    assertThat(logTester.logs(Level.DEBUG)).anyMatch(log -> log.startsWith("Ignoring duplicate Clippy diagnostic"));
+  }
+
+  @Test
+  void saveDiagnosticsOfBackgroundRun() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var cache = new TestCache(Map.of());
+    var context = cachingContext(cache, "fn main() {}");
+    context.fileSystem().setWorkDir(baseDir.resolve("work"));
+    context.settings().setProperty(ClippySensor.CLIPPY_BACKGROUND, "true");
+    var clippyRunner = mock(ClippyRunner.class);
+    var threads = ConcurrentHashMap.<String>newKeySet();
+    doAnswer(invocation -> {
+      threads.add(Thread.currentThread().getName());
+      Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
+      diagnosticsConsumer.accept(new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+        new ClippyCode("clippy::absurd_extreme_comparisons"),
+        "message",
+        List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4)))));
+      return null;
+    }).when(clippyRunner).run(any(), any(), any(), any());
+    var backgroundRun = new ClippyBackgroundRun(new ClippyAnalysis(prerequisite(), clippyRunner, new CargoMetadataRunner()));
+
+    backgroundRun.start(context);
+    new ClippySensor(prerequisite(), clippyRunner, new CargoMetadataRunner(), new AnalysisWarningsWrapper(), backgroundRun)
+      .execute(context);
+
+    verify(clippyRunner).run(any(), any(), any(), any());
+    assertThat(threads).containsExactly("clippy-background");
+    assertThat(context.allIssues()).hasSize(1);
+    // Cache entries are written by the sensor thread once the run is joined
+    assertThat(cache.next).hasSize(1);
+    assertThat(logTester.logs(Level.INFO)).contains("Clippy started in the background");
+  }
+
+  @Test
+  void runClippyInSensorWhenNotStartedInBackground() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = contextWithFile("fn main() {}");
+    var clippyRunner = runnerEmitting(new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4)))));
+    var backgroundRun = new ClippyBackgroundRun(new ClippyAnalysis(prerequisite(), clippyRunner, new CargoMetadataRunner()));
+
+    // Disabled by default
+    backgroundRun.start(context);
+    new ClippySensor(prerequisite(), clippyRunner, new CargoMetadataRunner(), new AnalysisWarningsWrapper(), backgroundRun)
+      .execute(context);
+    // Too late, the Clippy sensor of the module already ran
+    context.settings().setProperty(ClippySensor.CLIPPY_BACKGROUND, "true");
+    backgroundRun.start(context);
+
+    verify(clippyRunner).run(any(), any(), any(), any());
+    assertThat(context.allIssues()).hasSize(1);
+    assertThat(logTester.logs(Level.INFO)).doesNotContain("Clippy started in the background");
+  }
+
+  @Test
+  void useToolchainSubdirectoryOfTargetDir() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = contextWithFile("fn main() {}");
+    context.settings().setProperty(ClippySensor.CLIPPY_TARGET_DIR, "target-cache");
+    var clippyRunner = runnerEmitting();
+
+    new ClippySensor(prerequisite(), clippyRunner, new AnalysisWarningsWrapper()).execute(context);
+
+    ArgumentCaptor<ClippyRunner.Options> optionsCaptor = forClass(ClippyRunner.Options.class);
+    verify(clippyRunner).run(any(), any(), any(), optionsCaptor.capture());
+    assertThat(optionsCaptor.getValue().targetDir())
+      .isEqualTo(ClippyRunner.workspaceTargetDir(baseDir.resolve("target-cache").resolve("clippy-1.2.3"), baseDir, baseDir));
+    assertThat(ClippyAnalysis.targetDir(Path.of("/cache"), "clippy 0.1.85 (4d91de4e48 2025-02-17)"))
+      .isEqualTo(Path.of("/cache/clippy-0.1.85-4d91de4e48-2025-02-17").toAbsolutePath());
+  }
+
+  @Test
+  void runAllLintsAndIgnoreInactiveRules() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = contextWithFile("fn main() {}");
+    context.settings().setProperty(ClippySensor.CLIPPY_ALL_LINTS, "true");
+    var active = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4))));
+    var inactive = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::never_loop"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 1, 1, 4))));
+    var clippyRunner = runnerEmitting(active, inactive);
+
+    new ClippySensor(prerequisite(), clippyRunner, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(any(), eq(RustRulesDefinition.clippyLintIds()), any(), any());
+    assertThat(context.allIssues()).extracting(issue -> issue.ruleKey().rule()).containsExactly("S2198");
+  }
+
+  @Test
+  void reuseCachedDiagnosticsOfUnchangedCrates() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    Files.writeString(baseDir.resolve("Cargo.lock"), "version = 4");
+    var diagnostic = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4))));
+
+    var firstCache = new TestCache(Map.of());
+    var firstRunner = runnerEmitting(diagnostic);
+    var firstContext = cachingContext(firstCache, "fn main() {}");
+    new ClippySensor(prerequisite(), firstRunner, new AnalysisWarningsWrapper()).execute(firstContext);
+
+    verify(firstRunner).run(any(), any(), any(), any());
+    assertThat(firstContext.allIssues()).hasSize(1);
+    assertThat(firstCache.next).hasSize(1);
+    assertThat(firstCache.next.keySet()).allMatch(key -> key.startsWith(ClippyCache.KEY_PREFIX));
+
+    var secondCache = new TestCache(firstCache.next);
+    var secondRunner = runnerEmitting(diagnostic);
+    var secondContext = cachingContext(secondCache, "fn main() {}");
+    new ClippySensor(prerequisite(), secondRunner, new AnalysisWarningsWrapper()).execute(secondContext);
+
+    verify(secondRunner, never()).run(any(), any(), any(), any());
+    assertThat(secondContext.allIssues()).hasSize(1);
+    var issue = secondContext.allIssues().iterator().next();
+    assertThat(issue.primaryLocation().inputComponent().key()).isEqualTo("moduleKey:src/main.rs");
+    assertThat(issue.primaryLocation().textRange().start().lineOffset()).isEqualTo(1);
+    assertThat(secondCache.next).containsOnlyKeys(firstCache.next.keySet());
+    assertThat(logTester.logs(Level.INFO)).contains("Clippy diagnostics: 0 manifest(s) linted, 1 manifest(s) reused from the cache");
+  }
+
+  @Test
+  void runClippyOnChangedCrates() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var diagnostic = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4))));
+
+    var firstCache = new TestCache(Map.of());
+    new ClippySensor(prerequisite(), runnerEmitting(diagnostic), new AnalysisWarningsWrapper())
+      .execute(cachingContext(firstCache, "fn main() {}"));
+
+    var changedCache = new TestCache(firstCache.next);
+    var changedRunner = runnerEmitting(diagnostic);
+    new ClippySensor(prerequisite(), changedRunner, new AnalysisWarningsWrapper())
+      .execute(cachingContext(changedCache, "fn main() { }"));
+    verify(changedRunner).run(any(), any(), any(), any());
+    assertThat(changedCache.next.keySet()).doesNotContainAnyElementsOf(firstCache.next.keySet());
+
+    // The lock file changes the dependencies, hence the diagnostics
+    Files.writeString(baseDir.resolve("Cargo.lock"), "version = 4");
+    var lockedRunner = runnerEmitting(diagnostic);
+    new ClippySensor(prerequisite(), lockedRunner, new AnalysisWarningsWrapper())
+      .execute(cachingContext(new TestCache(firstCache.next), "fn main() {}"));
+    verify(lockedRunner).run(any(), any(), any(), any());
+  }
+
+  @Test
+  void runClippyWhenFilesReadByCargoOrClippyChange() throws IOException {
+    Files.createDirectories(baseDir.resolve("app/src"));
+    Files.createDirectories(baseDir.resolve("core/src"));
+    Files.writeString(baseDir.resolve("app/Cargo.toml"), "[dependencies]\ncore = { path = \"../core\" }\n");
+    Files.writeString(baseDir.resolve("core/Cargo.toml"), "[package]");
+    Files.writeString(baseDir.resolve("core/src/lib.rs"), "pub fn core() {}");
+    var cache = lintApp(new TestCache(Map.of()), true);
+    cache = lintApp(cache, false);
+
+    // Files which are not indexed, in a path dependency outside of the crate
+    Files.writeString(baseDir.resolve("core/src/lib.rs"), "pub fn core() { }");
+    cache = lintApp(cache, true);
+    // Lint configuration, and inputs of build scripts
+    Files.writeString(baseDir.resolve("app/clippy.toml"), "msrv = \"1.70\"");
+    cache = lintApp(cache, true);
+    Files.writeString(baseDir.resolve("app/schema.proto"), "message M {}");
+    cache = lintApp(cache, true);
+    // Configuration of Cargo in a parent directory
+    Files.createDirectories(baseDir.resolve(".cargo"));
+    Files.writeString(baseDir.resolve(".cargo/config.toml"), "[build]\nrustflags = [\"-Dwarnings\"]");
+    cache = lintApp(cache, true);
+
+    // Build output does not change the diagnostics
+    Files.createDirectories(baseDir.resolve("app/target/debug"));
+    Files.writeString(baseDir.resolve("app/target/debug/app"), "binary");
+    lintApp(cache, false);
+  }
+
+  /**
+   * Runs the sensor on the manifest of app with the cache of the previous analysis, and returns the cache of this one.
+   */
+  private TestCache lintApp(TestCache previous, boolean linted) throws IOException {
+    var cache = new TestCache(previous.next);
+    var context = cachingContext(cache, "fn main() {}");
+    context.settings().setProperty(CargoManifestProvider.CARGO_MANIFEST_PATHS, "app/Cargo.toml");
+    var clippyRunner = runnerEmitting();
+    new ClippySensor(prerequisite(), clippyRunner, new AnalysisWarningsWrapper()).execute(context);
+    verify(clippyRunner, times(linted ? 1 : 0)).run(any(), any(), any(), any());
+    return cache;
+  }
+
+  @Test
+  void reuseDiagnosticsFromLocalCache() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var diagnostic = new ClippyDiagnostic(baseDir.toString(), new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4))));
+
+    var firstContext = localCachingContext("fn main() {}");
+    new ClippySensor(prerequisite(), runnerEmitting(diagnostic), new AnalysisWarningsWrapper()).execute(firstContext);
+
+    var secondRunner = runnerEmitting(diagnostic);
+    var secondContext = localCachingContext("fn main() {}");
+    new ClippySensor(prerequisite(), secondRunner, new AnalysisWarningsWrapper()).execute(secondContext);
+
+    verify(secondRunner, never()).run(any(), any(), any(), any());
+    assertThat(secondContext.allIssues()).hasSize(1);
+  }
+
+  @Test
+  void lintWorkspaceMembersInASingleRun() throws IOException {
+    var context = SensorContextTester.create(baseDir);
+    Files.createDirectories(baseDir.resolve("ws/a"));
+    Files.createDirectories(baseDir.resolve("ws/b"));
+    Files.createFile(baseDir.resolve("ws/Cargo.toml"));
+    Files.createFile(baseDir.resolve("ws/a/Cargo.toml"));
+    Files.createFile(baseDir.resolve("ws/b/Cargo.toml"));
+    context.settings().setProperty(CargoManifestProvider.CARGO_MANIFEST_PATHS, "ws/a/Cargo.toml,ws/b/Cargo.toml");
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    var members = List.of(
+      new CargoMetadata.Package("a", "a", baseDir.resolve("ws/a/Cargo.toml").toString(), List.of()),
+      new CargoMetadata.Package("b", "b", baseDir.resolve("ws/b/Cargo.toml").toString(), List.of()));
+    doReturn(new CargoMetadata(members, List.of("a", "b"), baseDir.resolve("ws").toString())).when(cargoMetadata).run(any());
+    var clippyRunner = mock(ClippyRunner.class);
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir.resolve("ws")), eq(List.of("a", "b")), any(), any(), any());
+    verify(clippyRunner, never()).run(any(), any(), any(), any());
+    assertThat(logTester.logs(Level.INFO)).contains("2 manifests of the workspace %s are linted by a single Clippy run".formatted(baseDir.resolve("ws")));
+  }
+
+  @Test
+  void lintChangedPackagesOnPullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = pullRequestContext(InputFile.Status.CHANGED, targetBranchCache());
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), eq(List.of("app")), any(), any(), any());
+    verify(clippyRunner, never()).run(any(), any(), any(), any());
+    assertThat(logTester.logs(Level.INFO)).contains("Linting changed packages of %s and their dependents: app".formatted(baseDir));
+  }
+
+  @Test
+  void skipUnchangedWorkspacesOnPullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = pullRequestContext(InputFile.Status.SAME, targetBranchCache());
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner, never()).run(any(), any(), any(), any(), any());
+    verify(clippyRunner, never()).run(any(), any(), any(), any());
+  }
+
+  @Test
+  void lintAllPackagesWhenConfigurationChangesOnPullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var cache = targetBranchCache();
+    Files.writeString(baseDir.resolve("Cargo.lock"), "version = 4");
+    var context = pullRequestContext(InputFile.Status.SAME, cache);
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), any(), any(), any());
+    assertThat(logTester.logs(Level.INFO)).contains("Cargo or Clippy configuration of %s changed, linting all packages".formatted(baseDir));
+  }
+
+  @Test
+  void lintPackagesWithDeletedFilesOnPullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    Files.createDirectories(baseDir.resolve("src"));
+    Files.writeString(baseDir.resolve("src/lib.rs"), "pub fn app() {}");
+    var cache = targetBranchCache();
+    Files.delete(baseDir.resolve("src/lib.rs"));
+    var context = pullRequestContext(InputFile.Status.SAME, cache);
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), eq(List.of("app")), any(), any(), any());
+  }
+
+  @Test
+  void lintAllPackagesWhenChangesCannotBeDeterminedOnPullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    var withoutSnapshot = mock(ClippyRunner.class);
+    new ClippySensor(prerequisite(), withoutSnapshot, cargoMetadata, new AnalysisWarningsWrapper())
+      .execute(pullRequestContext(InputFile.Status.SAME, new TestCache(Map.of())));
+    verify(withoutSnapshot).run(eq(baseDir), any(), any(), any());
+    assertThat(logTester.logs(Level.INFO)).contains("No snapshot of the workspace of %s in the analysis cache, linting all packages".formatted(baseDir));
+
+    var withoutCache = mock(ClippyRunner.class);
+    new ClippySensor(prerequisite(), withoutCache, cargoMetadata, new AnalysisWarningsWrapper())
+      .execute(pullRequestContext(InputFile.Status.SAME));
+    verify(withoutCache).run(eq(baseDir), any(), any(), any());
+    assertThat(logTester.logs(Level.INFO)).contains("Changes of %s cannot be determined without the analysis cache, linting all packages".formatted(baseDir));
+  }
+
+  @Test
+  void lintAllPackagesWhenCargoMetadataFails() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = pullRequestContext(InputFile.Status.CHANGED, new TestCache(Map.of()));
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doThrow(new IllegalStateException("Cargo metadata failed with exit code 101")).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), any(), any(), any());
+    assertThat(logTester.logs(Level.WARN)).anyMatch(log -> log.startsWith("Failed to read the Cargo metadata of"));
+  }
+
+  @Test
+  void lintAllPackagesOutsidePullRequests() throws IOException {
+    Files.createFile(baseDir.resolve("Cargo.toml"));
+    var context = pullRequestContext(InputFile.Status.CHANGED);
+    context.setCanSkipUnchangedFiles(false);
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), any(), any(), any());
+    verify(cargoMetadata, never()).run(any());
+  }
+
+  @Test
+  void lintIndependentWorkspacesInParallel() throws IOException {
+    var context = SensorContextTester.create(baseDir);
+    context.setActiveRules(new ActiveRulesBuilder()
+      .addRule(new NewActiveRule.Builder().setRuleKey(RuleKey.of(RustLanguage.KEY, "S2198")).build())
+      .build());
+    for (var crate : List.of("a", "b")) {
+      Files.createDirectories(baseDir.resolve(crate));
+      Files.createFile(baseDir.resolve(crate).resolve("Cargo.toml"));
+      context.fileSystem().add(new TestInputFileBuilder("moduleKey", crate + "/main.rs")
+        .setModuleBaseDir(baseDir)
+        .setLanguage(RustLanguage.KEY)
+        .setContents("fn main() {}")
+        .build());
+    }
+    context.settings().setProperty(CargoManifestProvider.CARGO_MANIFEST_PATHS, "a/Cargo.toml,b/Cargo.toml");
+    context.settings().setProperty(ClippySensor.CLIPPY_PARALLELISM, "2");
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doThrow(new IllegalStateException("not a workspace")).when(cargoMetadata).run(any());
+    var runningThreads = ConcurrentHashMap.<String>newKeySet();
+    var clippyRunner = mock(ClippyRunner.class);
+    doAnswer(invocation -> {
+      runningThreads.add(Thread.currentThread().getName());
+      Path workDir = invocation.getArgument(0);
+      Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
+      diagnosticsConsumer.accept(new ClippyDiagnostic(workDir.toString(), new ClippyMessage(
+        new ClippyCode("clippy::absurd_extreme_comparisons"),
+        "message",
+        List.of(new ClippySpan("main.rs", 1, 2, 1, 4)))));
+      return null;
+    }).when(clippyRunner).run(any(), any(), any(), any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir.resolve("a")), any(), any(), any());
+    verify(clippyRunner).run(eq(baseDir.resolve("b")), any(), any(), any());
+    assertThat(runningThreads).allMatch(name -> name.startsWith("clippy-runner-"));
+    assertThat(context.allIssues())
+      .extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsExactlyInAnyOrder("moduleKey:a/main.rs", "moduleKey:b/main.rs");
+  }
+
+  @Test
+  void reportFailureOfParallelRuns() throws IOException {
+    var context = SensorContextTester.create(baseDir);
+    for (var crate : List.of("a", "b")) {
+      Files.createDirectories(baseDir.resolve(crate));
+      Files.createFile(baseDir.resolve(crate).resolve("Cargo.toml"));
+    }
+    context.settings().setProperty(CargoManifestProvider.CARGO_MANIFEST_PATHS, "a/Cargo.toml,b/Cargo.toml");
+    context.settings().setProperty(ClippySensor.CLIPPY_PARALLELISM, "2");
+    context.settings().setProperty("sonar.internal.analysis.rust.failFast", "true");
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doThrow(new IllegalStateException("not a workspace")).when(cargoMetadata).run(any());
+    var clippyRunner = mock(ClippyRunner.class);
+    doThrow(new IllegalStateException("Clippy failed with exit code 101")).when(clippyRunner).run(eq(baseDir.resolve("b")), any(),
+      any(), any());
+    var warnings = new TestAnalysisWarnigs();
+    var sensor = new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper(warnings));
+
+    assertThatThrownBy(() -> sensor.execute(context))
+      .isInstanceOf(IllegalStateException.class)
+      .hasRootCauseMessage("Clippy failed with exit code 101");
+    assertThat(logTester.logs(Level.ERROR)).contains("Failed to run Clippy");
+    assertThat(warnings.warnings).contains("Failed to run Clippy. See logs for details.");
+  }
 
+  private SensorContextTester pullRequestContext(InputFile.Status status) {
+    var context = SensorContextTester.create(baseDir);
+    context.setCanSkipUnchangedFiles(true);
+    context.settings().setProperty(ClippySensor.CLIPPY_CHANGED_PACKAGES_ONLY, "true");
+    context.fileSystem().add(new TestInputFileBuilder("moduleKey", "src/main.rs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(RustLanguage.KEY)
+      .setStatus(status)
+      .setContents("fn main() {}")
+      .build());
+    return context;
+  }
+
+  private SensorContextTester pullRequestContext(InputFile.Status status, TestCache cache) {
+    var context = pullRequestContext(status);
+    context.setCacheEnabled(true);
+    context.setPreviousCache(cache);
+    context.setNextCache(cache);
+    return context;
+  }
+
+  /**
+   * Runs the sensor on the target branch of the pull request, and returns the cache read by the pull request.
+   */
+  private TestCache targetBranchCache() throws IOException {
+    var cache = new TestCache(Map.of());
+    var context = pullRequestContext(InputFile.Status.SAME, cache);
+    context.setCanSkipUnchangedFiles(false);
+    var clippyRunner = mock(ClippyRunner.class);
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace()).when(cargoMetadata).run(any());
+
+    new ClippySensor(prerequisite(), clippyRunner, cargoMetadata, new AnalysisWarningsWrapper()).execute(context);
+
+    verify(clippyRunner).run(eq(baseDir), any(), any(), any());
+    assertThat(cache.next).containsKey(ClippyCache.KEY_PREFIX + "workspace:");
+    return new TestCache(cache.next);
+  }
+
+  private CargoMetadata workspace() {
+    var app = new CargoMetadata.Package("app", "app", baseDir.resolve("Cargo.toml").toString(), List.of());
+    return new CargoMetadata(List.of(app), List.of("app"), baseDir.toString());
+  }
+
+  private SensorContextTester cachingContext(TestCache cache, String content) throws IOException {
+    var context = contextWithFile(content);
+    context.setCacheEnabled(true);
+    context.setPreviousCache(cache);
+    context.setNextCache(cache);
+    return context;
+  }
+
+  private SensorContextTester localCachingContext(String content) throws IOException {
+    var context = contextWithFile(content);
+    context.settings().setProperty(LocalResultCache.CACHE_DIR, "cache");
+    return context;
+  }
+
+  private SensorContextTester contextWithFile(String content) throws IOException {
+    // The Clippy cache reads files from the disk
+    Files.createDirectories(baseDir.resolve("src"));
+    Files.writeString(baseDir.resolve("src/main.rs"), content);
+    var context = SensorContextTester.create(baseDir);
+    context.setActiveRules(new ActiveRulesBuilder()
+      .addRule(new NewActiveRule.Builder().setRuleKey(RuleKey.of(RustLanguage.KEY, "S2198")).build())
+      .build());
+    context.fileSystem().add(new TestInputFileBuilder("moduleKey", "src/main.rs")
+      .setModuleBaseDir(baseDir)
+      .setLanguage(RustLanguage.KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .setContents(content)
+      .build());
+    return context;
+  }
+
+  private static ClippyPrerequisite prerequisite() {
+    var clippyPrerequisite = mock(ClippyPrerequisite.class);
+    doReturn(new ClippyPrerequisite.ToolVersions("cargo 1.2.3", "clippy 1.2.3")).when(clippyPrerequisite).check(any());
+    return clippyPrerequisite;
+  }
+
+  private static ClippyRunner runnerEmitting(ClippyDiagnostic... diagnostics) {
+    var clippyRunner = mock(ClippyRunner.class);
+    doAnswer(invocation -> {
+      Consumer<ClippyDiagnostic> diagnosticsConsumer = invocation.getArgument(2);
+      List.of(diagnostics).forEach(diagnosticsConsumer);
+      return null;
+    }).when(clippyRunner).run(any(), any(), any(), any());
+    return clippyRunner;
+  }
 }
@@ -0,0 +1,100 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonarsource.rust.cargo.CargoMetadata;
+import org.sonarsource.rust.cargo.CargoMetadataRunner;
+
+class ClippyTargetTest {
+
+  @TempDir
+  Path baseDir;
+
+  @Test
+  void singleManifest() {
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+
+    var targets = ClippyTarget.resolve(List.of(baseDir.resolve("Cargo.toml")), cargoMetadata);
+
+    assertThat(targets).containsExactly(new ClippyTarget(baseDir.resolve("Cargo.toml"), List.of(), null));
+    verify(cargoMetadata, never()).run(any());
+  }
+
+  @Test
+  void membersOfTheSameWorkspace() {
+    var workspace = workspace("ws", "a", "b", "c");
+    var standalone = workspace("standalone", "");
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace).when(cargoMetadata).run(baseDir.resolve("ws/a"));
+    doReturn(standalone).when(cargoMetadata).run(baseDir.resolve("standalone"));
+
+    var targets = ClippyTarget.resolve(List.of(
+      baseDir.resolve("ws/a/Cargo.toml"),
+      baseDir.resolve("standalone/Cargo.toml"),
+      baseDir.resolve("ws/b/Cargo.toml")), cargoMetadata);
+
+    assertThat(targets).containsExactly(
+      new ClippyTarget(baseDir.resolve("ws/Cargo.toml"), List.of("a", "b"), workspace),
+      new ClippyTarget(baseDir.resolve("standalone/Cargo.toml"), List.of(), standalone));
+    // The metadata of the workspace covers all its members
+    verify(cargoMetadata, times(2)).run(any());
+  }
+
+  @Test
+  void virtualWorkspaceManifest() {
+    var workspace = workspace("ws", "a", "b");
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doReturn(workspace).when(cargoMetadata).run(any());
+
+    var targets = ClippyTarget.resolve(List.of(baseDir.resolve("ws/Cargo.toml"), baseDir.resolve("ws/a/Cargo.toml")), cargoMetadata);
+
+    assertThat(targets).containsExactly(new ClippyTarget(baseDir.resolve("ws/Cargo.toml"), List.of("a", "b"), workspace));
+  }
+
+  @Test
+  void unknownWorkspaces() {
+    var cargoMetadata = mock(CargoMetadataRunner.class);
+    doThrow(new IllegalStateException("Cargo metadata failed with exit code 101")).when(cargoMetadata).run(any());
+
+    var targets = ClippyTarget.resolve(List.of(baseDir.resolve("ws/a/Cargo.toml"), baseDir.resolve("ws/b/Cargo.toml")), cargoMetadata);
+
+    assertThat(targets).containsExactly(
+      new ClippyTarget(baseDir.resolve("ws/a/Cargo.toml"), List.of(), null),
+      new ClippyTarget(baseDir.resolve("ws/b/Cargo.toml"), List.of(), null));
+  }
+
+  private CargoMetadata workspace(String root, String... members) {
+    var packages = List.of(members).stream()
+      .map(member -> new CargoMetadata.Package(member.isEmpty() ? root : member, root + "/" + member,
+        baseDir.resolve(root).resolve(member).resolve("Cargo.toml").toString(), List.of()))
+      .toList();
+    return new CargoMetadata(packages, packages.stream().map(CargoMetadata.Package::id).toList(), baseDir.resolve(root).toString());
+  }
+}
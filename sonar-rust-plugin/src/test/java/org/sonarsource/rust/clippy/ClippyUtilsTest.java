@@ -138,6 +138,44 @@ class ClippyUtilsTest {
     assertThat(empty).isEmpty();
   }
 
+  @Test
+  void parseCargoMessages() {
+    var diagnostics = ClippyUtils.parse(Stream.of(
+      """
+        {"reason":"compiler-artifact","package_id":"clippy_utils 0.1.0","manifest_path":"/dir/Cargo.toml","filenames":["libclippy_utils.rlib"],"fresh":true}""",
+      """
+        {"reason":"compiler-message","manifest_path":"/dir/Cargo.toml","message":{"rendered":"warning: clippy","children":[{"code":null,"message":"note","spans":[]}],"code":null,"message":"unused variable","spans":[]}}""",
+      """
+        {"reason":"compiler-message","package_id":"app 0.1.0","manifest_path":"/dir/Cargo.toml","target":{"kind":["bin"]},        "message":{"rendered":"warning: this comparison","children":[{"children":[],"code":null,"level":"help","message":"help","spans":[]}],        "code":{"code":"clippy::absurd_extreme_comparisons","explanation":null},"level":"warning","message":"this comparison",        "spans":[{"byte_start":1,"byte_end":3,"column_end":4,"column_start":2,"expansion":{"span":{"file_name":"macro.rs"}},        "file_name":"src/main.rs","is_primary":true,"label":null,"line_end":1,"line_start":1,"text":[{"highlight_end":4,"text":"x"}]},        {"file_name":"src/lib.rs","line_start":5,"column_start":1,"line_end":5,"column_end":2}]}}""",
+      """
+        {"reason":"build-finished","success":true}"""));
+
+    assertThat(diagnostics).containsExactly(new ClippyDiagnostic("/dir/Cargo.toml", new ClippyMessage(
+      new ClippyCode("clippy::absurd_extreme_comparisons"),
+      "this comparison",
+      // Only the first span is used as location
+      List.of(new ClippySpan("src/main.rs", 1, 2, 1, 4)))));
+  }
+
+  @Test
+  void parseSerializedDiagnostics() {
+    var diagnostic = new ClippyDiagnostic("crate/Cargo.toml", new ClippyMessage(
+      new ClippyCode("clippy::some_lint"),
+      "message",
+      List.of(new ClippySpan("src/main.rs", 1, 2, 3, 4))));
+
+    assertThat(ClippyUtils.parse(Stream.of(ClippyUtils.toJson(diagnostic)))).containsExactly(diagnostic);
+  }
+
+  @Test
+  void parseMalformedDiagnostics() {
+    assertThatThrownBy(() -> ClippyUtils.parse(Stream.of("{\"message\": {\"code\": {\"code\": \"clippy::some_lint\"}} trailing")).toList())
+      .isInstanceOf(JsonSyntaxException.class);
+    assertThatThrownBy(() -> ClippyUtils.parse(Stream.of(
+      "{\"message\": {\"code\": {\"code\": \"clippy::some_lint\"}, \"spans\": [{\"line_start\": 1.5}]}}")).toList())
+      .isInstanceOf(JsonSyntaxException.class);
+  }
+
   @Test
   void resolveInputFileRelativeToManifestDirectory() throws IOException {
     var baseDir = Files.createDirectories(temp.resolve("project"));
@@ -0,0 +1,115 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.clippy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonarsource.rust.cargo.CargoMetadata;
+
+class WorkspaceSnapshotTest {
+
+  @TempDir
+  Path baseDir;
+
+  private CargoMetadata metadata;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    write("Cargo.toml", "[package]\nname = \"root\"");
+    write("src/main.rs", "fn main() {}");
+    write("crates/nested/Cargo.toml", "[package]\nname = \"nested\"");
+    write("crates/nested/src/lib.rs", "pub fn nested() {}");
+    var packages = List.of(
+      new CargoMetadata.Package("root", "root", baseDir.resolve("Cargo.toml").toString(), List.of()),
+      new CargoMetadata.Package("nested", "nested", baseDir.resolve("crates/nested/Cargo.toml").toString(), List.of()));
+    metadata = new CargoMetadata(packages, List.of("root", "nested"), baseDir.toString());
+  }
+
+  @Test
+  void unchangedWorkspace() throws IOException {
+    var previous = WorkspaceSnapshot.of(metadata);
+
+    // Build output and hidden directories are ignored
+    write("target/debug/root", "binary");
+    write(".git/HEAD", "ref: refs/heads/main");
+
+    assertThat(WorkspaceSnapshot.of(metadata)).isEqualTo(previous);
+    assertThat(WorkspaceSnapshot.of(metadata).changedPackages(previous)).isEmpty();
+  }
+
+  @Test
+  void changedSources() throws IOException {
+    var previous = WorkspaceSnapshot.of(metadata);
+
+    write("crates/nested/src/lib.rs", "pub fn nested() { }");
+    assertThat(WorkspaceSnapshot.of(metadata).changedPackages(previous)).containsExactly("nested");
+
+    write("src/generated.rs", "");
+    assertThat(WorkspaceSnapshot.of(metadata).changedPackages(previous)).containsExactlyInAnyOrder("root", "nested");
+  }
+
+  @Test
+  void deletedSources() throws IOException {
+    write("src/lib.rs", "pub fn root() {}");
+    var previous = WorkspaceSnapshot.of(metadata);
+
+    Files.delete(baseDir.resolve("src/lib.rs"));
+
+    assertThat(WorkspaceSnapshot.of(metadata).changedPackages(previous)).containsExactly("root");
+  }
+
+  @Test
+  void changedConfiguration() throws IOException {
+    for (var file : List.of("Cargo.lock", "crates/nested/Cargo.toml", "crates/nested/clippy.toml", "crates/nested/schema.proto",
+      ".cargo/config.toml")) {
+      var previous = WorkspaceSnapshot.of(metadata);
+      write(file, "changed");
+      assertThat(WorkspaceSnapshot.of(metadata).changedPackages(previous)).as(file).isNull();
+    }
+  }
+
+  @Test
+  void serialization() throws IOException {
+    var snapshot = WorkspaceSnapshot.of(metadata);
+
+    assertThat(WorkspaceSnapshot.deserialize(snapshot.serialize())).isEqualTo(snapshot);
+    assertThat(WorkspaceSnapshot.deserialize("{}".getBytes(StandardCharsets.UTF_8))).isNull();
+    assertThat(WorkspaceSnapshot.deserialize("not json".getBytes(StandardCharsets.UTF_8))).isNull();
+  }
+
+  @Test
+  void unknownWorkspaceRoot() {
+    var withoutRoot = new CargoMetadata(metadata.packages(), metadata.workspace_members(), null);
+
+    assertThatThrownBy(() -> WorkspaceSnapshot.of(withoutRoot)).isInstanceOf(IOException.class);
+  }
+
+  private void write(String relativePath, String content) throws IOException {
+    var file = baseDir.resolve(relativePath);
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, content);
+  }
+}
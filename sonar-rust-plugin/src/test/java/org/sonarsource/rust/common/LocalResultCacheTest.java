@@ -0,0 +1,129 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalResultCacheTest {
+
+  private static final String HASH_A = "a".repeat(64);
+  private static final String HASH_B = "b".repeat(64);
+  private static final String HASH_C = "c".repeat(64);
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void read_written_entries() {
+    var cache = new LocalResultCache(directory.resolve("cache"), 1024);
+
+    assertThat(cache.read(HASH_A)).isNull();
+    cache.write(HASH_A, new byte[] {1, 2, 3});
+
+    assertThat(cache.read(HASH_A)).containsExactly(1, 2, 3);
+    assertThat(directory.resolve("cache").resolve("aa").resolve(HASH_A)).exists();
+    // Entries are immutable, they are not written again
+    cache.write(HASH_A, new byte[] {4});
+    assertThat(cache.read(HASH_A)).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  void entries_are_shared_between_instances() {
+    new LocalResultCache(directory, 1024).write(HASH_A, new byte[] {1});
+
+    assertThat(new LocalResultCache(directory, 1024).read(HASH_A)).containsExactly(1);
+  }
+
+  @Test
+  void evict_least_recently_used_entries() throws IOException {
+    var cache = new LocalResultCache(directory, 20);
+    cache.write(HASH_A, new byte[10]);
+    cache.write(HASH_B, new byte[10]);
+    cache.write(HASH_C, new byte[10]);
+    var now = Instant.now();
+    Files.setLastModifiedTime(entry(HASH_A), FileTime.from(now.minus(Duration.ofMinutes(3))));
+    Files.setLastModifiedTime(entry(HASH_B), FileTime.from(now.minus(Duration.ofMinutes(2))));
+    Files.setLastModifiedTime(entry(HASH_C), FileTime.from(now.minus(Duration.ofMinutes(1))));
+    // Reading an entry makes it the most recently used
+    assertThat(cache.read(HASH_A)).hasSize(10);
+
+    cache.evict();
+
+    assertThat(entry(HASH_A)).exists();
+    assertThat(entry(HASH_B)).doesNotExist();
+    assertThat(entry(HASH_C)).exists();
+  }
+
+  @Test
+  void no_eviction_below_maximum_size() {
+    var cache = new LocalResultCache(directory, 30);
+    cache.write(HASH_A, new byte[10]);
+    cache.write(HASH_B, new byte[10]);
+
+    cache.evict();
+
+    assertThat(entry(HASH_A)).exists();
+    assertThat(entry(HASH_B)).exists();
+  }
+
+  @Test
+  void remove_stale_temporary_files() throws IOException {
+    var cache = new LocalResultCache(directory, 1024);
+    Files.createDirectories(directory.resolve("aa"));
+    var stale = Files.createFile(directory.resolve("aa").resolve(HASH_A + "123.tmp"));
+    Files.setLastModifiedTime(stale, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+    var inProgress = Files.createFile(directory.resolve("aa").resolve(HASH_A + "456.tmp"));
+
+    cache.evict();
+
+    assertThat(stale).doesNotExist();
+    assertThat(inProgress).exists();
+  }
+
+  @Test
+  void no_temporary_files_left_after_writing() throws IOException {
+    var cache = new LocalResultCache(directory, 1024);
+    cache.write(HASH_A, new byte[] {1});
+
+    try (Stream<Path> files = Files.walk(directory)) {
+      assertThat(files.filter(Files::isRegularFile)).containsExactly(entry(HASH_A));
+    }
+  }
+
+  @Test
+  void missing_directory() {
+    var cache = new LocalResultCache(directory.resolve("missing"), 1024);
+
+    cache.evict();
+
+    assertThat(cache.read(HASH_A)).isNull();
+  }
+
+  private Path entry(String hash) {
+    return directory.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+}
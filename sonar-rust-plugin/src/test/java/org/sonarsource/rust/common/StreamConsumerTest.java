@@ -21,6 +21,8 @@ import static org.awaitility.Awaitility.await;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import org.junit.jupiter.api.Test;
@@ -61,4 +63,15 @@ class StreamConsumerTest {
     assertThat(logTester.logs(Level.ERROR))
       .anyMatch(log -> log.contains("Error in thread stream-consumer"));
   }
+
+  @Test
+  void awaitOpenStreamsUntilTimeout() throws Exception {
+    var output = new PipedOutputStream();
+    var consumer = new StreamConsumer();
+    consumer.consumeStream(new PipedInputStream(output), line -> {});
+
+    assertThat(consumer.await(Duration.ofMillis(50))).isFalse();
+    output.close();
+    assertThat(consumer.await(Duration.ofSeconds(5))).isTrue();
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.event.Level;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AnalysisPipelineTest {
+
+  @RegisterExtension
+  LogTesterJUnit5 logTester = new LogTesterJUnit5().setLevel(Level.DEBUG);
+
+  private static final AnalysisPipeline.Reader READER = inputFile -> inputFile.contents().getBytes(StandardCharsets.UTF_8);
+
+  // The number of lines of a file is used as its result
+  private static final AnalysisPipeline.Analysis<Analyzer.AnalysisResult> ANALYSIS = (inputFile, code) -> result(new String(code, StandardCharsets.UTF_8)
+    .split("\n").length);
+
+  @Test
+  void results_are_saved_in_order() throws InterruptedException {
+    var inputFiles = inputFiles(5 * AnalysisPipeline.QUEUE_CAPACITY);
+    List<String> pipelined = new ArrayList<>();
+    List<String> sequential = new ArrayList<>();
+
+    AnalysisPipeline.run(inputFiles, READER, ANALYSIS, (inputFile, result) -> pipelined.add(inputFile.filename() + ":" + result.measures().ncloc()));
+    AnalysisPipeline.runSequentially(inputFiles, READER, ANALYSIS, (inputFile, result) -> sequential.add(inputFile.filename() + ":" + result.measures().ncloc()));
+
+    assertThat(pipelined)
+      .hasSize(inputFiles.size())
+      .startsWith("file0.rs:1", "file1.rs:2")
+      .containsExactlyElementsOf(sequential);
+    assertThat(logTester.logs(Level.DEBUG)).anyMatch(log -> log.startsWith("Analysis pipeline: read queue full"));
+  }
+
+  @Test
+  void failures_to_read_or_analyze_a_file_are_logged() throws InterruptedException {
+    var inputFiles = inputFiles(3);
+    List<String> saved = new ArrayList<>();
+    AnalysisPipeline.Reader reader = inputFile -> {
+      if ("file0.rs".equals(inputFile.filename())) {
+        throw new IOException("cannot read");
+      }
+      return READER.read(inputFile);
+    };
+    AnalysisPipeline.Analysis<Analyzer.AnalysisResult> analysis = (inputFile, code) -> {
+      if ("file1.rs".equals(inputFile.filename())) {
+        throw new IOException("cannot analyze");
+      }
+      return ANALYSIS.analyze(inputFile, code);
+    };
+
+    AnalysisPipeline.run(inputFiles, reader, analysis, (inputFile, result) -> saved.add(inputFile.filename()));
+
+    assertThat(saved).containsExactly("file2.rs");
+    assertThat(logTester.logs(Level.ERROR)).containsExactly(
+      "Failed to analyze file: file0.rs. Reason: cannot read",
+      "Failed to analyze file: file1.rs. Reason: cannot analyze");
+  }
+
+  @Test
+  void files_with_the_same_content_are_analyzed_once() throws InterruptedException {
+    var inputFiles = List.of(
+      inputFile("main.rs", "fn main() {}"),
+      inputFile("lib.rs", "\nfn lib() {}"),
+      inputFile("vendor/main.rs", "fn main() {}"),
+      inputFile("vendor/lib.rs", "\nfn lib() {}"));
+    List<String> analyzed = new ArrayList<>();
+    List<String> saved = new ArrayList<>();
+    AnalysisPipeline.Analysis<Analyzer.AnalysisResult> analysis = (inputFile, code) -> {
+      analyzed.add(inputFile.relativePath());
+      return ANALYSIS.analyze(inputFile, code);
+    };
+    AnalysisPipeline.Saver<Analyzer.AnalysisResult> saver = (inputFile, result) -> saved.add(inputFile.relativePath() + ":" + result.measures().ncloc());
+
+    AnalysisPipeline.run(inputFiles, READER, analysis, saver);
+    AnalysisPipeline.runSequentially(inputFiles, READER, analysis, saver);
+
+    assertThat(analyzed).containsExactly("main.rs", "lib.rs", "main.rs", "lib.rs");
+    assertThat(saved).containsExactly(
+      "main.rs:1", "lib.rs:2", "vendor/main.rs:1", "vendor/lib.rs:2",
+      "main.rs:1", "lib.rs:2", "vendor/main.rs:1", "vendor/lib.rs:2");
+    assertThat(logTester.logs(Level.INFO)).containsExactly(
+      "2 file(s) with the same content as another file are not analyzed again",
+      "2 file(s) with the same content as another file are not analyzed again");
+  }
+
+  @Test
+  void file_with_the_same_content_as_a_file_which_failed_is_analyzed() throws InterruptedException {
+    var inputFiles = List.of(inputFile("main.rs", "fn main() {}"), inputFile("vendor/main.rs", "fn main() {}"));
+    List<String> saved = new ArrayList<>();
+    AnalysisPipeline.Analysis<Analyzer.AnalysisResult> analysis = (inputFile, code) -> {
+      if ("main.rs".equals(inputFile.relativePath())) {
+        throw new IOException("cannot analyze");
+      }
+      return ANALYSIS.analyze(inputFile, code);
+    };
+
+    AnalysisPipeline.run(inputFiles, READER, analysis, (inputFile, result) -> saved.add(inputFile.relativePath()));
+
+    assertThat(saved).containsExactly("vendor/main.rs");
+  }
+
+  @Test
+  void failure_to_save_results_is_rethrown() {
+    var inputFiles = inputFiles(3 * AnalysisPipeline.QUEUE_CAPACITY);
+
+    assertThatThrownBy(() -> AnalysisPipeline.run(inputFiles, READER, ANALYSIS, (inputFile, result) -> {
+      throw new IllegalStateException("cannot save");
+    }))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("cannot save");
+  }
+
+  @Test
+  void unexpected_failure_of_the_analysis_is_rethrown() {
+    var inputFiles = inputFiles(3 * AnalysisPipeline.QUEUE_CAPACITY);
+
+    assertThatThrownBy(() -> AnalysisPipeline.run(inputFiles, READER, (inputFile, code) -> {
+      throw new IllegalStateException("analyzer crashed");
+    }, (inputFile, result) -> {
+    }))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("analyzer crashed");
+  }
+
+  private static List<InputFile> inputFiles(int count) {
+    return IntStream.range(0, count)
+      .mapToObj(i -> inputFile("file" + i + ".rs", "\n".repeat(i) + "fn main() {}"))
+      .toList();
+  }
+
+  private static InputFile inputFile(String relativePath, String content) {
+    return new TestInputFileBuilder("moduleKey", relativePath)
+      .setLanguage(RustLanguage.KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .setContents(content)
+      .build();
+  }
+
+  private static Analyzer.AnalysisResult result(int ncloc) {
+    return new Analyzer.AnalysisResult(List.of(), new Analyzer.Measures(ncloc, 0, 0, 0, 0, 0, 0), List.of(), List.of(), List.of(), null);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AnalysisResultSerializerTest {
+
+  @Test
+  void round_trip() throws IOException {
+    var result = new Analyzer.AnalysisResult(
+      List.of(new Analyzer.HighlightTokens("KEYWORD", new Analyzer.Location(1, 0, 1, 2))),
+      new Analyzer.Measures(1, 2, 3, 4, 5, 6, 7),
+      List.of(new Analyzer.CpdToken("fn", new Analyzer.Location(1, 0, 1, 2)), new Analyzer.CpdToken("\"ü𠱓\"", new Analyzer.Location(2, 4, 2, 9))),
+      List.of(new Analyzer.Issue("S1", "Message with non-ASCII characters: é", new Analyzer.Location(3, 1, 4, 2),
+        List.of(new Analyzer.SecondaryLocation("secondary", new Analyzer.Location(5, 0, 5, 1))))),
+      List.of(),
+      null);
+
+    assertThat(AnalysisResultSerializer.deserialize(AnalysisResultSerializer.serialize(result))).isEqualTo(result);
+  }
+
+  @Test
+  void round_trip_skipped_passes() throws IOException {
+    var result = new Analyzer.AnalysisResult(List.of(), new Analyzer.Measures(), List.of(), List.of(),
+      List.of(Analyzer.METRICS_PASS, Analyzer.CPD_PASS), "generated");
+
+    assertThat(AnalysisResultSerializer.deserialize(AnalysisResultSerializer.serialize(result))).isEqualTo(result);
+  }
+
+  @Test
+  void truncated_data() {
+    var bytes = AnalysisResultSerializer.serialize(new Analyzer.AnalysisResult(List.of(), new Analyzer.Measures(), List.of(),
+      List.of(), List.of(), null));
+    var truncated = Arrays.copyOf(bytes, bytes.length - 1);
+
+    assertThatThrownBy(() -> AnalysisResultSerializer.deserialize(truncated)).isInstanceOf(IOException.class);
+  }
+}
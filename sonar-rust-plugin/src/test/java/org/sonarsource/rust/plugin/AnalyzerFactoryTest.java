@@ -18,6 +18,11 @@ package org.sonarsource.rust.plugin;
 
 import org.sonarsource.rust.plugin.PlatformDetection.Platform;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.sonar.scanner.plugin.api.impl.utils.DefaultTempFolder;
@@ -27,6 +32,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class AnalyzerFactoryTest {
 
@@ -45,6 +53,76 @@ class AnalyzerFactoryTest {
     }
   }
 
+  @Test
+  void reusable_analyzer() throws Exception {
+    List<Analyzer> created = new ArrayList<>();
+    List<Map<String, String>> parameters = new ArrayList<>();
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setParameters(Map<String, String> analysisParameters) {
+        super.setParameters(analysisParameters);
+        parameters.add(analysisParameters);
+      }
+
+      @Override
+      Analyzer create(Platform platform) {
+        var analyzer = mock(Analyzer.class);
+        when(analyzer.isAlive()).thenReturn(true);
+        created.add(analyzer);
+        return analyzer;
+      }
+    };
+    List<Analyzer> used = new ArrayList<>();
+
+    analyzerFactory.withReusableAnalyzer(Platform.LINUX_X64_MUSL, Map.of("a", "1", "b", "2"), List.of(), used::add);
+    analyzerFactory.withReusableAnalyzer(Platform.LINUX_X64_MUSL, Map.of("a", "1", "b", "2"), List.of(), used::add);
+    assertThat(created).hasSize(1);
+
+    // Parameters are replaced, not merged with the ones of the previous analysis
+    analyzerFactory.withReusableAnalyzer(Platform.LINUX_X64_MUSL, Map.of("a", "1"), List.of(), used::add);
+    assertThat(created).hasSize(2);
+    verify(created.get(0)).close();
+    assertThat(used).containsExactly(created.get(0), created.get(0), created.get(1));
+    assertThat(parameters.get(2)).containsOnlyKeys("a");
+  }
+
+  @Test
+  void reusable_analyzer_is_not_stopped_while_used() throws Exception {
+    var analyzer = mock(Analyzer.class);
+    when(analyzer.isAlive()).thenReturn(true);
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      Analyzer create(Platform platform) {
+        return analyzer;
+      }
+    };
+    var leased = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var analysis = new Thread(() -> {
+      try {
+        analyzerFactory.withReusableAnalyzer(Platform.LINUX_X64_MUSL, Map.of(), List.of(), a -> {
+          leased.countDown();
+          release.await();
+        });
+      } catch (Exception ex) {
+        throw new IllegalStateException(ex);
+      }
+    });
+    analysis.start();
+    assertThat(leased.await(10, TimeUnit.SECONDS)).isTrue();
+
+    var stop = new Thread(analyzerFactory::stop);
+    stop.start();
+    stop.join(200);
+    assertThat(stop.isAlive()).isTrue();
+
+    release.countDown();
+    stop.join(10_000);
+    analysis.join(10_000);
+    assertThat(stop.isAlive()).isFalse();
+    verify(analyzer).close();
+  }
+
   @Test
   void testPathInJar() {
     assertThat(AnalyzerFactory.pathInJar(Platform.WIN_X64)).isEqualTo("/analyzer/win-x64/analyzer.exe.xz");
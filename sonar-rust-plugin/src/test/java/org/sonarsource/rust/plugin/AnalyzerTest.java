@@ -17,11 +17,13 @@
 package org.sonarsource.rust.plugin;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
+import org.sonar.plugins.rust.api.RustQueryRule;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -51,6 +53,38 @@ class AnalyzerTest {
     }
   }
 
+  @Test
+  void analyze_document() throws IOException {
+    var v1 = """
+      fn foo() {}
+
+      fn bar(x: bool) {
+        if x {}
+      }
+      """;
+    var v2 = """
+      fn foo() {
+        let x = 42;
+      }
+
+      fn bar(x: bool) {
+        if x {}
+      }
+      """;
+
+    try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS)) {
+      var first = analyzer.analyzeDocument("file:///lib.rs", v1);
+      var second = analyzer.analyzeDocument("file:///lib.rs", v2);
+      var expected = analyzer.analyze(v2);
+
+      assertThat(first.measures()).isEqualTo(analyzer.analyze(v1).measures());
+      assertThat(second.measures()).isEqualTo(expected.measures());
+      assertThat(second.highlightTokens()).containsExactlyInAnyOrderElementsOf(expected.highlightTokens());
+      assertThat(second.cpdTokens()).containsExactlyElementsOf(expected.cpdTokens());
+      assertThat(second.issues()).containsExactlyInAnyOrderElementsOf(expected.issues());
+    }
+  }
+
   @Test
   void cognitive_and_cyclomatic_complexity() throws IOException {
     try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS)) {
@@ -111,6 +145,37 @@ class AnalyzerTest {
     }
   }
 
+  @Test
+  void analyze_test() throws IOException {
+    try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS)) {
+      var result = analyzer.analyzeTest("fn main() {}");
+
+      assertThat(result.skippedPasses()).containsExactly(Analyzer.METRICS_PASS, Analyzer.CPD_PASS);
+      assertThat(result.measures()).isEqualTo(new Analyzer.Measures());
+      assertThat(result.cpdTokens()).isEmpty();
+      assertThat(result.highlightTokens()).containsExactly(
+        new Analyzer.HighlightTokens("KEYWORD", new Analyzer.Location(1, 0, 1, 2)));
+    }
+  }
+
+  @Test
+  void invalid_utf8() throws IOException {
+    try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS)) {
+      byte[] latin1 = "// caf\u00e9\nfn main() {}".getBytes(StandardCharsets.ISO_8859_1);
+      byte[] truncated = {'f', 'n', ' ', 'f', '(', ')', ' ', '{', '}', ' ', '/', '/', (byte) 0xE2, (byte) 0x82};
+
+      // Invalid sequences are replaced, the rest of the file is analyzed
+      var result = analyzer.analyze(latin1);
+      assertThat(result.measures().functions()).isEqualTo(1);
+      assertThat(result.highlightTokens()).contains(new Analyzer.HighlightTokens("KEYWORD", new Analyzer.Location(2, 0, 2, 2)));
+      assertThat(analyzer.analyze(truncated).measures().functions()).isEqualTo(1);
+
+      // The analyzer answers the next requests
+      result = analyzer.analyze("fn main() {}".getBytes(StandardCharsets.UTF_8));
+      assertThat(result.measures().functions()).isEqualTo(1);
+    }
+  }
+
   @Test
   void syntax_errors() throws IOException {
     try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS)) {
@@ -149,4 +214,20 @@ fn foo(c1: bool, c2: bool) {
         )));
     }
   }
+
+  @Test
+  void query_rules() throws IOException {
+    var queryRules = List.of(
+      // Non-ASCII strings are sent with their length in bytes
+      new RustQueryRule("custom:S1", "(unsafe_block) @issue", "Évitez les blocs « unsafe »."),
+      // Invalid queries are ignored
+      new RustQueryRule("custom:S2", "(not_a_node) @issue", "Invalid query."));
+
+    try (Analyzer analyzer = new Analyzer(RUN_LOCAL_ANALYZER_COMMAND, TEST_PARAMETERS, queryRules)) {
+      var result = analyzer.analyze("fn main() { unsafe {} }");
+
+      assertThat(result.issues()).containsExactly(
+        new Analyzer.Issue("custom:S1", "Évitez les blocs « unsafe ».", new Analyzer.Location(1, 12, 1, 21), Collections.emptyList()));
+    }
+  }
 }
@@ -16,13 +16,19 @@
  */
 package org.sonarsource.rust.plugin;
 
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.sonar.api.Plugin;
 import org.sonar.api.SonarEdition;
 import org.sonar.api.SonarQubeSide;
 import com.sonarsource.scanner.engine.sensor.test.fixtures.TestSonarRuntime;
 import org.sonar.api.utils.Version;
+import org.sonarsource.rust.clippy.ClippyBackgroundRun;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class RustPluginTest {
@@ -34,6 +40,38 @@ class RustPluginTest {
         SonarQubeSide.SCANNER,
         SonarEdition.COMMUNITY));
     new RustPlugin().define(context);
-    assertEquals(18, context.getExtensions().size());
+    assertEquals(30, context.getExtensions().size());
+  }
+
+  @Test
+  void rust_sensor_is_given_the_clippy_background_run_without_contributed_repositories() {
+    var context = new Plugin.Context(TestSonarRuntime.forSonarQube(
+        Version.create(25, 2),
+        SonarQubeSide.SCANNER,
+        SonarEdition.COMMUNITY));
+    new RustPlugin().define(context);
+    List<Class<?>> components = context.getExtensions().stream()
+      .filter(Class.class::isInstance)
+      .<Class<?>>map(Class.class::cast)
+      .toList();
+
+    var constructor = greediestSatisfiableConstructor(RustSensor.class, components);
+
+    assertThat(constructor.getParameterTypes()).contains(ClippyBackgroundRun.class);
+  }
+
+  /**
+   * Selects a constructor as the container of the scanner does: the public one with the most parameters that can all be
+   * provided by the components. An array needs at least one component of its type.
+   */
+  private static Constructor<?> greediestSatisfiableConstructor(Class<?> type, List<Class<?>> components) {
+    return Arrays.stream(type.getConstructors())
+      .sorted(Comparator.comparingInt(Constructor::getParameterCount).reversed())
+      .filter(constructor -> Arrays.stream(constructor.getParameterTypes()).allMatch(parameter -> {
+        var componentType = parameter.isArray() ? parameter.getComponentType() : parameter;
+        return components.stream().anyMatch(componentType::isAssignableFrom);
+      }))
+      .findFirst()
+      .orElseThrow();
   }
 }
@@ -37,6 +37,13 @@ class RustRulesDefinitionTest {
     assertThat(rules.keySet()).allSatisfy(ruleKey -> assertThat(ruleKey).startsWith("clippy::"));
   }
 
+  @Test
+  void testClippyLintIds() {
+    assertThat(RustRulesDefinition.clippyLintIds())
+      .isSorted()
+      .containsExactlyInAnyOrderElementsOf(RustRulesDefinition.CLIPPY_RULES.keySet());
+  }
+
   @Test
   void testSonarRules() {
     var rules = RustRulesDefinition.SONAR_RULES;
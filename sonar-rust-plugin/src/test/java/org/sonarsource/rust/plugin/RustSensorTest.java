@@ -17,7 +17,9 @@
 package org.sonarsource.rust.plugin;
 
 import org.sonarsource.rust.TestAnalysisWarnigs;
+import org.sonarsource.rust.TestCache;
 import org.sonarsource.rust.cargo.CargoManifestProvider;
+import org.sonarsource.rust.common.LocalResultCache;
 import org.sonarsource.rust.plugin.PlatformDetection.Platform;
 import java.io.File;
 import java.io.IOException;
@@ -38,12 +40,20 @@ import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 import org.sonar.scanner.plugin.api.impl.rule.ActiveRulesBuilder;
 import org.sonar.scanner.plugin.api.impl.rule.NewActiveRule;
 import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.Version;
+import org.sonar.plugins.rust.api.RustQueryRule;
+import org.sonar.plugins.rust.api.RustRulesRepository;
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestSonarRuntime;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 class RustSensorTest {
@@ -83,6 +93,269 @@ class RustSensorTest {
       .isEqualTo(1);
   }
 
+  @Test
+  void analyze_test_file() {
+    RustSensor sensor = sensor();
+    context.fileSystem().add(inputFile("tests/test.rs", "fn main() { let x = 42 }", InputFile.Type.TEST));
+    sensor.execute(context);
+
+    var key = "%s:tests/test.rs".formatted(PROJECT_KEY);
+    assertThat(context.highlightingTypeAt(key, 1, 0)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(context.allIssues()).extracting(issue -> issue.ruleKey().rule()).containsExactly("S2260");
+    assertThat(context.measure(key, CoreMetrics.FUNCTIONS)).isNull();
+    assertThat(context.cpdTokens(key)).isNull();
+    assertThat(logTester.logs(Level.INFO)).contains("1 test file(s) analyzed without computing measures and duplications");
+  }
+
+  @Test
+  void skip_files_in_cargo_target_directory() throws IOException {
+    Files.writeString(baseDir.toPath().resolve("Cargo.toml"), "[package]");
+    context.fileSystem().add(inputFile("src/main.rs", "fn main() {}"));
+    context.fileSystem().add(inputFile("target/debug/build/foo/out/bindings.rs", "fn generated() {}"));
+
+    sensor().execute(context);
+
+    assertThat(context.measure("%s:src/main.rs".formatted(PROJECT_KEY), CoreMetrics.FUNCTIONS)).isNotNull();
+    assertThat(context.measure("%s:target/debug/build/foo/out/bindings.rs".formatted(PROJECT_KEY), CoreMetrics.FUNCTIONS)).isNull();
+    assertThat(logTester.logs(Level.INFO)).contains("1 file(s) skipped in Cargo target directories");
+  }
+
+  @Test
+  void analyze_files_in_cargo_target_directory_when_exclusion_is_disabled() throws IOException {
+    Files.writeString(baseDir.toPath().resolve("Cargo.toml"), "[package]");
+    context.settings().setProperty(RustSensor.EXCLUDE_GENERATED_FILES, "false");
+    context.fileSystem().add(inputFile("target/debug/build/foo/out/bindings.rs", "fn generated() {}"));
+
+    sensor().execute(context);
+
+    assertThat(context.measure("%s:target/debug/build/foo/out/bindings.rs".formatted(PROJECT_KEY), CoreMetrics.FUNCTIONS)).isNotNull();
+  }
+
+  @Test
+  void skip_generated_files() {
+    Map<String, String> parameters = new HashMap<>(AnalyzerTest.TEST_PARAMETERS);
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setParameters(Map<String, String> sensorParameters) {
+        parameters.putAll(sensorParameters);
+      }
+
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, parameters);
+      }
+    };
+    context.fileSystem().add(inputFile("src/main.rs", "fn main() {}"));
+    context.fileSystem().add(inputFile("src/proto.rs", "// This file is @generated by prost-build.\npub struct Message {}"));
+
+    new RustSensor(analyzerFactory, new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(parameters).containsEntry(RustSensor.SKIP_GENERATED_FILES_PARAMETER, "true");
+    assertThat(context.measure("%s:src/main.rs".formatted(PROJECT_KEY), CoreMetrics.FUNCTIONS)).isNotNull();
+    assertThat(context.measure("%s:src/proto.rs".formatted(PROJECT_KEY), CoreMetrics.FUNCTIONS)).isNull();
+    assertThat(context.highlightingTypeAt("%s:src/proto.rs".formatted(PROJECT_KEY), 1, 0)).isEmpty();
+    assertThat(logTester.logs(Level.INFO)).contains("1 generated file(s) skipped");
+  }
+
+  @Test
+  void analyze_files_with_the_same_content_once() {
+    AtomicInteger analyses = new AtomicInteger();
+    var content = "fn main() {\n  let x = 42\n}";
+    context.fileSystem().add(inputFile("src/main.rs", content));
+    context.fileSystem().add(inputFile("vendor/foo/src/main.rs", content));
+    context.fileSystem().add(inputFile("src/lib.rs", "fn lib() {}"));
+
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(analyses).hasValue(2);
+    for (var path : List.of("src/main.rs", "vendor/foo/src/main.rs")) {
+      var key = "%s:%s".formatted(PROJECT_KEY, path);
+      assertThat(context.highlightingTypeAt(key, 1, 0)).containsExactly(TypeOfText.KEYWORD);
+      assertThat(context.measure(key, CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+      assertThat(context.cpdTokens(key)).isNotEmpty();
+    }
+    // Issues are saved on each file
+    assertThat(context.allIssues())
+      .extracting(issue -> issue.primaryLocation().inputComponent().key())
+      .containsExactlyInAnyOrder("%s:src/main.rs".formatted(PROJECT_KEY), "%s:vendor/foo/src/main.rs".formatted(PROJECT_KEY));
+    assertThat(logTester.logs(Level.INFO)).contains("1 file(s) with the same content as another file are not analyzed again");
+  }
+
+  @Test
+  void reuse_cached_results_of_unchanged_files() {
+    var content = "fn main() {\n  let x = 42\n}";
+    AtomicInteger analyses = new AtomicInteger();
+    context.fileSystem().add(inputFile("src/main.rs", content));
+    var firstCache = new TestCache(Map.of());
+    context.setCacheEnabled(true);
+    context.setPreviousCache(firstCache);
+    context.setNextCache(firstCache);
+
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(analyses).hasValue(1);
+    assertThat(firstCache.next).hasSize(1);
+    assertThat(firstCache.next.keySet()).allMatch(key -> key.startsWith(AnalysisResultCache.KEY_PREFIX));
+    assertThat(logTester.logs(Level.INFO)).contains("1 file(s) analyzed, 0 file(s) reused from the analysis cache");
+
+    logTester.clear();
+    var unchangedContext = SensorContextTester.create(baseDir);
+    unchangedContext.fileSystem().add(new TestInputFileBuilder(PROJECT_KEY, "src/main.rs")
+      .setModuleBaseDir(baseDir.toPath())
+      .setLanguage(RustLanguage.KEY)
+      .setCharset(StandardCharsets.UTF_8)
+      .setStatus(InputFile.Status.SAME)
+      .setContents(content)
+      .build());
+    var secondCache = new TestCache(firstCache.next);
+    unchangedContext.setCacheEnabled(true);
+    unchangedContext.setCanSkipUnchangedFiles(true);
+    unchangedContext.setPreviousCache(secondCache);
+    unchangedContext.setNextCache(secondCache);
+
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(unchangedContext);
+
+    assertThat(analyses).hasValue(1);
+    var key = "%s:src/main.rs".formatted(PROJECT_KEY);
+    assertThat(unchangedContext.highlightingTypeAt(key, 1, 0)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(unchangedContext.measure(key, CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(unchangedContext.cpdTokens(key)).isNotEmpty();
+    // The scanner copies the issues of unchanged files from the previous analysis
+    assertThat(unchangedContext.allIssues()).isEmpty();
+    assertThat(secondCache.copied).containsExactlyElementsOf(firstCache.next.keySet());
+    assertThat(logTester.logs(Level.INFO)).contains("0 file(s) analyzed, 1 file(s) reused from the analysis cache");
+  }
+
+  @Test
+  void analyze_changed_files_again() {
+    AtomicInteger analyses = new AtomicInteger();
+    var cache = new TestCache(Map.of());
+    context.fileSystem().add(inputFile("src/main.rs", "fn main() {\n  let x = 42\n}"));
+    context.setCacheEnabled(true);
+    context.setPreviousCache(cache);
+    context.setNextCache(cache);
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(context);
+
+    var changedContext = SensorContextTester.create(baseDir);
+    changedContext.fileSystem().add(inputFile("src/main.rs", "fn main() {\n  let x = 43\n}"));
+    var changedCache = new TestCache(cache.next);
+    changedContext.setCacheEnabled(true);
+    changedContext.setCanSkipUnchangedFiles(true);
+    changedContext.setPreviousCache(changedCache);
+    changedContext.setNextCache(changedCache);
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(changedContext);
+
+    assertThat(analyses).hasValue(2);
+    assertThat(changedCache.copied).isEmpty();
+    assertThat(changedCache.next).hasSize(1).doesNotContainKeys(cache.next.keySet().toArray(String[]::new));
+    assertThat(changedContext.allIssues()).hasSize(1);
+  }
+
+  @Test
+  void reuse_results_from_local_cache() {
+    AtomicInteger analyses = new AtomicInteger();
+    context.settings().setProperty(LocalResultCache.CACHE_DIR, "cache");
+    context.fileSystem().add(inputFile("src/main.rs", "fn main() {\n  let x = 42\n}"));
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(analyses).hasValue(1);
+    assertThat(new File(baseDir, "cache")).isDirectory();
+    assertThat(logTester.logs(Level.INFO)).anyMatch(log -> log.startsWith("Local cache ") && log.endsWith(": 0 hit(s), 1 miss(es), 0% hit rate"));
+
+    logTester.clear();
+    var nextContext = SensorContextTester.create(baseDir);
+    nextContext.settings().setProperty(LocalResultCache.CACHE_DIR, "cache");
+    nextContext.fileSystem().add(inputFile("src/main.rs", "fn main() {\n  let x = 42\n}"));
+    nextContext.fileSystem().add(inputFile("src/lib.rs", "fn lib() {}"));
+    new RustSensor(countingAnalyzerFactory(analyses), new AnalysisWarningsWrapper()).execute(nextContext);
+
+    assertThat(analyses).hasValue(2);
+    var key = "%s:src/main.rs".formatted(PROJECT_KEY);
+    assertThat(nextContext.highlightingTypeAt(key, 1, 0)).containsExactly(TypeOfText.KEYWORD);
+    assertThat(nextContext.measure(key, CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(nextContext.cpdTokens(key)).isNotEmpty();
+    assertThat(nextContext.allIssues()).hasSize(1);
+    assertThat(logTester.logs(Level.INFO)).anyMatch(log -> log.endsWith(": 1 hit(s), 1 miss(es), 50% hit rate"));
+  }
+
+  @Test
+  void cache_keys_depend_on_the_configuration() {
+    var parameters = Map.of("S100:format", "^[a-z]+$");
+    var hash = AnalysisResultCache.configurationHash(parameters, List.of());
+
+    assertThat(AnalysisResultCache.configurationHash(new HashMap<>(parameters), List.of())).isEqualTo(hash);
+    assertThat(AnalysisResultCache.configurationHash(Map.of("S100:format", "^[a-z_]+$"), List.of())).isNotEqualTo(hash);
+    assertThat(AnalysisResultCache.configurationHash(parameters, List.of(new RustQueryRule("repo:S1", "(unsafe_block) @issue", "unsafe"))))
+      .isNotEqualTo(hash);
+  }
+
+  @Test
+  void pipelined_and_sequential_analyses_save_the_same_results() {
+    var sequentialContext = SensorContextTester.create(baseDir);
+    sequentialContext.settings().setProperty(RustSensor.PIPELINE_ENABLED, "false");
+    for (var sensorContext : List.of(context, sequentialContext)) {
+      for (int i = 0; i < 3 * AnalysisPipeline.QUEUE_CAPACITY; i++) {
+        sensorContext.fileSystem().add(inputFile("src/file" + i + ".rs", "fn f" + i + "() {\n  let x = " + i + "\n}"));
+      }
+      sensor().execute(sensorContext);
+    }
+
+    for (int i = 0; i < 3 * AnalysisPipeline.QUEUE_CAPACITY; i++) {
+      var key = "%s:src/file%d.rs".formatted(PROJECT_KEY, i);
+      assertThat(context.highlightingTypeAt(key, 1, 0)).isEqualTo(sequentialContext.highlightingTypeAt(key, 1, 0));
+      assertThat(context.measure(key, CoreMetrics.NCLOC).value()).isEqualTo(sequentialContext.measure(key, CoreMetrics.NCLOC).value());
+      assertThat(context.cpdTokens(key)).usingRecursiveComparison().isEqualTo(sequentialContext.cpdTokens(key));
+    }
+    assertThat(context.allIssues())
+      .extracting(issue -> issue.primaryLocation().inputComponent().key() + ":" + issue.primaryLocation().message())
+      .containsExactlyElementsOf(sequentialContext.allIssues().stream()
+        .map(issue -> issue.primaryLocation().inputComponent().key() + ":" + issue.primaryLocation().message())
+        .toList());
+  }
+
+  @Test
+  void utf8_contents() throws IOException {
+    var utf8 = new TestInputFileBuilder(PROJECT_KEY, "utf8.rs")
+      .setCharset(StandardCharsets.UTF_8)
+      .setContents("// café")
+      .build();
+    var latin1 = new TestInputFileBuilder(PROJECT_KEY, "latin1.rs")
+      .setCharset(StandardCharsets.ISO_8859_1)
+      .setContents("// café")
+      .build();
+
+    assertThat(RustSensor.utf8Contents(utf8)).isEqualTo("// café".getBytes(StandardCharsets.UTF_8));
+    // Files in other charsets are transcoded
+    assertThat(RustSensor.utf8Contents(latin1)).isEqualTo("// café".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void analyze_file_in_sonarlint() {
+    AtomicInteger createdAnalyzers = new AtomicInteger();
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public Analyzer create(Platform platform) {
+        createdAnalyzers.incrementAndGet();
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS);
+      }
+    };
+    var sensor = new RustSensor(analyzerFactory, new AnalysisWarningsWrapper());
+
+    for (int i = 0; i < 2; i++) {
+      var sonarLintContext = SensorContextTester.create(baseDir);
+      sonarLintContext.setRuntime(TestSonarRuntime.forSonarLint(Version.create(10, 0)));
+      sonarLintContext.fileSystem().add(inputFile("test.rs", "fn main() {}"));
+      sensor.execute(sonarLintContext);
+
+      assertThat(sonarLintContext.highlightingTypeAt("%s:test.rs".formatted(PROJECT_KEY), 1, 0))
+        .containsExactly(TypeOfText.KEYWORD);
+    }
+
+    // The analyzer process is kept between analyses, until the factory is stopped
+    assertThat(createdAnalyzers).hasValue(1);
+    analyzerFactory.stop();
+  }
+
   @Test
   void analyze_unicode() {
     RustSensor sensor = sensor();
@@ -211,7 +484,7 @@ fn foo(c1: bool) {
 
     var mockAnalyzerFactory = new AnalyzerFactory(null) {
       @Override
-      public void addParameters(Map<String, String> parameters) {
+      public void setParameters(Map<String, String> parameters) {
         capturedParameters.set(Map.copyOf(parameters)); // Capture the parameters
       }
 
@@ -253,7 +526,7 @@ fn foo(c1: bool) {
 
     var mockAnalyzerFactory = new AnalyzerFactory(null) {
       @Override
-      public void addParameters(Map<String, String> parameters) {
+      public void setParameters(Map<String, String> parameters) {
         capturedParameters.set(Map.copyOf(parameters)); // Capture the parameters
       }
 
@@ -278,6 +551,160 @@ fn foo(c1: bool) {
         .containsEntry("S3776:threshold", "15"); // Should contain the default parameter from RustRulesDefinition.parameters()
   }
 
+  @Test
+  void contributed_query_rules() {
+    AtomicReference<List<RustQueryRule>> capturedQueryRules = new AtomicReference<>();
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setQueryRules(List<RustQueryRule> queryRules) {
+        capturedQueryRules.set(List.copyOf(queryRules));
+      }
+
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS, capturedQueryRules.get());
+      }
+    };
+    var repository = new RustRulesRepository() {
+      @Override
+      public Collection<String> ruleKeys() {
+        return List.of("custom:S1", "custom:S2");
+      }
+
+      @Override
+      public Collection<RustQueryRule> queryRules() {
+        return List.of(
+          new RustQueryRule("custom:S1", "((call_expression function: (identifier) @issue) (#eq? @issue \"{name}\"))", "Do not call \"{name}\"."),
+          new RustQueryRule("custom:S2", "(unsafe_block) @issue", "Inactive rule."));
+      }
+    };
+    context.setActiveRules(new ActiveRulesBuilder()
+      .addRule(new NewActiveRule.Builder()
+        .setRuleKey(RuleKey.of("custom", "S1"))
+        .setParam("name", "forbidden")
+        .build())
+      .build());
+    context.fileSystem().add(inputFile("test.rs", "fn main() { allowed(); unsafe { forbidden(); } }"));
+
+    new RustSensor(analyzerFactory, new AnalysisWarningsWrapper(), new RustRulesRepository[] {repository}).execute(context);
+
+    // Only the active rule is executed, with its parameters resolved
+    assertThat(capturedQueryRules.get()).containsExactly(new RustQueryRule(
+      "custom:S1",
+      "((call_expression function: (identifier) @issue) (#eq? @issue \"forbidden\"))",
+      "Do not call \"forbidden\"."));
+    assertThat(context.allIssues()).hasSize(1);
+    var issue = context.allIssues().iterator().next();
+    assertThat(issue.ruleKey()).isEqualTo(RuleKey.of("custom", "S1"));
+    assertThat(issue.primaryLocation().message()).isEqualTo("Do not call \"forbidden\".");
+    assertThat(issue.primaryLocation().textRange().start().lineOffset()).isEqualTo(32);
+  }
+
+  @Test
+  void resolve_query_parameters() {
+    var parameters = Map.of("name", "say \"hi\" \\o/", "kind", "identifier");
+
+    // Values are escaped in string literals only
+    assertThat(RustSensor.resolveQueryParameters("((call_expression function: ({kind}) @issue) (#eq? @issue \"{name}\"))", parameters))
+      .isEqualTo("((call_expression function: (identifier) @issue) (#eq? @issue \"say \\\"hi\\\" \\\\o/\"))");
+    assertThat(RustSensor.resolveQueryParameters("(#match? @issue \"^\\\"{name}\")", parameters))
+      .isEqualTo("(#match? @issue \"^\\\"say \\\"hi\\\" \\\\o/\")");
+    // Quotes in comments do not start a string literal
+    assertThat(RustSensor.resolveQueryParameters("; don't \"\n({kind}) {unknown}", parameters))
+      .isEqualTo("; don't \"\n(identifier) {unknown}");
+  }
+
+  @Test
+  void contributed_query_rule_with_quote_in_parameter() {
+    AtomicReference<List<RustQueryRule>> capturedQueryRules = new AtomicReference<>();
+    var analyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setQueryRules(List<RustQueryRule> queryRules) {
+        capturedQueryRules.set(List.copyOf(queryRules));
+      }
+
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS, capturedQueryRules.get());
+      }
+    };
+    var repository = new RustRulesRepository() {
+      @Override
+      public Collection<String> ruleKeys() {
+        return List.of("custom:S1");
+      }
+
+      @Override
+      public Collection<RustQueryRule> queryRules() {
+        return List.of(new RustQueryRule("custom:S1", "((string_literal) @issue (#eq? @issue \"{literal}\"))", "Do not use {literal}."));
+      }
+    };
+    context.setActiveRules(new ActiveRulesBuilder()
+      .addRule(new NewActiveRule.Builder()
+        .setRuleKey(RuleKey.of("custom", "S1"))
+        .setParam("literal", "\"secret\"")
+        .build())
+      .build());
+    context.fileSystem().add(inputFile("test.rs", "fn main() { let a = \"public\"; let b = \"secret\"; }"));
+
+    new RustSensor(analyzerFactory, new AnalysisWarningsWrapper(), new RustRulesRepository[] {repository}).execute(context);
+
+    assertThat(capturedQueryRules.get().get(0).query()).isEqualTo("((string_literal) @issue (#eq? @issue \"\\\"secret\\\"\"))");
+    assertThat(context.allIssues()).hasSize(1);
+    var issue = context.allIssues().iterator().next();
+    assertThat(issue.primaryLocation().message()).isEqualTo("Do not use \"secret\".");
+    assertThat(issue.primaryLocation().textRange().start().lineOffset()).isEqualTo(38);
+  }
+
+  @Test
+  void parallel_file_size_threshold_passed_to_analyzer_factory() {
+    AtomicReference<Map<String, String>> capturedParameters = new AtomicReference<>();
+
+    var mockAnalyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setParameters(Map<String, String> parameters) {
+        capturedParameters.set(Map.copyOf(parameters));
+      }
+
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS);
+      }
+    };
+
+    context.settings().setProperty(RustSensor.PARALLEL_FILE_SIZE_THRESHOLD, "512");
+    context.fileSystem().add(inputFile("test.rs", "fn main() {}"));
+
+    new RustSensor(mockAnalyzerFactory, new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(capturedParameters.get())
+      .containsEntry(RustSensor.PARALLEL_FILE_SIZE_THRESHOLD_PARAMETER, "524288");
+  }
+
+  @Test
+  void parallel_analysis_disabled_by_default() {
+    AtomicReference<Map<String, String>> capturedParameters = new AtomicReference<>();
+
+    var mockAnalyzerFactory = new AnalyzerFactory(null) {
+      @Override
+      public void setParameters(Map<String, String> parameters) {
+        capturedParameters.set(Map.copyOf(parameters));
+      }
+
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS);
+      }
+    };
+
+    context.fileSystem().add(inputFile("test.rs", "fn main() {}"));
+
+    new RustSensor(mockAnalyzerFactory, new AnalysisWarningsWrapper()).execute(context);
+
+    assertThat(capturedParameters.get())
+      .doesNotContainKey(RustSensor.PARALLEL_FILE_SIZE_THRESHOLD_PARAMETER);
+  }
+
   @Test
   void reports_dependency_telemetry() throws IOException {
     var manifest = baseDir.toPath().resolve("Cargo.toml");
@@ -297,15 +724,34 @@ fn foo(c1: bool) {
   }
 
   private InputFile inputFile(String relativePath, String content) {
+    return inputFile(relativePath, content, InputFile.Type.MAIN);
+  }
+
+  private InputFile inputFile(String relativePath, String content, InputFile.Type type) {
     return new TestInputFileBuilder(PROJECT_KEY, relativePath)
       .setModuleBaseDir(baseDir.toPath())
-      .setType(InputFile.Type.MAIN)
+      .setType(type)
       .setLanguage(RustLanguage.KEY)
       .setCharset(StandardCharsets.UTF_8)
       .setContents(content)
       .build();
   }
 
+  private static AnalyzerFactory countingAnalyzerFactory(AtomicInteger analyses) {
+    return new AnalyzerFactory(null) {
+      @Override
+      public Analyzer create(Platform platform) {
+        return new Analyzer(AnalyzerTest.RUN_LOCAL_ANALYZER_COMMAND, AnalyzerTest.TEST_PARAMETERS) {
+          @Override
+          public AnalysisResult analyze(byte[] utf8Code) throws IOException {
+            analyses.incrementAndGet();
+            return super.analyze(utf8Code);
+          }
+        };
+      }
+    };
+  }
+
   private RustSensor sensor() {
     return new RustSensor(new AnalyzerFactory(null) {
       @Override
@@ -0,0 +1,101 @@
+/*
+ * SonarQube Rust Plugin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.rust.plugin;
+
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SameContentFilesTest {
+
+  @TempDir
+  Path baseDir;
+
+  @Test
+  void only_files_of_the_same_size_type_and_charset_are_hashed() throws IOException {
+    var main = inputFile("src/main.rs", "fn main() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var same = inputFile("src/same.rs", "fn same() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var lib = inputFile("src/lib.rs", "fn lib() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var vendoredMain = inputFile("vendor/foo/src/main.rs", "fn main() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var test = inputFile("tests/main.rs", "fn main() {}", InputFile.Type.TEST, StandardCharsets.UTF_8);
+    var latin1 = inputFile("src/latin1.rs", "fn main() {}", InputFile.Type.MAIN, StandardCharsets.ISO_8859_1);
+
+    var sameContentFiles = new SameContentFiles<String>(List.of(main, same, lib, vendoredMain, test, latin1));
+
+    assertThat(key(sameContentFiles, main))
+      .isNotNull()
+      .isEqualTo(key(sameContentFiles, vendoredMain))
+      .isNotEqualTo(key(sameContentFiles, same));
+    // Files of another size, type or charset are not hashed
+    assertThat(key(sameContentFiles, lib)).isNull();
+    assertThat(key(sameContentFiles, test)).isNull();
+    assertThat(key(sameContentFiles, latin1)).isNull();
+  }
+
+  @Test
+  void results_are_kept_until_all_files_of_the_same_size_are_saved() throws IOException {
+    var main = inputFile("src/main.rs", "fn main() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var vendoredMain = inputFile("vendor/foo/src/main.rs", "fn main() {}", InputFile.Type.MAIN, StandardCharsets.UTF_8);
+    var sameContentFiles = new SameContentFiles<String>(List.of(main, vendoredMain));
+    var key = key(sameContentFiles, main);
+
+    assertThat(sameContentFiles.isAnalyzed(key)).isFalse();
+    sameContentFiles.analyzed(key);
+    sameContentFiles.saved(main, key, "result");
+    assertThat(sameContentFiles.isAnalyzed(key(sameContentFiles, vendoredMain))).isTrue();
+    assertThat(sameContentFiles.result(key)).isEqualTo("result");
+
+    sameContentFiles.saved(vendoredMain, key, "result");
+    assertThat(sameContentFiles.result(key)).isNull();
+  }
+
+  @Test
+  void content_hash() {
+    var hash = SameContentFiles.contentHash("fn main() {}".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(hash)
+      .hasSize(64)
+      .isEqualTo(SameContentFiles.contentHash("fn main() {}".getBytes(StandardCharsets.UTF_8)))
+      .isNotEqualTo(SameContentFiles.contentHash("fn main() { }".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static SameContentFiles.Key key(SameContentFiles<String> sameContentFiles, InputFile inputFile) throws IOException {
+    return sameContentFiles.key(inputFile, RustSensor.utf8Contents(inputFile));
+  }
+
+  private InputFile inputFile(String relativePath, String content, InputFile.Type type, Charset charset) throws IOException {
+    Path path = baseDir.resolve(relativePath);
+    Files.createDirectories(path.getParent());
+    Files.writeString(path, content, charset);
+    return new TestInputFileBuilder("moduleKey", relativePath)
+      .setModuleBaseDir(baseDir)
+      .setType(type)
+      .setLanguage(RustLanguage.KEY)
+      .setCharset(charset)
+      .setContents(content)
+      .build();
+  }
+}